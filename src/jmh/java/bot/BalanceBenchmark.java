@@ -0,0 +1,41 @@
+package bot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* TeamBalancer on its own, for a PUG of the given size with random ratings and roles.
+ * 12 players is the exhaustive search over every split, 14 the largest pool still searched exhaustively (every choice
+ * of subs too), and the rest go through the local search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BalanceBenchmark {
+    @Param({"12", "14", "16", "24", "40", "64"})
+    public int players;
+
+    private int[] ratings;
+    private int[] roles;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(players);
+        ratings = new int[players];
+        roles = new int[players];
+        for (int p = 0; p < players; p++) {
+            ratings[p] = 1500 + random.nextInt(2500);
+            // mostly one or two roles, with the odd flex player
+            roles[p] = 1 + random.nextInt(Skill.ANY);
+        }
+    }
+
+    @Benchmark
+    public TeamBalancer.Split balance() {
+        return TeamBalancer.balance(ratings, roles);
+    }
+}
@@ -0,0 +1,60 @@
+package bot;
+
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/* one message, from arrival in onMessageReceived to its reply being queued: tokenizing, the command lookup, the rate
+ * limiter, the hand-off to the command executor, Command.execute and the command itself.
+ * the bot runs against FakeDiscord, with PUGs restored from a sample backup. Replies are only queued - the dispatcher
+ * sends them at Discord's pace, so once its queue fills up, further replies are counted as dropped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CommandBenchmark {
+    @Param({"hello everyone", "!genji", "!help", "!nonsense", "!info pug7", "!players pug7", "!list",
+            "!list today open"})
+    public String content;
+
+    @Param({"100"})
+    public int pugs;
+
+    private File directory;
+    private BotCore core;
+    private MessageReceivedEvent event;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pug-bench").toFile();
+        String backup = new File(directory, "backup").getPath();
+        SnapshotFormat.write(new File(backup + ".bin"), PersistenceBenchmark.sampleState(pugs, 1000), 0);
+
+        FakeDiscord discord = new FakeDiscord(1000);
+        core = new BotCore(discord.config(backup));
+        core.onReady(new ReadyEvent(discord.jda, 0));
+        event = discord.message(FakeDiscord.FIRST_MEMBER, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        core.shutdown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void onMessageReceived() {
+        core.handle(event).join();
+    }
+}
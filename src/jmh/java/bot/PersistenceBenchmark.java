@@ -0,0 +1,93 @@
+package bot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+// writing and loading backups, for states from a handful of PUGs and users up to 100k of each
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PersistenceBenchmark {
+    private static final String[] ZONES = {"America/New_York", "America/Chicago", "America/Los_Angeles",
+            "Europe/London", "Europe/Berlin", "Australia/Sydney"};
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private File directory;
+    private StoredState state;
+    private File snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pug-bench").toFile();
+        state = sampleState(size, size);
+        snapshot = new File(directory, "snapshot.bin");
+        SnapshotFormat.write(snapshot, state, size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public File writeSnapshot() throws IOException {
+        File out = new File(directory, "written.bin");
+        SnapshotFormat.write(out, state, size);
+        return out;
+    }
+
+    @Benchmark
+    public SnapshotFormat.Snapshot readSnapshot() throws IOException {
+        return SnapshotFormat.read(snapshot);
+    }
+
+    // what the bot does on startup: read the snapshot and replay the (here empty) journal over it
+    @Benchmark
+    public StoredState loadJournal() throws Exception {
+        return new Journal(snapshot.getPath(), new File(directory, "missing.txt").getPath(),
+                new File(directory, "journal").getPath(), Integer.MAX_VALUE).load();
+    }
+
+    /* a state with the given number of PUGs - each with a full roster and a few watchers, all starting in the
+     * future - and of users with registered time zones. Users are numbered from FakeDiscord.FIRST_MEMBER.
+     */
+    static StoredState sampleState(int pugs, int users) {
+        StoredState state = new StoredState();
+        ZonedDateTime start = ZonedDateTime.now().plusDays(1);
+        for (int i = 0; i < pugs; i++) {
+            LinkedHashSet<String> players = new LinkedHashSet<>();
+            LinkedHashSet<String> watchers = new LinkedHashSet<>();
+            for (int p = 0; p < 12; p++) {
+                players.add(Long.toString(FakeDiscord.FIRST_MEMBER + (i + p) % Math.max(users, 1)));
+            }
+            for (int w = 12; w < 15; w++) {
+                watchers.add(Long.toString(FakeDiscord.FIRST_MEMBER + (i + w) % Math.max(users, 1)));
+            }
+            String name = "pug" + i;
+            state.pugs.put(name, new SerializablePUG(players, watchers,
+                    start.plusMinutes(i).withZoneSameInstant(ZoneId.of(ZONES[i % ZONES.length])),
+                    "Sample PUG number " + i, Long.toString(FakeDiscord.FIRST_MEMBER),
+                    Long.toString(FakeDiscord.GUILD_ID), name, Long.toString(5_000_000 + i), ReminderPlan.DEFAULT,
+                    0));
+        }
+        for (int u = 0; u < users; u++) {
+            state.timeZones.put(Long.toString(FakeDiscord.FIRST_MEMBER + u), ZoneId.of(ZONES[u % ZONES.length]));
+        }
+        return state;
+    }
+}
@@ -0,0 +1,85 @@
+package bot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/* rendering a PUG for !list, !info and !players, for PUGs of various sizes.
+ * the plain benchmarks hit the render cache, as repeat queries of an unchanged PUG do; the "AfterChange" ones change
+ * the roster first, so the view has to be rendered again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RenderBenchmark {
+    @Param({"1", "12", "24", "100"})
+    public int players;
+
+    private FakeDiscord discord;
+    private PUG pug;
+    private ZoneId zone;
+    private net.dv8tion.jda.core.entities.User flipper;
+    private boolean watching;
+
+    @Setup
+    public void setUp() {
+        discord = new FakeDiscord(players + 1);
+        MessageDispatcher dispatcher = new MessageDispatcher(1000, 45, 1, 1000, 10, 50);
+        ReminderWheel reminders = new ReminderWheel(1000, 512, 0);
+        RoleSync roles = new RoleSync(() -> discord.guild, Executors.newSingleThreadScheduledExecutor(), 500);
+        PUGServices services = new PUGServices(dispatcher, reminders, roles, new MembershipIndex(),
+                new SubscriptionIndex(new ZoneMap()), p -> {});
+
+        LongSet roster = new LongSet();
+        for (int i = 0; i < players; i++) {
+            roster.add(FakeDiscord.FIRST_MEMBER + i);
+        }
+        pug = new PUG(roster, new LongSet(), ZonedDateTime.now().plusDays(1), "A benchmark PUG",
+                FakeDiscord.FIRST_MEMBER, discord.guild, "bench", 5_000_000, ReminderPlan.DEFAULT, 0, services);
+        zone = ZoneId.of("Europe/Berlin");
+        flipper = discord.user(FakeDiscord.FIRST_MEMBER + players);
+    }
+
+    @Benchmark
+    public String briefInfo() {
+        return pug.briefInfo(zone);
+    }
+
+    @Benchmark
+    public String fullInfo() {
+        return pug.fullInfo(zone);
+    }
+
+    @Benchmark
+    public String playerList() {
+        return pug.playerList();
+    }
+
+    @Benchmark
+    public String fullInfoAfterChange() {
+        this.flip();
+        return pug.fullInfo(zone);
+    }
+
+    @Benchmark
+    public String playerListAfterChange() {
+        this.flip();
+        return pug.playerList();
+    }
+
+    // moves one member between playing and watching, which changes the PUG without growing it
+    private void flip() {
+        if (watching) {
+            pug.registerPlayer(flipper);
+        } else {
+            pug.registerWatcher(flipper);
+        }
+        watching = !watching;
+    }
+}
@@ -0,0 +1,36 @@
+package bot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+// parsing the times and zones people type into !create, !reschedule, !list, !info and !timezone
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TimeParserBenchmark {
+    @Param({"8:30 pm", "8:30 pm EST 5-20-2026", "tomorrow 8pm", "friday 9pm Europe/Berlin", "in 1h30m"})
+    public String time;
+
+    @Param({"EST", "america/new_york", "UTC+5:30"})
+    public String zone;
+
+    private final ZoneId registered = ZoneId.of("America/New_York");
+    private final Instant now = Instant.parse("2026-05-01T12:00:00Z");
+
+    @Benchmark
+    public ZonedDateTime parseTime() throws IllegalCommandArgumentException {
+        return TimeParser.parseTime(time, registered, now);
+    }
+
+    @Benchmark
+    public ZoneId parseZone() throws IllegalCommandArgumentException {
+        return TimeParser.parseZone(zone);
+    }
+}
@@ -3,271 +3,809 @@ package bot;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ShutdownEvent;
 import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleRemoveEvent;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.core.hooks.ListenerAdapter;
-import net.dv8tion.jda.core.managers.GuildController;
 
-import java.io.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 public class BotCore extends ListenerAdapter {
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT = DateTimeFormatter.ofPattern("h:mm a z M-d-y");
+
     private String prefix = "!";
-    private String backupFile = "backup.txt";
-    private String MOD_ID;
+    private int compactionThreshold = 500;
+    private long commitWindowMillis = 20;
+    private int outboxCapacity = 20000;
+    private int globalRequestsPerSecond = 45;
+    private int maxMessagesInFlight = 50;
+    private int privateChannelCacheSize = 5000;
+    private long reminderGraceMinutes = 30;
+    private long roleWindowMillis = 500;
+    private int maxListPages = 5;
+    // per user, a burst of 5 commands, then one every 2 seconds; per channel, a burst of 20, then 3 a second
+    private int userCommandBurst = 5;
+    private double userCommandsPerSecond = 0.5;
+    private int channelCommandBurst = 20;
+    private double channelCommandsPerSecond = 3;
+    private int maxCommandsInFlight = 256;
+    // what !balance counts players no mod has rated yet as
+    private int defaultRating = 2500;
+    // how many PUGs !history shows, and how many players !top does
+    private int historyLength = 10;
+    private int topLength = 10;
 
+    private List<GuildConfig> configs;
     private LinkedHashMap<String, Command> commands;
-    private LinkedHashMap<String, PUG> pugs;
-    private LinkedHashMap<User, ZoneId> timeZones;
+    private CommandTable commandTable;
+    private CommandLimiter limiter;
+    private CommandExecutor executor;
+    // every server the bot runs PUGs in, by the server's snowflake. Filled in as each shard becomes ready.
+    private ConcurrentHashMap<Long, GuildState> guilds;
+    // shared by every server: Discord's global rate limit is per bot, not per server
+    private MessageDispatcher dispatcher;
+    private ReminderWheel reminders;
+    private ScheduledExecutorService roleScheduler;
+    private Metrics metrics;
 
-    BotCore(String announcementID, String NO_DM_ID, String MOD_ID) {
-        this.MOD_ID = MOD_ID;
+    BotCore(GuildConfig... configs) {
+        this.configs = Arrays.asList(configs);
 
         this.commands = new LinkedHashMap<>();
+        this.commandTable = new CommandTable();
+        this.limiter = new CommandLimiter(userCommandBurst, userCommandsPerSecond, channelCommandBurst,
+                channelCommandsPerSecond);
+        this.executor = new CommandExecutor(maxCommandsInFlight);
 
-        this.pugs = new LinkedHashMap<>();
-        this.timeZones = new LinkedHashMap<>();
+        this.guilds = new ConcurrentHashMap<>();
+        this.dispatcher = new MessageDispatcher(outboxCapacity, globalRequestsPerSecond, 5, 1000,
+                privateChannelCacheSize, maxMessagesInFlight);
+        this.reminders = new ReminderWheel(1000, 512, TimeUnit.MINUTES.toMillis(reminderGraceMinutes));
+        this.roleScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "role-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics = new Metrics();
+        this.registerGauges();
 
         //START COMMAND DEFINITIONS:
-        commands.put("create", new Command (true, true,
+        commands.put("create", new Command (true,
                 "!create [PUG name], [time], [optional: description]",
                 "Creates a pug at the given time. Time should be in the format HH:MM [am/pm] [Time Zone (optional " +
                         "if you already registered a time zone)] [optional: MM-DD-YYYY]. Date defaults to today if none " +
-                        "present. Year may be left off, defaults to this year. Register your time zone with !timezone.") {
+                        "present. Year may be left off, defaults to this year. You can also use a day like tomorrow " +
+                        "or friday instead of a date, or a time from now like \"in 2h\". Register your time zone with " +
+                        "!timezone.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
                 String pugName = args.next();
 
-                if (pugs.containsKey(pugName)) {
+                if (guild.getPug(pugName) != null) {
                     throw new IllegalCommandArgumentException("You cannot create a pug with the same name as an " +
                             "existing one.");
                 }
 
-                ZonedDateTime pugTime = parseTime(args.next(), message.getAuthor());
+                ZonedDateTime pugTime = parseTime(guild, args.next(), message.getAuthor());
 
                 String pugDescription = "";
                 if (args.hasNext()) {
-                    args.skip("\\s*,\\s*");
-                    pugDescription = args.nextLine();
+                    pugDescription = args.rest();
                 }
 
-                Guild guild = message.getGuild();
-
-                pugs.put(pugName, new PUG(pugTime, pugDescription, message.getAuthor(), guild, pugName, 5,
-                        announcementID, NO_DM_ID));
+                PUG pug = new PUG(pugTime, pugDescription, message.getAuthor(), message.getGuild(), pugName,
+                        ReminderPlan.DEFAULT, guild.getServices());
+                if (!guild.addPug(pug)) {
+                    pug.close();
+                    throw new IllegalCommandArgumentException("You cannot create a pug with the same name as " +
+                            "an existing one.");
+                }
+                pug.announce(guild.config.announcementID);
 
                 return "PUG created successfully.";
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("cancel", new Command(true, true,
+        commands.put("cancel", new Command(true,
                 "!cancel [PUG name]",
                 "Deletes the named PUG and informs its players and watchers of the cancellation. This action is " +
                         "irreversible and currently does not ask \"Are you sure?\" or anything, so be careful.") {
             @Override
-            String processServerMessage (Scanner args, MessageReceivedEvent message) throws Exception {
-                pugs.remove(getPugName(args)).cancel();
+            String processServerMessage (CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                guild.deletePug(getPugName(guild, args), PUG::cancel, true, Collections.emptyList());
                 return "PUG successfully canceled.";
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("reschedule", new Command(true, true,
+        commands.put("reschedule", new Command(true,
                 "!reschedule [PUG name], [new time]",
                 "Changes named pug to occur at given time. Informs all players and watchers of the change." +
                         "Time should be in the format HH:MM [am/pm] [Time Zone (optional if you already registered a " +
                         "time zone)] [optional: MM-DD-YYYY]. Date defaults to today if none present. Year may be left " +
-                        "off, defaults to this year. Register your time zone with !timezone.") {
+                        "off, defaults to this year. You can also use a day like tomorrow or friday instead of a date, " +
+                        "or a time from now like \"in 2h\". Register your time zone with !timezone.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-                String pugName = getPugName(args);
-                pugs.get(pugName).reschedule(parseTime(args.next(), message.getAuthor()));
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                String pugName = getPugName(guild, args);
+                ZonedDateTime newTime = parseTime(guild, args.next(), message.getAuthor());
+                guild.change(pugName, pug -> {
+                    pug.reschedule(newTime);
+                    guild.record(JournalEntry.reschedule(pugName, newTime));
+                    guild.record(JournalEntry.reminderStage(pugName, pug.getNextReminder()));
+                });
                 return "PUG rescheduled successfully";
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("transfer", new Command(true, true,
+        commands.put("transfer", new Command(true,
                 "!transfer [PUG name], [optional: @user]",
                 "Makes the named user the new mod of named PUG, or the command author if no user is named. " +
                         "The user must themselves be a mod.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-                PUG pug = pugs.get(getPugName(args));
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                String pugName = getPugName(guild, args);
                 if (args.hasNext()) {
                     Member newMod = message.getMessage().getMentionedMembers().get(0);
-                    if (this.authenticate(newMod, MOD_ID)) {
-                        pug.changeMod(newMod.getUser());
+                    if (authenticate(newMod, guild.config.MOD_ID)) {
+                        guild.change(pugName, JournalEntry.transfer(pugName, newMod.getUser().getId()),
+                                pug -> pug.changeMod(newMod.getUser()));
                         return "PUG successfully transferred to " + newMod.getEffectiveName() + ".";
                     } else {
                         throw new IllegalCommandArgumentException("New mod must be a moderator.");
                     }
                 } else {
-                    pug.changeMod(message.getAuthor());
+                    guild.change(pugName, JournalEntry.transfer(pugName, message.getAuthor().getId()),
+                            pug -> pug.changeMod(message.getAuthor()));
                     return "PUG successfully transferred to " + message.getMember().getEffectiveName() + ".";
                 }
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
+        });
+
+        commands.put("reminders", new Command(true,
+                "!reminders [PUG name], [optional: reminder times], [optional: warning time]",
+                "Shows or changes when the named PUG sends reminders. Reminder times are how long before the start " +
+                        "each reminder goes out to every player and watcher, separated by spaces - e.g. \"24h 1h " +
+                        "5m start\", or \"none\" for no reminders. The warning time is when the mod gets a DM if " +
+                        "the PUG still has fewer than 12 players, or \"none\" to turn that off. Reminders that " +
+                        "would already have gone out are skipped. With just a PUG name, shows its current reminders.") {
+            @Override
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                String pugName = getPugName(guild, args);
+                if (!args.hasNext()) {
+                    return guild.getPug(pugName).getReminderPlan().describe();
+                }
+
+                String ladder = args.next();
+                ReminderPlan current = guild.getPug(pugName).getReminderPlan();
+                String warning = "none";
+                if (args.hasNext()) {
+                    warning = args.next();
+                } else if (current.getWarningMinutes() != ReminderPlan.NO_WARNING) {
+                    warning = ReminderPlan.formatMinutes(current.getWarningMinutes());
+                }
+                ReminderPlan plan = ReminderPlan.parse(ladder, warning);
+
+                guild.change(pugName, pug -> {
+                    pug.setReminderPlan(plan);
+                    guild.record(JournalEntry.plan(pugName, plan));
+                    guild.record(JournalEntry.reminderStage(pugName, pug.getNextReminder()));
+                });
+                return "Reminders updated.\n" + plan.describe();
+            }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("close", new Command(true, true,
-                "!close [PUG name]",
-                "Closes and deletes the named PUG. Currently just acts like !cancel except it doesn't notify anyone, " +
-                        "but more functionality will be added in the future, hopefully.") {
+        commands.put("rate", new Command(true,
+                "!rate @user, [optional: rating], [optional: roles]",
+                "Sets the mentioned user's skill rating, from 0 to " + Skill.MAX_RATING + ", and the roles they " +
+                        "play - tank, dps, support or flex, like \"tank support\" - which !balance uses to split " +
+                        "teams. Roles are left as they were if not given. With just a user, shows their rating.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-                pugs.remove(getPugName(args)).close();
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                List<Member> mentioned = message.getMessage().getMentionedMembers();
+                if (mentioned.isEmpty()) {
+                    throw new IllegalCommandArgumentException("Mention who to rate, like !rate @user, 2500, tank.");
+                }
+                Member player = mentioned.get(0);
+                args.next();
+                long id = player.getUser().getIdLong();
+                Skill current = guild.getSkill(id);
+                if (!args.hasNext()) {
+                    return current == null ? player.getEffectiveName() + " hasn't been rated yet." :
+                            player.getEffectiveName() + " is rated " + current.rating + ", playing " +
+                                    Skill.describeRoles(current.roles) + ".";
+                }
+
+                int rating;
+                try {
+                    rating = Integer.parseInt(args.next());
+                } catch (NumberFormatException e) {
+                    rating = -1;
+                }
+                if (rating < 0 || rating > Skill.MAX_RATING) {
+                    throw new IllegalCommandArgumentException("The rating should be a number from 0 to " +
+                            Skill.MAX_RATING + ".");
+                }
+                int roles = args.hasNext() ? Skill.parseRoles(args.rest()) :
+                        current != null ? current.roles : Skill.ANY;
+
+                guild.setSkill(id, new Skill(rating, roles));
+                return player.getEffectiveName() + " is now rated " + rating + ", playing " +
+                        Skill.describeRoles(roles) + ".";
+            }
+        });
+
+        commands.put("close", new Command(true,
+                "!close [PUG name], [optional: @no-shows]",
+                "Closes and deletes the named PUG once it's been played, without notifying anyone. Mention any " +
+                        "players who signed up but didn't turn up, and they'll be counted as no-shows in !stats " +
+                        "and !top.") {
+            @Override
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                ArrayList<Long> noShows = new ArrayList<>();
+                for (User u : message.getMessage().getMentionedUsers()) {
+                    noShows.add(u.getIdLong());
+                }
+                guild.deletePug(getPugName(guild, args), PUG::close, false, noShows);
                 return "PUG successfully closed. Thank you for using PUGchamp!";
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("watch", new UserInfoCommand(false, true,
+        commands.put("watch", new UserInfoCommand(false,
                 "!watch [PUG name]",
                 "Registers you as a watcher of the named pug. You will get updates about the PUG, but will not " +
                         "count toward the required 12 players. Use this if you are interested in playing but aren't " +
                         "sure if you can make it, or could play if the time changes slightly, etc. If you are " +
                         "currently a player in the pug, you will no longer be one.") {
             @Override
-            String processUser(Scanner args, User user) throws Exception {
-                String pugName = getPugName(args);
-                pugs.get(pugName).registerWatcher(user);
+            String processUser(CommandArgs args, User user, GuildState guild) throws Exception {
+                String pugName = getPugName(guild, args);
+                guild.change(pugName, JournalEntry.watch(pugName, user.getId()), pug -> pug.registerWatcher(user));
                 return "You are now watching " + pugName;
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("join", new UserInfoCommand(false, true,
+        commands.put("join", new UserInfoCommand(false,
                 "!join [PUG name]",
                 "Registers you as a player in the named PUG. If you are currently a watcher, you will no longer " +
                         "be one.") {
             @Override
-            String processUser(Scanner args, User user) throws Exception {
-                String pugName = getPugName(args);
-                pugs.get(pugName).registerPlayer(user);
+            String processUser(CommandArgs args, User user, GuildState guild) throws Exception {
+                String pugName = getPugName(guild, args);
+                guild.change(pugName, JournalEntry.join(pugName, user.getId()), pug -> pug.registerPlayer(user));
                 return "You are now playing in " + pugName;
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("add", new Command(true, true,
+        commands.put("add", new Command(true,
                 "!add @user, [PUG name]",
                 "Adds the named user as a player in the named PUG, as though they had typed !join [PUG name].") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
                 Member player = message.getMessage().getMentionedMembers().get(0);
                 args.next();
-                pugs.get(getPugName(args)).registerPlayer(player.getUser());
+                String pugName = getPugName(guild, args);
+                guild.change(pugName, JournalEntry.join(pugName, player.getUser().getId()),
+                        pug -> pug.registerPlayer(player.getUser()));
                 return "Player added successfully.";
             }
+
+            @Override
+            int pugArgument() {
+                return 1;
+            }
         });
 
-        commands.put("leave", new UserInfoCommand(false, true,
+        commands.put("leave", new UserInfoCommand(false,
                 "!leave [PUG name]",
                 "Removes you from the named PUG. You will no longer get updates, and will no longer count toward " +
                         "the required 12 players if you were a player.") {
             @Override
-            String processUser(Scanner args, User user) throws Exception {
-                pugs.get(getPugName(args)).removePlayer(user);
+            String processUser(CommandArgs args, User user, GuildState guild) throws Exception {
+                String pugName = getPugName(guild, args);
+                guild.change(pugName, JournalEntry.leave(pugName, user.getId()), pug -> pug.removePlayer(user));
                 return "Left PUG successfully.";
             }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
         });
 
-        commands.put("remove", new Command(true, true,
+        commands.put("remove", new Command(true,
                 "!remove @user, [PUG name]",
                 "Removes named user from the named PUG, as though they had typed !leave [PUG name].") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
                 Member player = message.getMessage().getMentionedMembers().get(0);
                 args.next();
-                pugs.get(getPugName(args)).removePlayer(player.getUser());
+                String pugName = getPugName(guild, args);
+                guild.change(pugName, JournalEntry.leave(pugName, player.getUser().getId()),
+                        pug -> pug.removePlayer(player.getUser()));
                 return "Player removed successfully.";
             }
+
+            @Override
+            int pugArgument() {
+                return 1;
+            }
         });
 
-        commands.put("list", new Command(false, false,
-                "!list [time zone (optional if you already registered a time zone)]",
-                "Lists all active pugs, with times converted to given time zone. " +
+        commands.put("list", new Command(false,
+                "!list [optional: today, open and/or mine], [time zone (optional if you already registered a time " +
+                        "zone)]",
+                "Lists active pugs, earliest first, with times converted to given time zone. \"today\" only shows " +
+                        "PUGs starting today in your time zone, \"open\" only those with fewer than 12 players, and " +
+                        "\"mine\" only those you're the mod of - they can be combined, like !list today open. " +
                         "For more info about a specific PUG, use !info.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-                String list = "Here are the currently active PUGs:\n";
-                ZoneId zone = getZone(message.getAuthor(), args);
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                boolean today = false;
+                boolean open = false;
+                boolean mine = false;
+                ZoneId zone = null;
+                while (args.hasNext()) {
+                    String arg = args.next();
+                    String[] words = arg.split(" ");
+                    boolean filters = true;
+                    for (String word : words) {
+                        filters &= word.isEmpty() || word.equalsIgnoreCase("today") ||
+                                word.equalsIgnoreCase("open") || word.equalsIgnoreCase("mine");
+                    }
+                    if (!filters) {
+                        zone = TimeParser.parseZone(arg);
+                        continue;
+                    }
+                    for (String word : words) {
+                        today |= word.equalsIgnoreCase("today");
+                        open |= word.equalsIgnoreCase("open");
+                        mine |= word.equalsIgnoreCase("mine");
+                    }
+                }
+                if (zone == null) {
+                    zone = getZone(guild, message.getAuthor(), args);
+                }
+
+                long author = message.getAuthor().getIdLong();
+                long from = Long.MIN_VALUE;
+                long to = Long.MAX_VALUE;
+                if (today) {
+                    ZonedDateTime midnight = LocalDate.now(zone).atStartOfDay(zone);
+                    from = midnight.toInstant().toEpochMilli();
+                    to = midnight.plusDays(1).toInstant().toEpochMilli();
+                }
+                Collection<PUG> candidates = mine ? guild.pugsModdedBy(author) :
+                        today ? guild.pugsBetween(from, to) : guild.allPugs();
+
+                // one buffer for the whole list - the dispatcher splits it into as many messages as it takes, but
+                // past a few of those it's better to narrow the list down than to flood the channel
+                StringBuilder list = new StringBuilder("Here are the currently active PUGs:\n");
+                int shown = 0;
+                int more = 0;
+                for (PUG pug : candidates) {
+                    long start = pug.getTime().toInstant().toEpochMilli();
+                    if (start < from || start >= to || (open && pug.playerCount() >= 12)) continue;
 
-                for (PUG pug : pugs.values()) {
-                    list += pug.briefInfo(zone) + "\n";
+                    if (list.length() > maxListPages * MessageDispatcher.MESSAGE_LIMIT) {
+                        more++;
+                    } else {
+                        list.append(pug.briefInfo(zone)).append('\n');
+                        shown++;
+                    }
+                }
+
+                if (shown == 0) {
+                    return "There are no PUGs like that right now.";
+                }
+                if (more > 0) {
+                    list.append("...and ").append(more).append(" more. Use !list today, open or mine to narrow it " +
+                            "down.");
                 }
+                return list.toString();
+            }
 
-                return list;
+            @Override
+            int cost() {
+                return 3;
             }
         });
 
-        commands.put("info", new UserInfoCommand(false, false,
+        commands.put("info", new UserInfoCommand(false,
                 "!info [PUG name], [time zone (optional if you already registered a time zone)]",
                 "returns info about named pug, with times in given time zone - " +
                         "more detailed than the data from !list") {
             @Override
-            String processUser(Scanner args, User user) throws Exception {
-                String pug = getPugName(args);
-                return pugs.get(pug).fullInfo(getZone(user, args));
+            String processUser(CommandArgs args, User user, GuildState guild) throws Exception {
+                String pug = getPugName(guild, args);
+                return guild.getPug(pug).fullInfo(getZone(guild, user, args));
+            }
+
+            @Override
+            int pugArgument() {
+                return 0;
             }
         });
 
-        commands.put("players", new UserInfoCommand(false, false,
+        commands.put("players", new UserInfoCommand(false,
                 "!players [PUG name]",
                 "Returns a list of people playing in named PUG.") {
             @Override
-            String processUser(Scanner args, User u) throws Exception {
-                return pugs.get(getPugName(args)).playerList();
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
+                return guild.getPug(getPugName(guild, args)).playerList();
+            }
+
+            @Override
+            int pugArgument() {
+                return 0;
             }
         });
 
-        commands.put("watchers", new UserInfoCommand(false, false,
+        commands.put("watchers", new UserInfoCommand(false,
                 "!watchers [PUG name]",
                 "Returns a list of people watching the named PUG.") {
             @Override
-            String processUser(Scanner args, User u) throws Exception {
-                return pugs.get(getPugName(args)).watcherList();
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
+                return guild.getPug(getPugName(guild, args)).watcherList();
+            }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
+        });
+
+        commands.put("mypugs", new UserInfoCommand(false,
+                "!mypugs [time zone (optional if you already registered a time zone)]",
+                "Lists the PUGs you're playing in or watching, earliest first, with times converted to the given " +
+                        "time zone.") {
+            @Override
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
+                if (guild == null) {
+                    throw new IllegalCommandArgumentException("I'm not sure which server you mean - use this " +
+                            "command in the server instead.");
+                }
+                ZoneId zone = getZone(guild, u, args);
+                long id = u.getIdLong();
+                List<PUG> mine = guild.pugsOf(id);
+                if (mine.isEmpty()) {
+                    return "You aren't in any PUGs right now - use !list to find one.";
+                }
+
+                StringBuilder list = new StringBuilder("Here are the PUGs you're in:\n");
+                for (PUG pug : mine) {
+                    list.append(pug.briefInfo(zone)).append("\nYou're ").append(pug.getMod() == id ? "the mod." :
+                            pug.isPlayer(id) ? "playing." : "watching.").append('\n');
+                }
+                return list.toString();
+            }
+
+            @Override
+            int cost() {
+                return 2;
+            }
+        });
+
+        commands.put("balance", new UserInfoCommand(false,
+                "!balance [PUG name]",
+                "Splits the named PUG's players into the two most even teams by their skill ratings (see !rate), " +
+                        "giving each team two tanks, two dps and two supports if the players' roles allow it. With " +
+                        "more than 12 players, also picks who sits out as a sub - earlier signups play when it's a " +
+                        "tie.") {
+            @Override
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
+                String pugName = getPugName(guild, args);
+                long[] players = guild.getPug(pugName).getPlayers();
+                if (players.length < 2 * TeamBalancer.TEAM_SIZE) {
+                    throw new IllegalCommandArgumentException("Splitting into teams takes at least " +
+                            2 * TeamBalancer.TEAM_SIZE + " players, and " + pugName + " has " + players.length + ".");
+                }
+                if (players.length > TeamBalancer.MAX_PLAYERS) {
+                    players = Arrays.copyOf(players, TeamBalancer.MAX_PLAYERS);
+                }
+
+                int[] ratings = new int[players.length];
+                int[] roles = new int[players.length];
+                List<String> unrated = new ArrayList<>();
+                for (int i = 0; i < players.length; i++) {
+                    Skill skill = guild.getSkill(players[i]);
+                    if (skill == null) {
+                        ratings[i] = defaultRating;
+                        roles[i] = Skill.ANY;
+                        unrated.add(memberName(guild, players[i]));
+                    } else {
+                        ratings[i] = skill.rating;
+                        roles[i] = skill.roles;
+                    }
+                }
+                TeamBalancer.Split split = TeamBalancer.balance(ratings, roles);
+
+                StringBuilder out = new StringBuilder("Teams for ").append(pugName).append(", rated ")
+                        .append(split.ratingA).append(" against ").append(split.ratingB).append(":");
+                appendTeam(out, "Team 1", guild, players, split.teamA, split.rolesA);
+                appendTeam(out, "Team 2", guild, players, split.teamB, split.rolesB);
+                if (split.subs.length > 0) {
+                    out.append("\nSubs:");
+                    for (int sub : split.subs) {
+                        out.append("\n - ").append(memberName(guild, players[sub]));
+                    }
+                }
+                if (!split.rolesMet) {
+                    out.append("\nThese players' roles can't give both teams two tanks, two dps and two supports, " +
+                            "so these are just the most even teams.");
+                }
+                if (!unrated.isEmpty()) {
+                    out.append("\nNot rated yet, so counted as ").append(defaultRating).append(": ")
+                            .append(String.join(", ", unrated));
+                }
+                return out.toString();
+            }
+
+            @Override
+            int pugArgument() {
+                return 0;
+            }
+        });
+
+        commands.put("history", new Command(false,
+                "!history [optional: @user]",
+                "Lists the last " + historyLength + " closed or cancelled PUGs you (or the mentioned user) played " +
+                        "in or watched, most recent first.") {
+            @Override
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                if (guild == null) {
+                    throw new IllegalCommandArgumentException("I'm not sure which server you mean - use this " +
+                            "command in the server instead.");
+                }
+                User subject = mentionedOrAuthor(message);
+                long id = subject.getIdLong();
+                List<HistoryArchive.Entry> recent = guild.getHistory().recent(id, historyLength);
+                if (recent.isEmpty()) {
+                    return subject.getName() + " hasn't been in any PUGs that have finished yet.";
+                }
+
+                ZoneId zone = guild.getTimeZone(message.getAuthor().getIdLong());
+                DateTimeFormatter format = HISTORY_TIME_FORMAT.withZone(zone != null ? zone : ZoneOffset.UTC);
+                StringBuilder out = new StringBuilder("Recent PUGs for ").append(subject.getName()).append(":");
+                for (HistoryArchive.Entry entry : recent) {
+                    out.append("\n - ").append(entry.name).append(", ")
+                            .append(format.format(Instant.ofEpochMilli(entry.time))).append(": ");
+                    boolean played = false;
+                    for (long player : entry.players) {
+                        played |= player == id;
+                    }
+                    boolean noShow = false;
+                    for (long player : entry.noShows) {
+                        noShow |= player == id;
+                    }
+                    out.append(noShow ? "didn't show" : played ? "played" : "watched");
+                    if (entry.cancelled) {
+                        out.append(" (cancelled)");
+                    }
+                }
+                return out.toString();
+            }
+
+            @Override
+            String processDM(CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
+                return this.processServerMessage(args, message, guild);
             }
         });
 
-        commands.put("dms", new Command(false, false,
-                "!DMs [on/off]",
-                "Adds or removes the @Don't DM me role to you.") {
+        commands.put("stats", new Command(false,
+                "!stats [optional: @user]",
+                "Shows how many PUGs you (or the mentioned user) have played in, watched and modded, and how " +
+                        "often players who signed up didn't show.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-                String state = args.next().toLowerCase();
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                if (guild == null) {
+                    throw new IllegalCommandArgumentException("I'm not sure which server you mean - use this " +
+                            "command in the server instead.");
+                }
+                User subject = mentionedOrAuthor(message);
+                HistoryArchive history = guild.getHistory();
+                HistoryArchive.Stats stats = history.stats(subject.getIdLong());
 
-                Role noDMs = message.getGuild().getRoleById(NO_DM_ID);
-                GuildController controller = message.getGuild().getController();
+                StringBuilder out = new StringBuilder("Stats for ").append(subject.getName()).append(":");
+                int attended = stats.played - stats.noShows;
+                out.append("\nSigned up to play in ").append(stats.played).append(" PUGs, and played in ")
+                        .append(attended);
+                if (stats.played > 0) {
+                    out.append(String.format(" - %d%% attendance, %d%% no-shows", 100 * attended / stats.played,
+                            100 * stats.noShows / stats.played));
+                }
+                out.append("\nWatched: ").append(stats.watched)
+                        .append("\nModded: ").append(stats.modded)
+                        .append("\nSigned up for, but cancelled: ").append(stats.cancelled)
+                        .append("\nThis server has finished ").append(history.archivedCount() -
+                        history.cancelledCount()).append(" PUGs, and cancelled ").append(history.cancelledCount())
+                        .append(".");
+                return out.toString();
+            }
 
-                if (state.equals("off")) {
-                    controller.addSingleRoleToMember(message.getMember(), noDMs).queue();
+            @Override
+            String processDM(CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
+                return this.processServerMessage(args, message, guild);
+            }
+        });
+
+        commands.put("top", new UserInfoCommand(false,
+                "!top [optional: days]",
+                "Lists the " + topLength + " players who played in the most PUGs, over the last however many " +
+                        "days or all time. No-shows don't count.") {
+            @Override
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
+                if (guild == null) {
+                    throw new IllegalCommandArgumentException("I'm not sure which server you mean - use this " +
+                            "command in the server instead.");
+                }
+                long since = 0;
+                String period = "all time";
+                if (args.hasNext()) {
+                    int days;
+                    try {
+                        days = Integer.parseInt(args.next());
+                    } catch (NumberFormatException e) {
+                        days = 0;
+                    }
+                    if (days <= 0) {
+                        throw new IllegalCommandArgumentException("Days should be a whole number, like !top 30.");
+                    }
+                    since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+                    period = "the last " + days + (days == 1 ? " day" : " days");
+                }
+
+                List<long[]> top = guild.getHistory().top(since, topLength);
+                if (top.isEmpty()) {
+                    return "Nobody has played in a PUG that finished in " + period + ".";
                 }
-                else if (state.equals("on")) {
-                    controller.removeSingleRoleFromMember(message.getMember(), noDMs).queue();
+                StringBuilder out = new StringBuilder("Most PUGs played, ").append(period).append(":");
+                for (int i = 0; i < top.size(); i++) {
+                    out.append("\n").append(i + 1).append(". ").append(memberName(guild, top.get(i)[0]))
+                            .append(" - ").append(top.get(i)[1]);
                 }
-                else {
+                return out.toString();
+            }
+
+            @Override
+            int cost() {
+                return 2;
+            }
+        });
+
+        commands.put("dms", new Command(false,
+                "!DMs [on/off], [optional: hours, like 6pm-11pm]",
+                "Adds or removes the @Don't DM me role to you. With hours, you're only DMed about new PUGs " +
+                        "starting from the first hour up to the second, in your registered time zone - !dms on " +
+                        "without hours gets you all of them again.") {
+            @Override
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                long user = message.getAuthor().getIdLong();
+                SubscriptionIndex subscribers = guild.getSubscribers();
+                if (!args.hasNext()) {
+                    return !subscribers.isSubscribed(user) ? "DMs are off." :
+                            subscribers.getHours(user) == SubscriptionIndex.ALL_HOURS ? "DMs are on." :
+                                    "DMs are on, for some hours of the day.";
+                }
+                String state = args.next();
+
+                long noDMs = Long.parseLong(guild.config.NO_DM_ID);
+                RoleSync roles = guild.getServices().roles;
+
+                if (state.equalsIgnoreCase("off")) {
+                    roles.add(user, noDMs);
+                    // the role change comes back as an event too, but a PUG created before then shouldn't DM them
+                    subscribers.unsubscribe(user);
+                    return "DMs turned off.";
+                }
+                else if (!state.equalsIgnoreCase("on")) {
                     throw new IllegalArgumentException();
                 }
 
-                return "DMs turned " + state + ".";
+                int hours = SubscriptionIndex.ALL_HOURS;
+                if (args.hasNext()) {
+                    hours = SubscriptionIndex.parseHours(args.rest());
+                    if (hours != SubscriptionIndex.ALL_HOURS && guild.getTimeZone(user) == null) {
+                        throw new IllegalCommandArgumentException("Register your time zone with !timezone first, " +
+                                "so I know whose hours those are.");
+                    }
+                }
+                roles.remove(user, noDMs);
+                subscribers.subscribe(user);
+                if (hours != subscribers.getHours(user)) {
+                    guild.setDmHours(user, hours);
+                }
+                return hours == SubscriptionIndex.ALL_HOURS ? "DMs turned on." :
+                        "DMs turned on, for PUGs starting in those hours.";
             }
         });
 
-        commands.put("timezone", new Command(false, true,
+        commands.put("timezone", new Command(false,
                 "!timezone [time zone]",
                 "registers your time zone as the given time zone. Any commands that involve time will use the " +
                         "registered time zone if none is specified. !timezone on its own will display your currently " +
-                        "registered time zone, if you have one.") {
+                        "registered time zone, if you have one. Zones can be abbreviations like EST, regions like ET " +
+                        "or Europe/Berlin, or offsets like UTC+2.") {
             @Override
-            String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
                 if (args.hasNext()) {
-                    timeZones.put(message.getAuthor(), parseZone(args.next()));
-                    return "Time zone registered successfully! Make sure to use -DT instead of -ST during daylight " +
-                            "savings if you're in a country/state that uses it.";
+                    String name = args.next();
+                    ZoneId zone = TimeParser.parseZone(name);
+                    guild.setTimeZone(message.getAuthor().getIdLong(), zone);
+                    String ambiguity = TimeParser.ambiguity(name);
+                    return "Time zone registered successfully as " +
+                            TimeParser.ZONE_NAME.format(ZonedDateTime.now(zone)) + "! " +
+                            (ambiguity != null ? ambiguity + " " : "") + "Abbreviations like EST are fixed, so " +
+                            "make sure to use -DT instead of -ST during daylight savings - or use a region like ET, " +
+                            "which keeps up with daylight savings on its own.";
                 } else {
-                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("z");
-                    if (timeZones.containsKey(message.getAuthor())) {
-                        String zone = formatter.format(ZonedDateTime.now().withZoneSameLocal(
-                                timeZones.get(message.getAuthor())));
+                    ZoneId registered = guild.getTimeZone(message.getAuthor().getIdLong());
+                    if (registered != null) {
+                        String zone = TimeParser.ZONE_NAME.format(ZonedDateTime.now().withZoneSameLocal(registered));
                         return "Your time zone is currently " + zone;
                     } else {
                         return "You don't have a time zone registered. Do so now! It'll be helpful, trust me.";
@@ -276,11 +814,24 @@ public class BotCore extends ListenerAdapter {
             }
         });
 
-        commands.put("genji", new UserInfoCommand(false, false,
+        commands.put("outbox", new Command(true,
+                "!outbox",
+                "Shows how many outgoing messages (replies, reminders, announcement DMs) are waiting to be sent, " +
+                        "and how many have been sent, failed or dropped so far, along with the same for this " +
+                        "server's role changes.") {
+            @Override
+            String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild)
+                    throws Exception {
+                return "Outgoing messages - " + dispatcher.progress() + "\nRole changes - " +
+                        guild.getServices().roles.progress();
+            }
+        });
+
+        commands.put("genji", new UserInfoCommand(false,
                 "!genji",
                 "Needs healing.") {
             @Override
-            String processUser(Scanner args, User user) throws Exception {
+            String processUser(CommandArgs args, User user, GuildState guild) throws Exception {
                 return "I need healing!";
             }
         });
@@ -288,19 +839,18 @@ public class BotCore extends ListenerAdapter {
         class HelpCommand extends UserInfoCommand {
             private boolean revealModOnly;
 
-            private HelpCommand (boolean MOD_ONLY, boolean MUTATOR, String template, String info, boolean revealModOnly) {
-                super(MOD_ONLY, MUTATOR, template, info);
+            private HelpCommand (boolean MOD_ONLY, String template, String info, boolean revealModOnly) {
+                super(MOD_ONLY, template, info);
                 this.revealModOnly = revealModOnly;
             }
 
-            String processUser(Scanner args, User u) throws Exception {
+            String processUser(CommandArgs args, User u, GuildState guild) throws Exception {
                 if (args.hasNext()) {
                     String command = args.next();
-                    if (command.length() > prefix.length() && command.substring(0, prefix.length()).equals(prefix)) {
-                        command = command.substring(prefix.length());
-                    }
-                    if (commands.containsKey(command) && commands.get(command).hidden() == revealModOnly) {
-                        return commands.get(command).getUsage();
+                    int start = (command.length() > prefix.length() && command.startsWith(prefix)) ? prefix.length() : 0;
+                    Command named = commandTable.get(command, start, command.length());
+                    if (named != null && named.hidden() == revealModOnly) {
+                        return named.getUsage();
                     } else  {
                         return "No command with that name!";
                     }
@@ -315,14 +865,19 @@ public class BotCore extends ListenerAdapter {
                     return out;
                 }
             }
+
+            @Override
+            int cost() {
+                return 2;
+            }
         }
 
-        commands.put("help", new HelpCommand(false, false,
+        commands.put("help", new HelpCommand(false,
                 "!help [optional: command name]",
                 "Lists all commands. Use !help [command name] for more detailed usage information.",
                 false));
 
-        commands.put("modhelp", new HelpCommand(true, false,
+        commands.put("modhelp", new HelpCommand(true,
                 "!modhelp [optional: command name]",
                 "Just like !help, but for super-secret mod-only commands.",
                 true) {
@@ -331,34 +886,148 @@ public class BotCore extends ListenerAdapter {
                 return false;
             }
         });
+
+        for (Map.Entry<String, Command> entry : commands.entrySet()) {
+            commandTable.put(entry.getKey(), entry.getValue());
+            entry.getValue().measure(metrics.command(entry.getKey()));
+        }
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    // effect: exposes the current state of the queues, the reminder wheel, and every server's PUGs as gauges
+    private void registerGauges() {
+        metrics.gauge("pugbot_outbound_queued", "queue=\"messages\"",
+                "Outgoing work waiting on Discord: messages queued, or members with role changes pending.",
+                dispatcher::queued);
+        metrics.gauge("pugbot_outbound_queued", "queue=\"roles\"", "",
+                () -> this.sum(guild -> guild.getServices().roles.outstanding()));
+        metrics.gauge("pugbot_messages_in_flight", "", "Messages handed to Discord that haven't come back yet.",
+                () -> dispatcher.inFlight());
+        metrics.gauge("pugbot_commands_in_flight", "", "Commands queued or running on the command executor.",
+                () -> executor.inFlight());
+        metrics.gauge("pugbot_rate_limit_buckets", "", "Users and channels the command rate limiter is tracking.",
+                limiter::size);
+        metrics.gauge("pugbot_reminders_pending", "", "Reminders scheduled on the reminder wheel.",
+                reminders::pending);
+        metrics.gauge("pugbot_reminder_lag_seconds", "stat=\"last\"",
+                "How late reminders fired after their deadline, for the last one and the worst one so far.",
+                () -> reminders.lastLagMillis() / 1000.0);
+        metrics.gauge("pugbot_reminder_lag_seconds", "stat=\"max\"", "",
+                () -> reminders.maxLagMillis() / 1000.0);
+        metrics.gauge("pugbot_guilds", "", "Servers with their PUGs loaded.", guilds::size);
+        metrics.gauge("pugbot_pugs", "", "PUGs across every server.", () -> this.sum(GuildState::pugCount));
+        metrics.gauge("pugbot_players", "", "Players signed up across every server's PUGs.",
+                () -> this.sum(GuildState::playerCount));
+        metrics.gauge("pugbot_archived_pugs", "", "Closed and cancelled PUGs in every server's history.",
+                () -> this.sum(GuildState::archivedCount));
+        metrics.gauge("pugbot_dm_subscribers", "", "Members who get a DM about new PUGs, across every server.",
+                () -> this.sum(guild -> guild.getSubscribers().size()));
+        metrics.gauge("pugbot_time_zones", "", "Registered time zones across every server.",
+                () -> this.sum(GuildState::timeZoneCount));
+    }
+
+    private long sum(ToIntFunction<GuildState> count) {
+        long total = 0;
+        for (GuildState guild : guilds.values()) {
+            total += count.applyAsInt(guild);
+        }
+        return total;
     }
 
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
-        if (event.getAuthor().isBot()) return;
+        this.handle(event);
+    }
+
+    // effect: checks the message for a command and hands it to the executor. Returns a future that completes once
+    // the command has run (or right away, if there's nothing to run).
+    CompletableFuture<Void> handle(MessageReceivedEvent event) {
+        CompletableFuture<Void> nothing = CompletableFuture.completedFuture(null);
+        if (event.getAuthor().isBot()) return nothing;
         // We don't want to respond to other bot accounts, including us
 
         String content = event.getMessage().getContentRaw();
 
         //fast-failure for non-commands
-        if (content.length() >= prefix.length() && !content.substring(0, prefix.length()).equals(prefix)) return;
+        if (!content.startsWith(prefix)) return nothing;
+
+        GuildState guild;
+        if (event.getMember() != null) {
+            guild = guilds.get(event.getGuild().getIdLong());
+            // not a server we run PUGs in
+            if (guild == null) return nothing;
+        } else {
+            guild = this.guildFor(event.getAuthor());
+        }
+
+        // find the command name, then hand the rest of the message to it as arguments
+        int nameStart = prefix.length();
+        while (nameStart < content.length() && Character.isWhitespace(content.charAt(nameStart))) {
+            nameStart++;
+        }
+        int nameEnd = nameStart;
+        while (nameEnd < content.length() && !Character.isWhitespace(content.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameStart == nameEnd) return nothing;
 
-        // split up the message and process it
-        Scanner args = new Scanner(content.substring(prefix.length()));
-        String command = args.next().toLowerCase();
-        if (this.commands.containsKey(command)) {
-            boolean backup = this.commands.get(command).execute(args, event, MOD_ID);
-            if (backup) {
-                this.backup();
+        Command command = this.commandTable.get(content, nameStart, nameEnd);
+        if (!this.isMod(event, guild)) {
+            // unrecognized commands get a reply too, so they count against the limit like any other
+            int cost = command != null ? command.cost() : 1;
+            CommandLimiter.Outcome outcome = limiter.acquire(event.getAuthor().getIdLong(),
+                    event.getChannel().getIdLong(), cost);
+            if (outcome != CommandLimiter.Outcome.ALLOWED) {
+                if (outcome == CommandLimiter.Outcome.WARN_USER) {
+                    dispatcher.send(MessageDispatcher.Priority.REPLY, event.getChannel(),
+                            event.getAuthor().getAsMention() + ", you're sending commands too fast - wait a few " +
+                                    "seconds, then try again.");
+                } else if (outcome == CommandLimiter.Outcome.WARN_CHANNEL) {
+                    dispatcher.send(MessageDispatcher.Priority.REPLY, event.getChannel(),
+                            "Too many commands in this channel at once - give it a few seconds, then try again.");
+                }
+                if (command != null) {
+                    command.throttled();
+                }
+                return nothing;
             }
         }
-        else {
-            event.getChannel().sendMessage("Command not recognized - use !help for a list of commands.").queue();
+
+        if (command == null) {
+            dispatcher.send(MessageDispatcher.Priority.REPLY, event.getChannel(),
+                    "Command not recognized - use !help for a list of commands.");
+            return nothing;
+        }
+
+        // a user's commands run in the order they sent them, and so do commands about the same PUG
+        List<String> keys = new ArrayList<>(2);
+        keys.add("user/" + event.getAuthor().getId());
+        int argsStart = nameEnd;
+        if (command.pugArgument() >= 0 && guild != null) {
+            CommandArgs peek = new CommandArgs(content, argsStart);
+            for (int i = 0; i < command.pugArgument() && peek.hasNext(); i++) {
+                peek.next();
+            }
+            if (peek.hasNext()) {
+                keys.add(guild.guildID + "/pug/" + peek.next());
+            }
         }
+        return executor.submit(keys, () -> command.execute(new CommandArgs(content, argsStart), event, guild,
+                dispatcher), () -> dispatcher.send(MessageDispatcher.Priority.REPLY, event.getChannel(),
+                "The bot is restarting, try that again in a minute."));
     }
 
     @Override
     public void onGuildMemberJoin (GuildMemberJoinEvent event) {
+        GuildState guild = guilds.get(event.getGuild().getIdLong());
+        if (guild == null) return;
+        if (!event.getUser().isBot()) {
+            guild.getSubscribers().subscribe(event.getUser().getIdLong());
+        }
+
         event.getGuild().getSystemChannel().sendMessage("Hello " + event.getUser().getAsMention() + ", Welcome to " +
                 "Spark's PUGs! Make sure to read the rules in #read-me-first before anything else. And feel free to " +
                 "message Spark or a Moderator to ask about PUGs! \n(Except DragonFire, He's only a mod because he " +
@@ -366,116 +1035,192 @@ public class BotCore extends ListenerAdapter {
                 "!help command will provide information on my functionality.").queue();
     }
 
+    /* takes a member who left out of every PUG they were playing in or watching, as though they'd used !leave.
+     * the PUGs they mod keep them as mod - a PUG needs one, and a mod can hand it on with !transfer.
+     */
     @Override
-    public void onReady (ReadyEvent event) {
-        try {
-            this.readFromBackup(event.getJDA());
-        } catch (Exception e) {
-            e.printStackTrace();
+    public void onGuildMemberLeave (GuildMemberLeaveEvent event) {
+        GuildState guild = guilds.get(event.getGuild().getIdLong());
+        if (guild == null) return;
+
+        User user = event.getUser();
+        guild.getSubscribers().unsubscribe(user.getIdLong());
+        for (PUG joined : guild.pugsOf(user.getIdLong())) {
+            String pugName = joined.getName();
+            try {
+                guild.change(pugName, pug -> {
+                    if (pug.getMod() == user.getIdLong()) return;
+                    pug.removePlayer(user);
+                    guild.record(JournalEntry.leave(pugName, user.getId()));
+                });
+            } catch (IllegalCommandArgumentException e) {
+                // deleted since we looked it up
+            }
         }
     }
 
-    private void backup () {
-        try {
-            File backup = new File(backupFile);
-            ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(backup));
+    // the no-DM role is how members opt out of new PUG DMs, whether they used !dms or a mod gave it to them
+    @Override
+    public void onGuildMemberRoleAdd (GuildMemberRoleAddEvent event) {
+        GuildState guild = guilds.get(event.getGuild().getIdLong());
+        if (guild != null && this.hasRole(event.getRoles(), guild.config.NO_DM_ID)) {
+            guild.getSubscribers().unsubscribe(event.getUser().getIdLong());
+        }
+    }
 
-            LinkedHashMap<String, SerializablePUG> spugs = new LinkedHashMap<>();
-            for (Map.Entry<String, PUG> pug : this.pugs.entrySet()) {
-                spugs.put(pug.getKey(), pug.getValue().toSerializableForm());
-            }
+    @Override
+    public void onGuildMemberRoleRemove (GuildMemberRoleRemoveEvent event) {
+        GuildState guild = guilds.get(event.getGuild().getIdLong());
+        if (guild != null && !event.getUser().isBot() && this.hasRole(event.getRoles(), guild.config.NO_DM_ID)) {
+            guild.getSubscribers().subscribe(event.getUser().getIdLong());
+        }
+    }
 
-            LinkedHashMap<String, ZoneId> sTimeZones = new LinkedHashMap<>();
-            for (Map.Entry<User, ZoneId> userEntry : this.timeZones.entrySet()) {
-                sTimeZones.put(userEntry.getKey().getId(), userEntry.getValue());
-            }
+    private boolean hasRole (List<Role> roles, String roleID) {
+        for (Role role : roles) {
+            if (role.getId().equals(roleID)) return true;
+        }
+        return false;
+    }
 
-            output.writeObject(spugs);
-            output.writeObject(sTimeZones);
-            output.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: Could not back up bot! Data may not be saved if bot gets restarted!");
+    // a shard going down only takes its own servers with it
+    @Override
+    public void onShutdown (ShutdownEvent event) {
+        for (GuildState guild : guilds.values()) {
+            if (guild.getJDA() == event.getJDA() && guilds.remove(guild.guildID, guild)) {
+                guild.shutdown();
+            }
         }
     }
 
-    private void readFromBackup (JDA api) throws Exception {
-        this.pugs = new LinkedHashMap<>();
-        this.timeZones = new LinkedHashMap<>();
+    // effect: makes sure every change so far, in every server, is on disk. Safe to call more than once.
+    void shutdown () {
+        // commands still running would record changes after their server stopped saving them
+        executor.shutdown();
+        for (GuildState guild : guilds.values()) {
+            guild.shutdown();
+        }
+    }
 
-        File backup = new File (backupFile);
-        ObjectInputStream input = new ObjectInputStream(new FileInputStream(backup));
+    // each shard fires its own ready event, for the servers it handles
+    @Override
+    public void onReady (ReadyEvent event) {
+        JDA api = event.getJDA();
+        for (GuildConfig config : configs) {
+            TextChannel announcements = api.getTextChannelById(config.announcementID);
+            // the server is on another shard, or the bot isn't in it
+            if (announcements == null) continue;
 
-        LinkedHashMap<String, SerializablePUG> spugs = (LinkedHashMap<String, SerializablePUG>) input.readObject();
-        for (Map.Entry<String, SerializablePUG> spug : spugs.entrySet()) {
-            this.pugs.put(spug.getKey(), spug.getValue().toPUG(api));
+            try {
+                this.loadGuild(api, config, announcements.getGuild().getIdLong());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
+    }
 
-        LinkedHashMap<String, ZoneId> sTimeZones = (LinkedHashMap<String, ZoneId>) input.readObject();
-        for (Map.Entry<String, ZoneId> userEntry : sTimeZones.entrySet()) {
-            this.timeZones.put(api.getUserById(userEntry.getKey()), userEntry.getValue());
+    // effect: sets up the given server's state and loads its backup, replacing any state left from an earlier
+    // connection of its shard. Commands only see the new state once it's loaded.
+    private void loadGuild (JDA api, GuildConfig config, long guildID) throws Exception {
+        GuildState previous = guilds.remove(guildID);
+        if (previous != null) {
+            // it has to let go of the journal before the new state reads it
+            previous.shutdown();
         }
 
-        input.close();
+        String backupName = config.backupName(guildID);
+        Journal journal = new Journal(backupName + ".bin", backupName + ".txt", backupName + ".journal",
+                compactionThreshold);
+        HistoryArchive history = new HistoryArchive(backupName + ".history", backupName + ".history.idx");
+        RoleSync roles = new RoleSync(() -> api.getGuildById(guildID), roleScheduler, roleWindowMillis);
+        GuildState guild = new GuildState(config, api, guildID, journal, history, commitWindowMillis, dispatcher,
+                reminders, roles, metrics);
+        guild.load();
+        guilds.put(guildID, guild);
     }
 
-    private ZoneId parseZone (String zone) throws Exception{
-        try {
-            DateTimeFormatter zoneIntake = DateTimeFormatter.ofPattern("z");
-            return ZoneId.from(zoneIntake.parse(zone.toUpperCase()));
-        } catch (Exception e) {
-            throw new IllegalCommandArgumentException("Incorrectly formatted time zone - remember to use " +
-                    "the three-letter version, I need to be able to distinguish between daylight and " +
-                    "standard times.");
+    // mods aren't rate limited. In DMs, that's whether they're a mod in the server the DM is about.
+    private boolean isMod (MessageReceivedEvent event, GuildState guild) {
+        if (guild == null) return false;
+        Member member = event.getMember();
+        if (member == null) {
+            Guild server = guild.getGuild();
+            member = server == null ? null : server.getMember(event.getAuthor());
         }
+        return member != null && Command.authenticate(member, guild.config.MOD_ID);
     }
 
-    private ZonedDateTime parseTime (String time, User u) throws Exception {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("h[h]:mm a[ z][ M-d][-yyyy]");
-        TemporalAccessor parsedTime = formatter.parse(time.toUpperCase());
-
-        ZoneId zone;
-        if (parsedTime.isSupported(ChronoField.OFFSET_SECONDS)) {
-            zone = ZoneId.from(parsedTime);
-        } else {
-            if (timeZones.containsKey(u)) {
-                zone =  timeZones.get(u);
-            } else {
-                throw new IllegalCommandArgumentException("No time zone found - register one now with !timezone.");
+    // the server a DM is about: the one server we run PUGs in that the user is a member of, or null if there's none
+    // or more than one
+    private GuildState guildFor (User user) {
+        GuildState found = null;
+        for (GuildState guild : guilds.values()) {
+            Guild server = guild.getGuild();
+            if (server != null && server.getMemberById(user.getIdLong()) != null) {
+                if (found != null) return null;
+                found = guild;
             }
         }
+        return found;
+    }
 
-        ZonedDateTime zonedTime = ZonedDateTime.of(LocalDate.now(), LocalTime.from(parsedTime), zone);
-
-        if (parsedTime.isSupported(ChronoField.MONTH_OF_YEAR)) {
-            zonedTime = zonedTime.withMonth(parsedTime.get(ChronoField.MONTH_OF_YEAR));
-            zonedTime = zonedTime.withDayOfMonth(parsedTime.get(ChronoField.DAY_OF_MONTH));
-            if (parsedTime.isSupported(ChronoField.YEAR)) {
-                zonedTime = zonedTime.withYear(parsedTime.get(ChronoField.YEAR));
-            }
+    // a PUG's new time, which has to be in the future
+    private ZonedDateTime parseTime (GuildState guild, String time, User u) throws Exception {
+        ZonedDateTime parsed = TimeParser.parseTime(time, guild.getTimeZone(u.getIdLong()));
+        if (!parsed.toInstant().isAfter(Instant.now())) {
+            throw new IllegalCommandArgumentException("That time has already passed - give a day, like tomorrow " +
+                    "8pm or 8pm 5-20, for a time that isn't today.");
         }
-
-        return zonedTime;
+        return parsed;
     }
 
-    private String getPugName(Scanner args) throws Exception{
+    private String getPugName(GuildState guild, CommandArgs args) throws Exception{
+        if (guild == null) {
+            throw new IllegalCommandArgumentException("I'm not sure which server you mean - use this command in " +
+                    "the server instead.");
+        }
         String pugName = args.next();
-        if (pugs.containsKey(pugName)) {
+        if (guild.getPug(pugName) != null) {
             return pugName;
         } else {
             throw new IllegalCommandArgumentException("No PUG with that name.");
         }
     }
 
-    private ZoneId getZone (User user, Scanner args) throws Exception {
+    // effect: adds the team's members to out, with the role each plays if every role could be covered
+    private void appendTeam (StringBuilder out, String heading, GuildState guild, long[] players, int[] team,
+                             int[] roles) {
+        out.append("\n").append(heading).append(":");
+        for (int i = 0; i < team.length; i++) {
+            out.append("\n - ").append(memberName(guild, players[team[i]]));
+            if (roles[i] != 0) {
+                out.append(" (").append(Skill.roleName(roles[i])).append(")");
+            }
+        }
+    }
+
+    // the first user mentioned in the message, or its author if there's nobody
+    private static User mentionedOrAuthor (MessageReceivedEvent message) {
+        List<User> mentioned = message.getMessage().getMentionedUsers();
+        return mentioned.isEmpty() ? message.getAuthor() : mentioned.get(0);
+    }
+
+    private String memberName (GuildState guild, long id) {
+        Guild server = guild.getGuild();
+        Member member = server == null ? null : server.getMemberById(id);
+        return member != null ? member.getEffectiveName() : "(left the server)";
+    }
+
+    private ZoneId getZone (GuildState guild, User user, CommandArgs args) throws Exception {
         if (args.hasNext()) {
-            return parseZone(args.next());
+            return TimeParser.parseZone(args.next());
         } else {
-            if (timeZones.containsKey(user)) {
-                return timeZones.get(user);
+            ZoneId zone = guild.getTimeZone(user.getIdLong());
+            if (zone != null) {
+                return zone;
             } else {
                 throw new IllegalCommandArgumentException("No time zone found - register one now with !timezone.");
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,25 +1,31 @@
 package bot;
 
-import net.dv8tion.jda.core.AccountType;
-import net.dv8tion.jda.core.JDA;
-import net.dv8tion.jda.core.JDABuilder;
+import net.dv8tion.jda.bot.sharding.DefaultShardManagerBuilder;
 
 public class BotMain {
 
     public static void main (String... args) throws Exception {
-        JDA api = new JDABuilder(AccountType.BOT).setToken(
-                "TOKEN"
-        ).buildAsync();
-
         //testing core init values: "440032519518158848", "440032860720857090", "440032754131009536"
         //real core init values: "438953223714373632", "438954094124728321", "439164999139852308"
 
-        //real core
+        // one config per server: announcement channel, @Don't DM me role, mod role. Spark's PUGs keeps the backup
+        // files it had before the bot ran in more than one server.
         BotCore core = new BotCore(
-                "438953223714373632", "438954094124728321", "439164999139852308"
-                //"440032519518158848", "440032860720857090", "440032754131009536" //tester
+                new GuildConfig("438953223714373632", "438954094124728321", "439164999139852308", "backup")
+                //new GuildConfig("440032519518158848", "440032860720857090", "440032754131009536") //tester
         );
 
-        api.addEventListener(core);
+        // -1 lets Discord pick the number of shards; each shard handles its own servers' events on its own threads
+        new DefaultShardManagerBuilder()
+                .setToken("TOKEN")
+                .setShardsTotal(-1)
+                .addEventListeners(core)
+                .build();
+
+        // Prometheus text on http://localhost:9404/metrics, and the same numbers over JMX
+        MetricsExporter.start(core.getMetrics(), 9404);
+
+        // JDA doesn't fire a ShutdownEvent when the process is killed, so make sure pending writes still land
+        Runtime.getRuntime().addShutdownHook(new Thread(core::shutdown));
     }
 }
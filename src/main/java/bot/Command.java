@@ -4,56 +4,84 @@ import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Role;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 
-import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
 
 abstract class Command {
     private final boolean MOD_ONLY;
-    private final boolean MUTATOR;
     private String usage;
+    private Metrics.CommandStats stats;
 
-    Command(boolean MOD_ONLY, boolean MUTATOR,  String template, String info) {
+    Command(boolean MOD_ONLY, String template, String info) {
         this.MOD_ONLY = MOD_ONLY;
-        this.MUTATOR = MUTATOR;
         if (template.contains(",")) {
             template += "\n(note that arguments are separated by commas)";
         }
         this.usage = "Usage: " + template + "\n" + info;
     }
 
-    //returns true if a mutating event occurred
-    boolean execute (Scanner args, MessageReceivedEvent message, String modID) {
-        args.useDelimiter("\\s*,\\s*");
-        args.skip("\\s*");
+    // guild is the server the command is for - for DMs, the one server the author shares with the bot, or null if
+    // that isn't clear
+    void execute (CommandArgs args, MessageReceivedEvent message, GuildState guild, MessageDispatcher dispatcher) {
+        long start = System.nanoTime();
+        try {
+            this.run(args, message, guild, dispatcher);
+        } finally {
+            if (stats != null) {
+                stats.latency.record(System.nanoTime() - start);
+            }
+        }
+    }
 
-        ExceptingBiFunction<Scanner, MessageReceivedEvent, String> processor;
+    private void run (CommandArgs args, MessageReceivedEvent message, GuildState guild,
+                      MessageDispatcher dispatcher) {
+        ExceptingBiFunction<CommandArgs, MessageReceivedEvent, String> processor;
         if (message.getMember() != null) {
-            if (this.MOD_ONLY && !this.authenticate(message.getMember(), modID)) {
-                message.getChannel().sendMessage("You don't have permission to do that.").queue();
-                return false;
+            if (this.MOD_ONLY && !authenticate(message.getMember(), guild.config.MOD_ID)) {
+                dispatcher.send(MessageDispatcher.Priority.REPLY, message.getChannel(),
+                        "You don't have permission to do that.");
+                this.count(s -> s.denied);
+                return;
             }
-            processor = this::processServerMessage;
+            processor = (a, m) -> this.processServerMessage(a, m, guild);
         } else {
-            processor = this::processDM;
+            processor = (a, m) -> this.processDM(a, m, guild);
         }
 
         try {
             String reply = processor.apply(args, message);
             if (reply != null) {
-                message.getChannel().sendMessage(reply).queue();
+                dispatcher.send(MessageDispatcher.Priority.REPLY, message.getChannel(), reply);
             }
-            return MUTATOR;
         } catch (IllegalCommandArgumentException e) {
-            message.getMessage().getChannel().sendMessage(e.getMessage()).queue();
-            return false;
+            dispatcher.send(MessageDispatcher.Priority.REPLY, message.getChannel(), e.getMessage());
+            this.count(s -> s.rejected);
         } catch (Exception e) {
-            message.getMessage().getChannel().sendMessage(this.getUsage()).queue();
+            dispatcher.send(MessageDispatcher.Priority.REPLY, message.getChannel(), this.getUsage());
             e.printStackTrace();
-            return false;
+            this.count(s -> s.failed);
+        }
+    }
+
+    // effect: from now on, records how long each run of this command takes and how often it fails into stats
+    void measure(Metrics.CommandStats stats) {
+        this.stats = stats;
+    }
+
+    // effect: counts a run refused by the rate limiter
+    void throttled() {
+        this.count(s -> s.throttled);
+    }
+
+    private void count(Function<Metrics.CommandStats, LongAdder> counter) {
+        if (stats != null) {
+            counter.apply(stats).increment();
         }
     }
 
 
-    boolean authenticate(Member user, String modID) {
+    static boolean authenticate(Member user, String modID) {
         for (Role role : user.getRoles()) {
             if (role.getId().equals(modID)) {
                 return true;
@@ -63,11 +91,11 @@ abstract class Command {
     }
 
     //you better override at least one of these, or else your command is pretty much useless
-    String processDM (Scanner args, MessageReceivedEvent message) throws Exception {
+    String processDM (CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
         return "You can't do that in DMs, use a server";
     }
 
-    String processServerMessage (Scanner args, MessageReceivedEvent message) throws Exception {
+    String processServerMessage (CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
         return "You can't do that in a server, use DMs";
     }
 
@@ -78,4 +106,15 @@ abstract class Command {
     boolean hidden() {
         return this.MOD_ONLY;
     }
+
+    // which argument, counting from 0, names the PUG the command is about - commands about the same PUG are run in
+    // the order they arrived. -1 for commands that aren't about a PUG.
+    int pugArgument() {
+        return -1;
+    }
+
+    // how many of the author's and the channel's rate limit tokens a run takes - more for commands with long replies
+    int cost() {
+        return 1;
+    }
 }
@@ -0,0 +1,59 @@
+package bot;
+
+import java.util.NoSuchElementException;
+
+/* the comma separated arguments of a command, as offsets into the raw message. Replaces java.util.Scanner, which
+ * compiled a regex and allocated a handful of objects for every message.
+ * arguments are trimmed of surrounding whitespace, and only turned into Strings when next() is called.
+ */
+class CommandArgs {
+    private final String content;
+    private final int end;
+    private int position;
+
+    // start is where the arguments begin in content, just past the command name
+    CommandArgs(String content, int start) {
+        this.content = content;
+        this.end = trimEnd(content, start, content.length());
+        this.position = skipWhitespace(content, start, end);
+    }
+
+    boolean hasNext() {
+        return position < end;
+    }
+
+    // returns the next argument, and moves past it and the comma that follows it
+    String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        int comma = content.indexOf(',', position);
+        int argEnd = (comma == -1 || comma > end) ? end : comma;
+        String arg = content.substring(position, trimEnd(content, position, argEnd));
+
+        position = (argEnd == end) ? end : skipWhitespace(content, argEnd + 1, end);
+        return arg;
+    }
+
+    // returns everything that hasn't been read yet, commas included. Used for free text like descriptions.
+    String rest() {
+        String rest = content.substring(position, end);
+        position = end;
+        return rest;
+    }
+
+    private static int skipWhitespace(String content, int from, int to) {
+        while (from < to && Character.isWhitespace(content.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(String content, int from, int to) {
+        while (to > from && Character.isWhitespace(content.charAt(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+}
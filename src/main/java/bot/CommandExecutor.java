@@ -0,0 +1,143 @@
+package bot;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* runs commands off JDA's event threads, so one that blocks on a REST call (like !create making its role) doesn't
+ * hold up every other event behind it.
+ * - a command can have several keys, and runs after every earlier command that shares any of them - BotCore keys
+ *   them by their author and by the PUG they're about, so a !join right after a !create still sees the PUG, and a
+ *   !create right after a !timezone uses the new zone
+ * - commands that share no keys run at the same time, each on its own virtual thread on Java 21 and up, or on a
+ *   pooled thread before that
+ * - at most maxInFlight commands are queued or running; past that, submit waits, which holds back the event thread
+ *   and so JDA, instead of letting the backlog grow without bound
+ * - shutdown stops taking commands, then lets every one already taken run, including those still waiting on a key
+ */
+class CommandExecutor {
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // the last command submitted for each key that has one queued or running
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    // held while a command takes its place behind each of its keys. Otherwise two commands sharing two keys could
+    // each end up behind the other.
+    private final Object ordering = new Object();
+    // guarded by ordering, so a command is either taken and will run, or refused
+    private boolean accepting = true;
+
+    CommandExecutor(int maxInFlight) {
+        this.executor = newExecutor();
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /* effect: runs the command after every earlier one that shares a key with it, or runs refused instead if the
+     * executor is shutting down. Returns a future that completes once either has run; it never completes
+     * exceptionally.
+     */
+    CompletableFuture<Void> submit(List<String> keys, Runnable command, Runnable refused) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        inFlight.acquireUninterruptibly();
+        Runnable task = () -> {
+            try {
+                command.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                inFlight.release();
+                done.complete(null);
+            }
+        };
+
+        ArrayList<CompletableFuture<Void>> before = new ArrayList<>(keys.size());
+        synchronized (ordering) {
+            if (!accepting) {
+                inFlight.release();
+                this.refuse(refused, done);
+                return done;
+            }
+            for (String key : keys) {
+                CompletableFuture<Void> tail = tails.put(key, done);
+                if (tail != null) {
+                    before.add(tail);
+                }
+            }
+        }
+        // nothing queued behind it by the time it's done, so its keys can go
+        done.whenComplete((result, failure) -> {
+            for (String key : keys) {
+                tails.remove(key, done);
+            }
+        });
+
+        CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0])).whenComplete((result, failure) -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // only if the executor was shut down some other way - shutdown() waits for everything it took
+                inFlight.release();
+                this.refuse(refused, done);
+            }
+        });
+        return done;
+    }
+
+    private void refuse(Runnable refused, CompletableFuture<Void> done) {
+        try {
+            refused.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            done.complete(null);
+        }
+    }
+
+    // effect: refuses any more commands, then waits for the ones already submitted to finish - those waiting behind
+    // another on the same key too. Safe to call more than once.
+    void shutdown() {
+        synchronized (ordering) {
+            accepting = false;
+        }
+        try {
+            // every command taken holds a permit until it has run
+            if (inFlight.tryAcquire(maxInFlight, 30, TimeUnit.SECONDS)) {
+                inFlight.release(maxInFlight);
+            } else {
+                System.out.println("WARNING: Some commands were still running at shutdown, their changes may be lost!");
+            }
+        } catch (InterruptedException e) {
+            System.out.println("WARNING: Interrupted while finishing commands, their changes may be lost!");
+        }
+        executor.shutdown();
+    }
+
+    // commands queued or running
+    int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    // the executor has to be looked up by reflection, since the bot builds for Java 9 - see pom.xml
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger number = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "command-" + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
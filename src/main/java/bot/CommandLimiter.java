@@ -0,0 +1,130 @@
+package bot;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/* token buckets in front of command dispatch, one per user and one per channel, so one person (or one busy channel)
+ * spamming commands can't fill the outgoing message queue for the whole server.
+ * a command takes its cost (see Command.cost) from both the author's and the channel's bucket, and buckets refill
+ * steadily up to their burst size. Over the limit, the first refused command earns one warning, and the rest are
+ * dropped without a reply until the bucket lets a command through again.
+ */
+class CommandLimiter {
+    enum Outcome {
+        ALLOWED,
+        WARN_USER,
+        WARN_CHANNEL,
+        DROPPED
+    }
+
+    private static class Bucket {
+        private final double burst;
+        private final double perNano;
+        private double tokens;
+        private long refilled;
+        // a warning has gone out since the last command that got through
+        private boolean warned;
+
+        private Bucket(double burst, double perNano, long now) {
+            this.burst = burst;
+            this.perNano = perNano;
+            this.tokens = burst;
+            this.refilled = now;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilled) * perNano);
+            refilled = now;
+        }
+
+        private boolean full(long now) {
+            synchronized (this) {
+                this.refill(now);
+                return tokens >= burst;
+            }
+        }
+
+        // returns true if this is the first refusal since the last command that got through
+        private boolean refuse() {
+            boolean first = !warned;
+            warned = true;
+            return first;
+        }
+    }
+
+    // buckets of people who've gone quiet are full again, and are swept out once there are this many
+    static final int SWEEP_SIZE = 10_000;
+
+    /* the buckets for users, or for channels. Full ones are swept out once there are SWEEP_SIZE, and after that
+     * only once the map has doubled since the last sweep - so a flood of new users costs each one O(1) on average,
+     * instead of a sweep of the whole map each.
+     */
+    private static class Buckets {
+        private final int burst;
+        private final double perNano;
+        private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+        private volatile int sweepAt = SWEEP_SIZE;
+
+        private Buckets(int burst, double perSecond) {
+            this.burst = burst;
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private Bucket get(long id, long now) {
+            Bucket bucket = buckets.get(id);
+            if (bucket != null) return bucket;
+
+            if (buckets.size() >= sweepAt) {
+                this.sweep(now);
+            }
+            return buckets.computeIfAbsent(id, key -> new Bucket(burst, perNano, now));
+        }
+
+        private synchronized void sweep(long now) {
+            // someone else may have just swept
+            if (buckets.size() < sweepAt) return;
+            // a full bucket is the same as no bucket at all
+            buckets.values().removeIf(idle -> idle.full(now));
+            sweepAt = Math.max(SWEEP_SIZE, 2 * buckets.size());
+        }
+    }
+
+    private final Buckets users;
+    private final Buckets channels;
+
+    CommandLimiter(int userBurst, double userPerSecond, int channelBurst, double channelPerSecond) {
+        this.users = new Buckets(userBurst, userPerSecond);
+        this.channels = new Buckets(channelBurst, channelPerSecond);
+    }
+
+    // effect: takes cost tokens from the user's and the channel's buckets if both have them, and says what to do
+    Outcome acquire(long user, long channel, int cost) {
+        long now = System.nanoTime();
+        Bucket userBucket = users.get(user, now);
+        Bucket channelBucket = channels.get(channel, now);
+
+        // always user before channel, so two commands never wait on each other's locks
+        synchronized (userBucket) {
+            userBucket.refill(now);
+            if (userBucket.tokens < cost) {
+                return userBucket.refuse() ? Outcome.WARN_USER : Outcome.DROPPED;
+            }
+            synchronized (channelBucket) {
+                channelBucket.refill(now);
+                if (channelBucket.tokens < cost) {
+                    return channelBucket.refuse() ? Outcome.WARN_CHANNEL : Outcome.DROPPED;
+                }
+                channelBucket.tokens -= cost;
+                channelBucket.warned = false;
+            }
+            userBucket.tokens -= cost;
+            userBucket.warned = false;
+        }
+        return Outcome.ALLOWED;
+    }
+
+    // users and channels with a bucket that hasn't been swept out
+    int size() {
+        return users.buckets.size() + channels.buckets.size();
+    }
+}
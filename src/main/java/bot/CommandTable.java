@@ -0,0 +1,80 @@
+package bot;
+
+/* case-insensitive command lookup straight from a region of the raw message, so dispatching a command doesn't need
+ * a substring or toLowerCase() copy of its name. Open addressing over a power-of-two table; command names are
+ * expected to be lower case ASCII.
+ */
+class CommandTable {
+    private String[] names;
+    private Command[] commands;
+    private int size;
+
+    CommandTable() {
+        this.names = new String[32];
+        this.commands = new Command[32];
+    }
+
+    void put(String name, Command command) {
+        if ((size + 1) * 2 > names.length) {
+            this.grow();
+        }
+        int slot = this.find(name, 0, name.length());
+        if (names[slot] == null) {
+            size++;
+        }
+        names[slot] = name;
+        commands[slot] = command;
+    }
+
+    // returns the command named by text[start, end), ignoring case, or null if there is none
+    Command get(CharSequence text, int start, int end) {
+        return commands[this.find(text, start, end)];
+    }
+
+    Command get(String name) {
+        return this.get(name, 0, name.length());
+    }
+
+    // returns the slot holding the name, or the empty slot it would go in
+    private int find(CharSequence text, int start, int end) {
+        int mask = names.length - 1;
+        int slot = hash(text, start, end) & mask;
+        while (names[slot] != null && !matches(names[slot], text, start, end)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        Command[] oldCommands = commands;
+        names = new String[oldNames.length * 2];
+        commands = new Command[oldNames.length * 2];
+        size = 0;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                this.put(oldNames[i], oldCommands[i]);
+            }
+        }
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLower(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != toLower(text.charAt(start + i))) return false;
+        }
+        return true;
+    }
+
+    private static char toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+}
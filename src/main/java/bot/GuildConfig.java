@@ -0,0 +1,28 @@
+package bot;
+
+/* the IDs that tie the bot to one server: the channel new PUGs are announced in, the role that opts out of DMs, and
+ * the role allowed to run mod commands.
+ * the server itself is whichever one owns the announcement channel, so a config doesn't need the server's ID.
+ */
+class GuildConfig {
+    final String announcementID;
+    final String NO_DM_ID;
+    final String MOD_ID;
+    // base name for this server's backup files, or null to name them after the server
+    private final String backupName;
+
+    GuildConfig(String announcementID, String NO_DM_ID, String MOD_ID) {
+        this(announcementID, NO_DM_ID, MOD_ID, null);
+    }
+
+    GuildConfig(String announcementID, String NO_DM_ID, String MOD_ID, String backupName) {
+        this.announcementID = announcementID;
+        this.NO_DM_ID = NO_DM_ID;
+        this.MOD_ID = MOD_ID;
+        this.backupName = backupName;
+    }
+
+    String backupName(long guildID) {
+        return backupName != null ? backupName : "backup-" + guildID;
+    }
+}
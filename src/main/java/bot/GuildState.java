@@ -0,0 +1,332 @@
+package bot;
+
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.User;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/* everything the bot keeps for one server: its PUGs, its members' time zones, the journal they're saved to, and the
+ * history of its past PUGs.
+ * servers share none of it, so PUG names only have to be unique within a server, and commands in different servers -
+ * which may be handled by different shards at the same time - never wait on each other's locks or files.
+ */
+class GuildState {
+    final GuildConfig config;
+    final long guildID;
+    private final JDA api; // the shard this server is on
+
+    private final ConcurrentHashMap<String, PUG> pugs;
+    private final PUGIndex index;
+    private final MembershipIndex memberships;
+    private final ConcurrentHashMap<String, CompletableFuture<PUG>> restoring;
+    private final ZoneMap timeZones;
+    private final SubscriptionIndex subscribers;
+    private final ConcurrentHashMap<Long, Skill> skills;
+    private final Journal journal;
+    private final PersistenceWriter persistence;
+    private final HistoryArchive history;
+    private final PUGServices services;
+
+    GuildState(GuildConfig config, JDA api, long guildID, Journal journal, HistoryArchive history,
+               long commitWindowMillis, MessageDispatcher dispatcher, ReminderWheel reminders, RoleSync roles,
+               Metrics metrics) {
+        this.config = config;
+        this.api = api;
+        this.guildID = guildID;
+
+        this.pugs = new ConcurrentHashMap<>();
+        this.index = new PUGIndex();
+        this.memberships = new MembershipIndex();
+        this.restoring = new ConcurrentHashMap<>();
+        this.timeZones = new ZoneMap();
+        this.subscribers = new SubscriptionIndex(timeZones);
+        this.skills = new ConcurrentHashMap<>();
+        this.journal = journal;
+        this.persistence = new PersistenceWriter(journal, history, commitWindowMillis, metrics);
+        this.history = history;
+        this.services = new PUGServices(dispatcher, reminders, roles, memberships, subscribers,
+                pug -> record(JournalEntry.reminderStage(pug.getName(), pug.getNextReminder())));
+    }
+
+    /* loads the backup, then restores PUGs in parallel in the background so commands can be handled right away.
+     * PUGs that haven't finished restoring live in restoring until a command needs them - see getPug.
+     * must be called before anything is recorded.
+     */
+    void load() throws Exception {
+        StoredState state = journal.load();
+        history.load();
+
+        for (Map.Entry<String, ZoneId> userEntry : state.timeZones.entrySet()) {
+            this.timeZones.put(Long.parseLong(userEntry.getKey()), userEntry.getValue());
+        }
+        for (Map.Entry<String, Skill> userEntry : state.skills.entrySet()) {
+            this.skills.put(Long.parseLong(userEntry.getKey()), userEntry.getValue());
+        }
+        for (Map.Entry<String, Integer> userEntry : state.dmHours.entrySet()) {
+            this.subscribers.setHours(Long.parseLong(userEntry.getKey()), userEntry.getValue());
+        }
+        Guild server = getGuild();
+        if (server != null) {
+            subscribers.rebuild(server, Long.parseLong(config.NO_DM_ID));
+        }
+
+        if (state.pugs.isEmpty()) return;
+
+        ExecutorService restorer = Executors.newFixedThreadPool(
+                Math.min(state.pugs.size(), Runtime.getRuntime().availableProcessors()));
+        for (Map.Entry<String, SerializablePUG> spug : state.pugs.entrySet()) {
+            this.restoring.put(spug.getKey(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return spug.getValue().toPUG(api, services);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.out.println("WARNING: Could not restore PUG " + spug.getKey() + ", dropping it.");
+                    this.drop(spug.getKey(), spug.getValue());
+                    return null;
+                }
+            }, restorer));
+        }
+        restorer.shutdown();
+    }
+
+    /* effect: deletes a PUG that couldn't be restored from the journal too, so it isn't tried again on every start,
+     * and tells its mod if they can still be reached.
+     * recorded before the PUG's restore completes, so it always comes ahead of a new PUG taking the name.
+     */
+    private void drop(String pugName, SerializablePUG pug) {
+        this.record(JournalEntry.delete(pugName));
+        User mod = api.getUserById(pug.getMod());
+        if (mod != null) {
+            services.dispatcher.sendDM(MessageDispatcher.Priority.UPDATE, mod, "Your PUG \"" + pugName +
+                    "\" couldn't be restored when the bot restarted, so it has been removed.");
+        }
+    }
+
+    /* effect: stops every PUG's reminders, makes sure every change so far is on disk, and stops saving. Safe to call
+     * more than once.
+     * the reminder wheel is shared, so without this a reconnected shard's new state would send every reminder a
+     * second time, and this one's copies would try to journal after it stopped saving.
+     */
+    void shutdown() {
+        for (PUG pug : this.allPugs()) {
+            pug.unload();
+        }
+        try {
+            persistence.shutdown();
+        } catch (InterruptedException e) {
+            System.out.println("WARNING: Interrupted while saving, some recent changes may be lost!");
+        }
+        try {
+            history.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    JDA getJDA() {
+        return api;
+    }
+
+    Guild getGuild() {
+        return api.getGuildById(guildID);
+    }
+
+    PUGServices getServices() {
+        return services;
+    }
+
+    SubscriptionIndex getSubscribers() {
+        return subscribers;
+    }
+
+    HistoryArchive getHistory() {
+        return history;
+    }
+
+    // effect: hands the given change to the persistence writer. Called by mutating commands once the change has been
+    // made; the disk write happens later, off the event thread.
+    void record(JournalEntry entry) {
+        persistence.submit(entry);
+    }
+
+    // returns the named PUG, or null if there is none. Waits for the PUG to finish restoring if it hasn't yet.
+    PUG getPug(String pugName) {
+        PUG pug = pugs.get(pugName);
+        if (pug == null) {
+            CompletableFuture<PUG> restore = restoring.get(pugName);
+            if (restore != null) {
+                pug = restore.join();
+                if (pug != null && pugs.putIfAbsent(pugName, pug) == null) {
+                    index.put(pug);
+                }
+                restoring.remove(pugName, restore);
+            }
+        }
+        return pug;
+    }
+
+    // the following wait for any PUGs that are still restoring, so they're never left out
+
+    // returns every PUG, earliest first
+    Collection<PUG> allPugs() {
+        this.awaitRestored();
+        return index.inOrder();
+    }
+
+    // returns the PUGs starting in the given range of epoch milliseconds, earliest first
+    Collection<PUG> pugsBetween(long from, long to) {
+        this.awaitRestored();
+        return index.between(from, to);
+    }
+
+    // returns the PUGs the given user is the mod of, earliest first
+    Collection<PUG> pugsModdedBy(long mod) {
+        this.awaitRestored();
+        return index.moddedBy(mod);
+    }
+
+    // returns the PUGs the given user is playing in or watching, earliest first
+    List<PUG> pugsOf(long user) {
+        this.awaitRestored();
+        ArrayList<PUG> pugs = new ArrayList<>(memberships.of(user));
+        pugs.sort(Comparator.comparing(PUG::getTime));
+        return pugs;
+    }
+
+    private void awaitRestored() {
+        for (String pugName : restoring.keySet()) {
+            getPug(pugName);
+        }
+    }
+
+    /* effect: adds a newly created PUG and journals it. Returns false, leaving the PUG out, if another PUG already
+     * has its name.
+     * the new PUG's lock is held until it's journaled, so nobody can journal a join before its creation.
+     */
+    boolean addPug(PUG pug) {
+        synchronized (pug) {
+            if (getPug(pug.getName()) != null || pugs.putIfAbsent(pug.getName(), pug) != null) {
+                return false;
+            }
+            index.put(pug);
+            record(JournalEntry.create(pug.getName(), pug.toSerializableForm()));
+            record(JournalEntry.plan(pug.getName(), pug.getReminderPlan()));
+            record(JournalEntry.reminderStage(pug.getName(), pug.getNextReminder()));
+            return true;
+        }
+    }
+
+    /* effect: applies the change to the named PUG and journals it.
+     * both happen under the PUG's lock, which is what serializes everything done to a single PUG - that way the
+     * journal sees changes to it in the same order they were made, while commands on different PUGs don't wait on
+     * each other.
+     */
+    void change(String pugName, JournalEntry entry, Consumer<PUG> change) throws IllegalCommandArgumentException {
+        change(pugName, pug -> {
+            change.accept(pug);
+            record(entry);
+        });
+    }
+
+    // effect: runs the change on the named PUG under its lock. For changes that need to journal more than one entry,
+    // which the change records itself.
+    void change(String pugName, Consumer<PUG> change) throws IllegalCommandArgumentException {
+        PUG pug = getPug(pugName);
+        if (pug == null) {
+            throw new IllegalCommandArgumentException("No PUG with that name.");
+        }
+        synchronized (pug) {
+            // it may have been deleted while we were waiting for the lock
+            if (pugs.get(pugName) != pug) {
+                throw new IllegalCommandArgumentException("No PUG with that name.");
+            }
+            change.accept(pug);
+            // in case the change moved it, by rescheduling or transferring it
+            index.put(pug);
+        }
+    }
+
+    /* effect: removes the named PUG, runs the given cleanup on it (cancel or close), journals the deletion and
+     * archives the PUG, with the given players marked as no-shows. The PUG shows up in !history once the deletion
+     * has been committed.
+     */
+    void deletePug(String pugName, Consumer<PUG> cleanup, boolean cancelled, Collection<Long> noShows)
+            throws IllegalCommandArgumentException {
+        PUG pug = getPug(pugName);
+        if (pug == null) {
+            throw new IllegalCommandArgumentException("No PUG with that name.");
+        }
+        HistoryArchive.Entry archived;
+        synchronized (pug) {
+            if (!pugs.remove(pugName, pug)) {
+                throw new IllegalCommandArgumentException("No PUG with that name.");
+            }
+            index.remove(pug);
+            cleanup.accept(pug);
+            record(JournalEntry.delete(pugName));
+            archived = pug.toHistory(cancelled, noShows);
+        }
+        // the archive is written and synced on the persistence writer, after the deletion is on disk
+        persistence.archive(archived);
+    }
+
+    // PUGs in this server, counting ones still being restored
+    int pugCount() {
+        return pugs.size() + restoring.size();
+    }
+
+    // players signed up across this server's restored PUGs
+    int playerCount() {
+        int players = 0;
+        for (PUG pug : pugs.values()) {
+            players += pug.playerCount();
+        }
+        return players;
+    }
+
+    int archivedCount() {
+        return history.archivedCount();
+    }
+
+    int timeZoneCount() {
+        return timeZones.size();
+    }
+
+    // returns the user's registered time zone, or null if they haven't registered one
+    ZoneId getTimeZone(long user) {
+        return timeZones.get(user);
+    }
+
+    void setTimeZone(long user, ZoneId zone) {
+        timeZones.put(user, zone);
+        record(JournalEntry.timeZone(Long.toString(user), zone));
+    }
+
+    // effect: sets the hours of the day the user wants new PUG DMs for, and journals them
+    void setDmHours(long user, int hours) {
+        subscribers.setHours(user, hours);
+        record(JournalEntry.dmHours(Long.toString(user), hours));
+    }
+
+    // returns the user's skill rating, or null if no mod has rated them
+    Skill getSkill(long user) {
+        return skills.get(user);
+    }
+
+    void setSkill(long user, Skill skill) {
+        skills.put(user, skill);
+        record(JournalEntry.skill(Long.toString(user), skill));
+    }
+}
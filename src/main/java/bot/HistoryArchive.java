@@ -0,0 +1,466 @@
+package bot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/* every PUG a server has closed or cancelled, for !history, !stats and !top.
+ * - the archive file gets one record per PUG, appended when it's deleted and never changed after
+ * - the index file gets one fixed-size posting per person in that PUG: who, where the record is, when it was
+ *   archived and how they took part
+ * the index is read into per-user arrays on startup, so the commands are answered from memory, and only !history
+ * goes back to the archive - for the handful of records it shows. Postings are in the order PUGs were archived, so a
+ * user's are sorted by time and a window of them is a binary search away.
+ *
+ * records are laid out as [length][crc32][entry] like the journal's. A record is synced before its postings are
+ * written, so a posting never points at a record that didn't make it to disk. The postings are synced too, in the
+ * same batch, so the index never ends in postings the OS hadn't written yet; a record whose postings didn't make it
+ * is indexed again on the next load.
+ */
+class HistoryArchive {
+    // how a user took part in an archived PUG
+    static final int PLAYED = 1;
+    static final int WATCHED = 2;
+    static final int NO_SHOW = 4;
+    static final int MOD = 8;
+    static final int CANCELLED = 16;
+
+    // user, archive offset, minute archived, flags
+    private static final int POSTING_SIZE = 8 + 8 + 4 + 1;
+
+    // a PUG as it was when it was deleted
+    static class Entry {
+        final String name;
+        final long time; // epoch milliseconds the PUG was scheduled for
+        final long archivedAt; // epoch milliseconds
+        final boolean cancelled;
+        final long mod;
+        final long[] players;
+        final long[] watchers;
+        // players who signed up but didn't turn up, as reported by whoever closed it
+        final long[] noShows;
+
+        Entry(String name, long time, long archivedAt, boolean cancelled, long mod, long[] players, long[] watchers,
+              long[] noShows) {
+            this.name = name;
+            this.time = time;
+            this.archivedAt = archivedAt;
+            this.cancelled = cancelled;
+            this.mod = mod;
+            this.players = players;
+            this.watchers = watchers;
+            this.noShows = noShows;
+        }
+
+        // returns the flags the user's posting gets, or 0 if they weren't in it
+        private int flags(long user) {
+            int flags = cancelled ? CANCELLED : 0;
+            if (user == mod) flags |= MOD;
+            if (contains(noShows, user)) {
+                flags |= PLAYED | NO_SHOW;
+            } else if (contains(players, user)) {
+                flags |= PLAYED;
+            } else if (contains(watchers, user)) {
+                flags |= WATCHED;
+            }
+            return flags;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeLong(time);
+            out.writeLong(archivedAt);
+            out.writeBoolean(cancelled);
+            out.writeLong(mod);
+            writeIDs(out, players);
+            writeIDs(out, watchers);
+            writeIDs(out, noShows);
+        }
+
+        private static Entry readFrom(DataInputStream in) throws IOException {
+            return new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean(), in.readLong(),
+                    readIDs(in), readIDs(in), readIDs(in));
+        }
+    }
+
+    /* one user's postings, oldest first.
+     * alongside each posting are how many PUGs the user attended and no-showed before it, so !top can count a
+     * window of them with one binary search instead of walking them all.
+     */
+    private static class Postings {
+        private long[] offsets = new long[4];
+        private int[] minutes = new int[4];
+        private byte[] flags = new byte[4];
+        private int[] attendedBefore = new int[4];
+        private int[] noShowsBefore = new int[4];
+        private int size;
+        private int attended;
+        private int noShows;
+
+        private void add(long offset, int minute, int flag) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                minutes = Arrays.copyOf(minutes, size * 2);
+                flags = Arrays.copyOf(flags, size * 2);
+                attendedBefore = Arrays.copyOf(attendedBefore, size * 2);
+                noShowsBefore = Arrays.copyOf(noShowsBefore, size * 2);
+            }
+            offsets[size] = offset;
+            minutes[size] = minute;
+            flags[size] = (byte) flag;
+            attendedBefore[size] = attended;
+            noShowsBefore[size] = noShows;
+            size++;
+            // a PUG counts for !top if they signed up to play and it went ahead
+            if ((flag & (PLAYED | CANCELLED)) == PLAYED) {
+                if ((flag & NO_SHOW) != 0) {
+                    noShows++;
+                } else {
+                    attended++;
+                }
+            }
+        }
+
+        private int attendedFrom(int index) {
+            return index == size ? 0 : attended - attendedBefore[index];
+        }
+
+        private int noShowsFrom(int index) {
+            return index == size ? 0 : noShows - noShowsBefore[index];
+        }
+
+        // the first posting archived at or after the given minute
+        private int from(int minute) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (minutes[middle] < minute) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    // what one user's postings add up to
+    static class Stats {
+        int played; // signed up to play in, and the PUG went ahead
+        int noShows;
+        int watched;
+        int cancelled; // signed up to play in or watch, and the PUG was cancelled
+        int modded;
+    }
+
+    private final File archiveFile;
+    private final File indexFile;
+
+    private final HashMap<Long, Postings> users = new HashMap<>();
+    private int archived;
+    private int cancelled;
+    private RandomAccessFile archive;
+    private FileOutputStream indexFileOut;
+    private DataOutputStream index;
+
+    HistoryArchive(String archiveFile, String indexFile) {
+        this.archiveFile = new File(archiveFile);
+        this.indexFile = new File(indexFile);
+    }
+
+    /* reads the index, and indexes any records at the end of the archive it's missing. Must be called before
+     * anything else.
+     */
+    synchronized void load() throws IOException {
+        archive = new RandomAccessFile(archiveFile, "rw");
+
+        // the last record in the index may have only some of its postings, so it's dropped and indexed again
+        long indexLength = 0;
+        long reindexFrom = 0;
+        if (indexFile.exists()) {
+            RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+            try {
+                indexLength = file.length() / POSTING_SIZE * POSTING_SIZE;
+                if (indexLength > 0) {
+                    reindexFrom = offsetAt(file, indexLength - POSTING_SIZE);
+                    while (indexLength > 0 && offsetAt(file, indexLength - POSTING_SIZE) == reindexFrom) {
+                        indexLength -= POSTING_SIZE;
+                    }
+                }
+                file.setLength(indexLength);
+            } finally {
+                file.close();
+            }
+        }
+
+        if (indexLength > 0) {
+            FileChannel postings = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+            try {
+                // whole postings at a time, so none is split across reads
+                ByteBuffer buffer = ByteBuffer.allocate(POSTING_SIZE * 4096);
+                long lastOffset = -1;
+                for (long read = 0; read < indexLength; ) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), indexLength - read));
+                    while (buffer.hasRemaining()) {
+                        if (postings.read(buffer) < 0) throw new EOFException();
+                    }
+                    buffer.flip();
+                    read += buffer.limit();
+                    while (buffer.remaining() >= POSTING_SIZE) {
+                        long user = buffer.getLong();
+                        long offset = buffer.getLong();
+                        int minute = buffer.getInt();
+                        int flags = buffer.get();
+                        this.post(user, offset, minute, flags);
+                        if (offset != lastOffset) {
+                            this.count(flags);
+                            lastOffset = offset;
+                        }
+                    }
+                }
+            } finally {
+                postings.close();
+            }
+        }
+
+        indexFileOut = new FileOutputStream(indexFile, true);
+        index = new DataOutputStream(new BufferedOutputStream(indexFileOut));
+        int reindexed = 0;
+        long offset = reindexFrom;
+        while (offset < archive.length()) {
+            Entry entry = this.readAt(offset);
+            if (entry == null) {
+                System.out.println("WARNING: Discarding " + (archive.length() - offset) + " unreadable bytes at " +
+                        "the end of the PUG history.");
+                archive.setLength(offset);
+                break;
+            }
+            this.index(entry, offset);
+            offset = archive.getFilePointer();
+            reindexed++;
+        }
+        this.syncIndex();
+        if (reindexed > 1) {
+            System.out.println("Indexed " + reindexed + " PUGs missing from " + indexFile + ".");
+        }
+    }
+
+    // effect: adds the PUGs to the end of the archive, in order, and indexes them. The records share one sync.
+    synchronized void append(List<Entry> entries) throws IOException {
+        long[] offsets = new long[entries.size()];
+        long start = archive.length();
+        long offset = start;
+        try {
+            archive.seek(offset);
+            for (int i = 0; i < entries.size(); i++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream payload = new DataOutputStream(bytes);
+                entries.get(i).writeTo(payload);
+                payload.close();
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+
+                offsets[i] = offset;
+                archive.writeInt(bytes.size());
+                archive.writeInt((int) crc.getValue());
+                archive.write(bytes.toByteArray());
+                offset += 8 + bytes.size();
+            }
+            archive.getChannel().force(false);
+        } catch (IOException e) {
+            // drop whatever made it in, so the next append doesn't land after a record load would stop at
+            try {
+                archive.setLength(start);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            this.index(entries.get(i), offsets[i]);
+        }
+        this.syncIndex();
+    }
+
+    // effect: closes the files. Nothing can be archived after.
+    synchronized void close() throws IOException {
+        if (index != null) {
+            index.close();
+            index = null;
+            indexFileOut = null;
+        }
+        if (archive != null) {
+            archive.close();
+            archive = null;
+        }
+    }
+
+    // returns the last few PUGs the user played in or watched, most recent first
+    synchronized List<Entry> recent(long user, int limit) throws IOException {
+        ArrayList<Entry> recent = new ArrayList<>();
+        Postings postings = users.get(user);
+        if (postings == null) return recent;
+
+        for (int i = postings.size - 1; i >= 0 && recent.size() < limit; i--) {
+            if ((postings.flags[i] & (PLAYED | WATCHED)) == 0) continue;
+            Entry entry = this.readAt(postings.offsets[i]);
+            if (entry != null) {
+                recent.add(entry);
+            }
+        }
+        return recent;
+    }
+
+    synchronized Stats stats(long user) {
+        Stats stats = new Stats();
+        Postings postings = users.get(user);
+        if (postings == null) return stats;
+
+        for (int i = 0; i < postings.size; i++) {
+            int flags = postings.flags[i];
+            if ((flags & MOD) != 0) stats.modded++;
+            if ((flags & CANCELLED) != 0) {
+                if ((flags & (PLAYED | WATCHED)) != 0) stats.cancelled++;
+            } else if ((flags & PLAYED) != 0) {
+                stats.played++;
+                if ((flags & NO_SHOW) != 0) stats.noShows++;
+            } else if ((flags & WATCHED) != 0) {
+                stats.watched++;
+            }
+        }
+        return stats;
+    }
+
+    /* returns up to limit users with the most PUGs attended since the given epoch millisecond, most first, as
+     * [user, attended, no-shows]. Ties go to whoever no-showed less.
+     */
+    synchronized List<long[]> top(long since, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        Comparator<long[]> rank = (a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[2], b[2]);
+        // the best so far, worst on top, so each user is one comparison against the worst rather than a full sort
+        PriorityQueue<long[]> best = new PriorityQueue<>(limit, rank.reversed());
+
+        int fromMinute = since <= 0 ? Integer.MIN_VALUE : toMinute(since);
+        for (Map.Entry<Long, Postings> user : users.entrySet()) {
+            Postings postings = user.getValue();
+            if (postings.attended == 0) continue;
+            int from = since <= 0 ? 0 : postings.from(fromMinute);
+            int attended = postings.attendedFrom(from);
+            if (attended == 0) continue;
+
+            long[] candidate = {user.getKey(), attended, postings.noShowsFrom(from)};
+            if (best.size() < limit) {
+                best.add(candidate);
+            } else if (rank.compare(candidate, best.peek()) < 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        ArrayList<long[]> ranked = new ArrayList<>(best);
+        ranked.sort(rank);
+        return ranked;
+    }
+
+    synchronized int archivedCount() {
+        return archived;
+    }
+
+    synchronized int cancelledCount() {
+        return cancelled;
+    }
+
+    private void index(Entry entry, long offset) throws IOException {
+        int minute = toMinute(entry.archivedAt);
+        HashSet<Long> seen = new HashSet<>();
+        int flags = 0;
+        for (long[] ids : new long[][] {{entry.mod}, entry.players, entry.watchers, entry.noShows}) {
+            for (long user : ids) {
+                if (!seen.add(user)) continue;
+                flags = entry.flags(user);
+                this.post(user, offset, minute, flags);
+                index.writeLong(user);
+                index.writeLong(offset);
+                index.writeInt(minute);
+                index.writeByte(flags);
+            }
+        }
+        this.count(flags);
+    }
+
+    // effect: writes the buffered postings out and waits for them to reach the disk
+    private void syncIndex() throws IOException {
+        index.flush();
+        indexFileOut.getChannel().force(false);
+    }
+
+    private void post(long user, long offset, int minute, int flags) {
+        users.computeIfAbsent(user, u -> new Postings()).add(offset, minute, flags);
+    }
+
+    private void count(int flags) {
+        archived++;
+        if ((flags & CANCELLED) != 0) cancelled++;
+    }
+
+    // returns the record at the offset and leaves the file just past it, or null if it's torn or corrupt
+    private Entry readAt(long offset) throws IOException {
+        if (offset + 8 > archive.length()) return null;
+        archive.seek(offset);
+        int length = archive.readInt();
+        int checksum = archive.readInt();
+        if (length < 0 || offset + 8 + length > archive.length()) return null;
+        byte[] record = new byte[length];
+        archive.readFully(record);
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) return null;
+        return Entry.readFrom(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    private static long offsetAt(RandomAccessFile file, long posting) throws IOException {
+        file.seek(posting + 8);
+        return file.readLong();
+    }
+
+    private static int toMinute(long epochMillis) {
+        return (int) TimeUnit.MILLISECONDS.toMinutes(epochMillis);
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        for (long other : ids) {
+            if (other == id) return true;
+        }
+        return false;
+    }
+
+    private static void writeIDs(DataOutputStream out, long[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+    }
+
+    private static long[] readIDs(DataInputStream in) throws IOException {
+        long[] ids = new long[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readLong();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,240 @@
+package bot;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/* append-only log of state changes, backed by a periodically compacted snapshot.
+ * - every change is one small record appended to the journal file
+ * - once enough records pile up, the current state is written out as a snapshot and the journal starts over
+ * - on startup, the snapshot is loaded and the journal replayed on top of it
+ * snapshots use SnapshotFormat. A Java-serialized backup from older versions is migrated the first time it's loaded.
+ *
+ * records are laid out as [length][crc32][sequence number][entry], so a record torn by a crash is detected and
+ * dropped instead of corrupting everything after it.
+ *
+ * entries only reach the stored state once they've been synced. If a write or sync fails, everything since the last
+ * good sync is taken back out of the file, so the caller can write the same entries again.
+ *
+ * not thread safe - after load(), only PersistenceWriter's thread touches it.
+ */
+class Journal {
+    private final File snapshotFile;
+    private final File legacySnapshotFile;
+    private final File journalFile;
+    private final int compactionThreshold;
+
+    private StoredState state;
+    private long sequence;
+    private int entriesSinceSnapshot;
+    // how far the journal file and the sequence had got at the last good sync, and what's been written since
+    private long syncedLength;
+    private long syncedSequence;
+    private final ArrayList<JournalEntry> unsynced = new ArrayList<>();
+    private FileOutputStream file;
+    private DataOutputStream output;
+
+    Journal(String snapshotFile, String legacySnapshotFile, String journalFile, int compactionThreshold) {
+        this.snapshotFile = new File(snapshotFile);
+        this.legacySnapshotFile = new File(legacySnapshotFile);
+        this.journalFile = new File(journalFile);
+        this.compactionThreshold = compactionThreshold;
+        this.state = new StoredState();
+    }
+
+    // reads the snapshot and replays the journal over it. Must be called before anything is written.
+    StoredState load() throws IOException, ClassNotFoundException {
+        this.state = new StoredState();
+        this.sequence = 0;
+        this.entriesSinceSnapshot = 0;
+        this.unsynced.clear();
+
+        boolean migrating = false;
+        if (snapshotFile.exists()) {
+            this.useSnapshot(SnapshotFormat.read(snapshotFile));
+        } else if (legacySnapshotFile.exists()) {
+            this.useSnapshot(SnapshotFormat.readLegacy(legacySnapshotFile));
+            migrating = true;
+        }
+        if (journalFile.exists()) {
+            this.replayJournal();
+        }
+        this.syncedLength = journalFile.length();
+        this.syncedSequence = sequence;
+
+        if (migrating) {
+            this.compact();
+            File migrated = new File(legacySnapshotFile.getPath() + ".migrated");
+            if (legacySnapshotFile.renameTo(migrated)) {
+                System.out.println("Migrated " + legacySnapshotFile + " to " + snapshotFile + ", the old file " +
+                        "was kept as " + migrated + ".");
+            }
+        }
+
+        return state;
+    }
+
+    // effect: buffers the entry for the journal file. Nothing is durable, or in the stored state, until sync() is
+    // called. Returns the number of bytes the entry takes in the journal.
+    int write(JournalEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(sequence + 1);
+        entry.writeTo(payload);
+        payload.close();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        try {
+            if (output == null) {
+                this.open(true);
+            }
+            output.writeInt(bytes.size());
+            output.writeInt((int) crc.getValue());
+            bytes.writeTo(output);
+        } catch (IOException e) {
+            this.rollBack();
+            throw e;
+        }
+
+        sequence++;
+        unsynced.add(entry);
+        entriesSinceSnapshot++;
+        return 8 + bytes.size();
+    }
+
+    // effect: forces everything written so far onto disk, then applies it to the stored state
+    void sync() throws IOException {
+        if (output == null) return;
+        try {
+            output.flush();
+            file.getChannel().force(false);
+            syncedLength = file.getChannel().size();
+        } catch (IOException e) {
+            this.rollBack();
+            throw e;
+        }
+
+        syncedSequence = sequence;
+        for (JournalEntry entry : unsynced) {
+            entry.applyTo(state);
+        }
+        unsynced.clear();
+    }
+
+    // writes a fresh snapshot and empties the journal once it has grown past the compaction threshold
+    void compactIfNeeded() throws IOException {
+        if (entriesSinceSnapshot >= compactionThreshold) {
+            this.compact();
+        }
+    }
+
+    void compact() throws IOException {
+        // write to a temporary file first so a crash mid-write never leaves us without a usable snapshot
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        SnapshotFormat.write(temp, state, sequence);
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // anything left in the journal is now covered by the snapshot's sequence number, so truncating it is safe
+        // even if we crash before getting here
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+        syncedLength = 0;
+        this.open(false);
+        entriesSinceSnapshot = 0;
+    }
+
+    void close() throws IOException {
+        if (output != null) {
+            this.sync();
+            output.close();
+            output = null;
+        }
+    }
+
+    // appending picks up after the last good sync, dropping whatever a failed write left behind it
+    private void open(boolean append) throws IOException {
+        file = new FileOutputStream(journalFile, append);
+        if (append && file.getChannel().size() > syncedLength) {
+            file.getChannel().truncate(syncedLength);
+        }
+        output = new DataOutputStream(new BufferedOutputStream(file));
+    }
+
+    // effect: forgets everything written since the last good sync. The file is cut back the next time it's opened.
+    private void rollBack() {
+        try {
+            // not output.close(), which would try to flush what's buffered
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            // it's being reopened anyway
+        }
+        output = null;
+        sequence = syncedSequence;
+        entriesSinceSnapshot -= unsynced.size();
+        unsynced.clear();
+    }
+
+    private void useSnapshot(SnapshotFormat.Snapshot snapshot) {
+        this.state = snapshot.state;
+        this.sequence = snapshot.sequence;
+    }
+
+    private void replayJournal() throws IOException {
+        long validLength = 0;
+        long fileLength = journalFile.length();
+        long snapshotSequence = sequence;
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] record;
+                try {
+                    length = input.readInt();
+                    checksum = input.readInt();
+                    // a torn or corrupt header - every record holds at least its sequence number, and none runs
+                    // past the end of the file
+                    if (length < 8 || validLength + 8 + length > fileLength) break;
+                    record = new byte[length];
+                    input.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) break;
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(record));
+                long entrySequence = payload.readLong();
+                if (entrySequence > snapshotSequence) {
+                    JournalEntry.readFrom(payload).applyTo(state);
+                    sequence = entrySequence;
+                    entriesSinceSnapshot++;
+                }
+                validLength += 8 + length;
+            }
+        } finally {
+            input.close();
+        }
+
+        // cut off a torn record left by a crash, so new entries don't get appended after garbage
+        if (validLength < fileLength) {
+            System.out.println("WARNING: Discarding " + (fileLength - validLength) + " unreadable " +
+                    "bytes at the end of the journal.");
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            file.setLength(validLength);
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package bot;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashSet;
+
+// a single state change, as written to the journal. Only the fields relevant to the type are set.
+class JournalEntry {
+    // only ever add to the end of this, the ordinals are what's written to disk
+    enum Type { CREATE, JOIN, WATCH, LEAVE, RESCHEDULE, TRANSFER, DELETE, TIMEZONE, PLAN, REMINDER_STAGE, SKILL,
+        DM_HOURS }
+
+    private final Type type;
+    private final String pugName;
+    private final String userID;
+    private final ZonedDateTime time;
+    private final ZoneId zone;
+    private final SerializablePUG pug;
+    private final ReminderPlan plan;
+    private final int stage; // or for DM_HOURS, the hours
+    private final Skill skill;
+
+    private JournalEntry(Type type, String pugName, String userID, ZonedDateTime time, ZoneId zone,
+                         SerializablePUG pug) {
+        this(type, pugName, userID, time, zone, pug, null, 0);
+    }
+
+    private JournalEntry(Type type, String pugName, String userID, ZonedDateTime time, ZoneId zone,
+                         SerializablePUG pug, ReminderPlan plan, int stage) {
+        this(type, pugName, userID, time, zone, pug, plan, stage, null);
+    }
+
+    private JournalEntry(Type type, String pugName, String userID, ZonedDateTime time, ZoneId zone,
+                         SerializablePUG pug, ReminderPlan plan, int stage, Skill skill) {
+        this.type = type;
+        this.pugName = pugName;
+        this.userID = userID;
+        this.time = time;
+        this.zone = zone;
+        this.pug = pug;
+        this.plan = plan;
+        this.stage = stage;
+        this.skill = skill;
+    }
+
+    static JournalEntry create(String pugName, SerializablePUG pug) {
+        return new JournalEntry(Type.CREATE, pugName, null, null, null, pug);
+    }
+
+    static JournalEntry join(String pugName, String userID) {
+        return new JournalEntry(Type.JOIN, pugName, userID, null, null, null);
+    }
+
+    static JournalEntry watch(String pugName, String userID) {
+        return new JournalEntry(Type.WATCH, pugName, userID, null, null, null);
+    }
+
+    static JournalEntry leave(String pugName, String userID) {
+        return new JournalEntry(Type.LEAVE, pugName, userID, null, null, null);
+    }
+
+    static JournalEntry reschedule(String pugName, ZonedDateTime time) {
+        return new JournalEntry(Type.RESCHEDULE, pugName, null, time, null, null);
+    }
+
+    static JournalEntry transfer(String pugName, String newModID) {
+        return new JournalEntry(Type.TRANSFER, pugName, newModID, null, null, null);
+    }
+
+    static JournalEntry delete(String pugName) {
+        return new JournalEntry(Type.DELETE, pugName, null, null, null, null);
+    }
+
+    static JournalEntry plan(String pugName, ReminderPlan plan) {
+        return new JournalEntry(Type.PLAN, pugName, null, null, null, null, plan, 0);
+    }
+
+    // the PUG's next reminder stage is now the given one
+    static JournalEntry reminderStage(String pugName, int stage) {
+        return new JournalEntry(Type.REMINDER_STAGE, pugName, null, null, null, null, null, stage);
+    }
+
+    static JournalEntry timeZone(String userID, ZoneId zone) {
+        return new JournalEntry(Type.TIMEZONE, null, userID, null, zone, null);
+    }
+
+    static JournalEntry skill(String userID, Skill skill) {
+        return new JournalEntry(Type.SKILL, null, userID, null, null, null, null, 0, skill);
+    }
+
+    // the hours of the day, in the user's time zone, they want to hear about new PUGs starting in - see
+    // SubscriptionIndex
+    static JournalEntry dmHours(String userID, int hours) {
+        return new JournalEntry(Type.DM_HOURS, null, userID, null, null, null, null, hours);
+    }
+
+    // effect: applies this change to the given state. Changes to PUGs that no longer exist are ignored, since
+    // they can only come from a journal that outlived its PUG's deletion
+    void applyTo(StoredState state) {
+        if (type == Type.TIMEZONE) {
+            state.timeZones.put(userID, zone);
+            return;
+        }
+        if (type == Type.SKILL) {
+            state.skills.put(userID, skill);
+            return;
+        }
+        if (type == Type.DM_HOURS) {
+            if (stage == SubscriptionIndex.ALL_HOURS) {
+                state.dmHours.remove(userID);
+            } else {
+                state.dmHours.put(userID, stage);
+            }
+            return;
+        }
+        if (type == Type.CREATE) {
+            state.pugs.put(pugName, pug);
+            return;
+        }
+
+        SerializablePUG target = state.pugs.get(pugName);
+        if (target == null) return;
+
+        switch (type) {
+            case JOIN:
+                target.addPlayer(userID);
+                break;
+            case WATCH:
+                target.addWatcher(userID);
+                break;
+            case LEAVE:
+                target.remove(userID);
+                break;
+            case RESCHEDULE:
+                target.reschedule(time);
+                break;
+            case TRANSFER:
+                target.changeMod(userID);
+                break;
+            case DELETE:
+                state.pugs.remove(pugName);
+                break;
+            case PLAN:
+                target.setPlan(plan);
+                break;
+            case REMINDER_STAGE:
+                target.setNextReminder(stage);
+                break;
+        }
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        switch (type) {
+            case CREATE:
+                out.writeUTF(pugName);
+                writeIDs(out, pug.getPlayers());
+                writeIDs(out, pug.getWatchers());
+                writeTime(out, pug.getTime());
+                out.writeUTF(pug.getDescription());
+                out.writeUTF(pug.getMod());
+                out.writeUTF(pug.getGuild());
+                out.writeInt(pug.getMinutesWarning());
+                out.writeUTF(pug.getIdentifier());
+                break;
+            case JOIN:
+            case WATCH:
+            case LEAVE:
+            case TRANSFER:
+                out.writeUTF(pugName);
+                out.writeUTF(userID);
+                break;
+            case RESCHEDULE:
+                out.writeUTF(pugName);
+                writeTime(out, time);
+                break;
+            case DELETE:
+                out.writeUTF(pugName);
+                break;
+            case PLAN:
+                out.writeUTF(pugName);
+                writePlan(out, plan);
+                break;
+            case REMINDER_STAGE:
+                out.writeUTF(pugName);
+                out.writeInt(stage);
+                break;
+            case TIMEZONE:
+                out.writeUTF(userID);
+                out.writeUTF(zone.getId());
+                break;
+            case SKILL:
+                out.writeUTF(userID);
+                out.writeInt(skill.rating);
+                out.writeByte(skill.roles);
+                break;
+            case DM_HOURS:
+                out.writeUTF(userID);
+                out.writeInt(stage);
+                break;
+        }
+    }
+
+    static JournalEntry readFrom(DataInputStream in) throws IOException {
+        Type type = Type.values()[in.readUnsignedByte()];
+        switch (type) {
+            case CREATE:
+                String pugName = in.readUTF();
+                LinkedHashSet<String> players = readIDs(in);
+                LinkedHashSet<String> watchers = readIDs(in);
+                ZonedDateTime time = readTime(in);
+                String description = in.readUTF();
+                String mod = in.readUTF();
+                String guild = in.readUTF();
+                int minutesWarning = in.readInt();
+                String identifier = in.readUTF();
+                // the plan journaled right after this replaces the single reminder
+                return create(pugName, new SerializablePUG(players, watchers, time, description, mod, guild,
+                        pugName, identifier, ReminderPlan.single(minutesWarning), 0));
+            case JOIN:
+                return join(in.readUTF(), in.readUTF());
+            case WATCH:
+                return watch(in.readUTF(), in.readUTF());
+            case LEAVE:
+                return leave(in.readUTF(), in.readUTF());
+            case TRANSFER:
+                return transfer(in.readUTF(), in.readUTF());
+            case RESCHEDULE:
+                return reschedule(in.readUTF(), readTime(in));
+            case DELETE:
+                return delete(in.readUTF());
+            case PLAN:
+                return plan(in.readUTF(), readPlan(in));
+            case REMINDER_STAGE:
+                return reminderStage(in.readUTF(), in.readInt());
+            case SKILL:
+                return skill(in.readUTF(), new Skill(in.readInt(), in.readUnsignedByte()));
+            case DM_HOURS:
+                return dmHours(in.readUTF(), in.readInt());
+            default:
+                return timeZone(in.readUTF(), ZoneId.of(in.readUTF()));
+        }
+    }
+
+    static void writePlan(DataOutput out, ReminderPlan plan) throws IOException {
+        int[] minutes = plan.getReminderMinutes();
+        out.writeInt(minutes.length);
+        for (int m : minutes) {
+            out.writeInt(m);
+        }
+        out.writeInt(plan.getWarningMinutes());
+    }
+
+    static ReminderPlan readPlan(DataInput in) throws IOException {
+        int[] minutes = new int[in.readInt()];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = in.readInt();
+        }
+        return new ReminderPlan(minutes, in.readInt());
+    }
+
+    private static void writeIDs(DataOutputStream out, LinkedHashSet<String> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeUTF(id);
+        }
+    }
+
+    private static LinkedHashSet<String> readIDs(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(in.readUTF());
+        }
+        return ids;
+    }
+
+    private static void writeTime(DataOutputStream out, ZonedDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond());
+        out.writeUTF(time.getZone().getId());
+    }
+
+    private static ZonedDateTime readTime(DataInputStream in) throws IOException {
+        long epochSecond = in.readLong();
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.of(in.readUTF()));
+    }
+}
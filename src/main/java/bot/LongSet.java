@@ -0,0 +1,122 @@
+package bot;
+
+import java.util.Arrays;
+
+/* an insertion-ordered set of snowflakes, for PUG rosters, without boxing every ID and wrapping it in a map entry
+ * the way LinkedHashSet<Long> does.
+ * IDs live in one array in the order they were added. Small rosters are searched straight through it, which beats
+ * hashing at that size; once one grows past LINEAR_LIMIT, an open-addressed table of positions in the array is kept
+ * alongside it.
+ * removing shifts everything after the removed ID down (and rebuilds the table), which is fine for rosters - they're
+ * read far more than they shrink.
+ * not thread safe - PUG only touches its rosters under its own lock.
+ */
+class LongSet {
+    private static final int LINEAR_LIMIT = 16;
+
+    private long[] elements;
+    private int size;
+    // position + 1 of each element in elements, by hash, 0 for an empty slot. Null while the set is small.
+    private int[] table;
+
+    LongSet() {
+        this.elements = new long[8];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // returns the index-th ID added that's still in the set
+    long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " of " + size);
+        }
+        return elements[index];
+    }
+
+    boolean contains(long id) {
+        return this.indexOf(id) >= 0;
+    }
+
+    // effect: adds the ID at the end, unless it's already in the set. Returns true if it was added.
+    boolean add(long id) {
+        if (this.indexOf(id) >= 0) return false;
+
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = id;
+        if (table != null && size * 2 > table.length) {
+            this.rebuild();
+        } else if (table != null) {
+            this.place(size - 1);
+        } else if (size > LINEAR_LIMIT) {
+            this.rebuild();
+        }
+        return true;
+    }
+
+    // effect: removes the ID, keeping the others in order. Returns true if it was in the set.
+    boolean remove(long id) {
+        int index = this.indexOf(id);
+        if (index < 0) return false;
+
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        if (table != null) {
+            this.rebuild();
+        }
+        return true;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    private int indexOf(long id) {
+        if (table == null) {
+            for (int i = 0; i < size; i++) {
+                if (elements[i] == id) return i;
+            }
+            return -1;
+        }
+
+        int mask = table.length - 1;
+        for (int slot = hash(id) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (elements[table[slot] - 1] == id) return table[slot] - 1;
+        }
+        return -1;
+    }
+
+    // effect: makes a table at most half full for the elements there are now, or drops it if the set is small again
+    private void rebuild() {
+        if (size <= LINEAR_LIMIT) {
+            table = null;
+            return;
+        }
+        table = new int[Integer.highestOneBit(size * 4 - 1)];
+        for (int i = 0; i < size; i++) {
+            this.place(i);
+        }
+    }
+
+    private void place(int index) {
+        int mask = table.length - 1;
+        int slot = hash(elements[index]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    // snowflakes' low bits are a per-process counter, so they're mixed before being used as a slot
+    private static int hash(long id) {
+        long mixed = id * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,60 @@
+package bot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* which PUGs each user in a server is playing in or watching, so !mypugs and a member leaving only touch the PUGs the
+ * user is actually in, instead of scanning every roster.
+ * PUG keeps it up to date as its roster changes, under its own lock. Each user's PUGs are a small array that's
+ * replaced, never changed, so readers get a consistent copy without locking.
+ * PUGs are told apart by identity, not name - a PUG that failed to be added (its name was taken) cleans up after
+ * itself without touching the one that has the name.
+ */
+class MembershipIndex {
+    private static final PUG[] NONE = new PUG[0];
+
+    private final ConcurrentHashMap<Long, PUG[]> byUser = new ConcurrentHashMap<>();
+
+    // effect: records the user as being in the PUG, if they aren't already
+    void add(long user, PUG pug) {
+        byUser.compute(user, (u, pugs) -> {
+            if (pugs == null) return new PUG[] {pug};
+            for (PUG other : pugs) {
+                if (other == pug) return pugs;
+            }
+            PUG[] more = Arrays.copyOf(pugs, pugs.length + 1);
+            more[pugs.length] = pug;
+            return more;
+        });
+    }
+
+    // effect: records the user as no longer being in the PUG
+    void remove(long user, PUG pug) {
+        byUser.computeIfPresent(user, (u, pugs) -> {
+            int index = 0;
+            while (index < pugs.length && pugs[index] != pug) {
+                index++;
+            }
+            if (index == pugs.length) return pugs;
+            if (pugs.length == 1) return null;
+
+            PUG[] fewer = new PUG[pugs.length - 1];
+            System.arraycopy(pugs, 0, fewer, 0, index);
+            System.arraycopy(pugs, index + 1, fewer, index, pugs.length - index - 1);
+            return fewer;
+        });
+    }
+
+    // the PUGs the user is playing in or watching, in no particular order
+    List<PUG> of(long user) {
+        PUG[] pugs = byUser.getOrDefault(user, NONE);
+        return pugs.length == 0 ? Collections.emptyList() : Arrays.asList(pugs);
+    }
+
+    // users in at least one PUG
+    int size() {
+        return byUser.size();
+    }
+}
@@ -0,0 +1,376 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.entities.PrivateChannel;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.exceptions.ErrorResponseException;
+import net.dv8tion.jda.core.requests.ErrorResponse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* every outgoing message the bot sends goes through here, instead of straight to JDA.
+ * - messages wait in a bounded queue ordered by priority, so a new-PUG broadcast to the whole server can't hold up
+ *   command replies or reminders. When the queue is full, a message pushes out the newest one of a lower priority,
+ *   and is only dropped if there's none
+ * - a single sender thread paces REST calls to stay under Discord's global rate limit, and queues them with JDA
+ *   without waiting for them to come back - up to maxInFlight at once, so a slow round trip or a rate limited channel
+ *   only holds up the messages that go to it
+ * - failed sends are retried with exponential backoff, except for users who don't accept DMs
+ * - DM channels are cached, so a repeat DM costs one REST call instead of two
+ * - text too long for one Discord message goes out as several, split between lines
+ */
+class MessageDispatcher {
+    // lower ordinal goes first
+    enum Priority { REPLY, REMINDER, UPDATE, BROADCAST }
+
+    // the most characters Discord allows in one message
+    static final int MESSAGE_LIMIT = 2000;
+
+    /* tracks the progress of a group of messages, like all the DMs for one announcement.
+     * messages can finish while others are still being added, so it's only reported as finished once whoever is
+     * adding them has closed it.
+     */
+    static class Batch {
+        private final String description;
+        private final long started;
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private boolean closed;
+        private boolean reported;
+
+        private Batch(String description) {
+            this.description = description;
+            this.started = System.nanoTime();
+        }
+
+        // effect: marks the batch as having all its messages, so it's reported once they're done
+        void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            this.reportIfDone();
+        }
+
+        private void finishOne(boolean success) {
+            (success ? sent : failed).incrementAndGet();
+            this.reportIfDone();
+        }
+
+        private synchronized void reportIfDone() {
+            if (closed && !reported && sent.get() + failed.get() == total.get()) {
+                reported = true;
+                System.out.println("Finished " + description + ": " + sent.get() + " sent, " + failed.get() +
+                        " failed, took " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) + "s.");
+            }
+        }
+
+        int getTotal() {
+            return total.get();
+        }
+
+        int getSent() {
+            return sent.get();
+        }
+
+        int getFailed() {
+            return failed.get();
+        }
+    }
+
+    private static class Outgoing {
+        private final Priority priority;
+        private final MessageChannel channel;
+        private final User user;
+        private final String text;
+        private final Batch batch;
+        private int attempts;
+
+        private Outgoing(Priority priority, MessageChannel channel, User user, String text, Batch batch) {
+            this.priority = priority;
+            this.channel = channel;
+            this.user = user;
+            this.text = text;
+            this.batch = batch;
+        }
+    }
+
+    private final int capacity;
+    private final long nanosPerRequest;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final int maxInFlight;
+
+    // one first-in first-out queue per priority, all guarded by lock
+    private final ArrayDeque<Outgoing>[] queues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int queuedCount;
+    // one permit per message whose REST calls haven't come back yet
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retries;
+    private final PrivateChannelCache privateChannels;
+    private long nextRequest;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    MessageDispatcher(int capacity, int requestsPerSecond, int maxAttempts, long backoffMillis,
+                      int privateChannelCacheSize, int maxInFlight) {
+        this.capacity = capacity;
+        this.nanosPerRequest = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxInFlight = maxInFlight;
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Outgoing>[] queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        this.queues = queues;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.privateChannels = new PrivateChannelCache(privateChannelCacheSize);
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread sender = new Thread(this::run, "message-dispatcher");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    Batch batch(String description) {
+        return new Batch(description);
+    }
+
+    // queues a message to a channel. Returns false if the queue is full and the message, or part of it, was dropped.
+    boolean send(Priority priority, MessageChannel channel, String text) {
+        boolean queued = true;
+        for (String page : pages(text)) {
+            submitted.incrementAndGet();
+            queued &= this.enqueue(new Outgoing(priority, channel, null, page, null), false);
+        }
+        return queued;
+    }
+
+    // queues a DM to the given user. Returns false if the queue is full and the message was dropped.
+    boolean sendDM(Priority priority, User user, String text) {
+        return this.sendDM(priority, user, text, null);
+    }
+
+    boolean sendDM(Priority priority, User user, String text, Batch batch) {
+        boolean queued = true;
+        for (String page : pages(text)) {
+            if (batch != null) {
+                batch.total.incrementAndGet();
+            }
+            submitted.incrementAndGet();
+            queued &= this.enqueue(new Outgoing(priority, null, user, page, batch), false);
+        }
+        return queued;
+    }
+
+    // splits text into pieces short enough for one message each, breaking at line ends where it can
+    static List<String> pages(String text) {
+        if (text.length() <= MESSAGE_LIMIT) {
+            return Collections.singletonList(text);
+        }
+
+        List<String> pages = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > MESSAGE_LIMIT) {
+            int end = text.lastIndexOf('\n', start + MESSAGE_LIMIT);
+            if (end <= start) {
+                // a single line too long to fit, so it has to be cut
+                end = start + MESSAGE_LIMIT;
+            }
+            pages.add(text.substring(start, end));
+            start = text.charAt(end) == '\n' ? end + 1 : end;
+        }
+        pages.add(text.substring(start));
+        return pages;
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return queuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // messages handed to JDA that haven't come back yet
+    int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    String progress() {
+        return "queued: " + this.queued() + ", in flight: " + this.inFlight() + ", cached DM channels: " +
+                privateChannels.size() + ", submitted: " + submitted.get() + ", sent: " + sent.get() + ", failed: " +
+                failed.get() + ", retried: " + retried.get() + ", dropped: " + dropped.get();
+    }
+
+    /* effect: adds the message to the back of its priority's queue, or the front if it's being retried. If the queue
+     * is full, the newest message of the lowest priority below it is dropped to make room; if there's none, the
+     * message itself is. Returns false if the message was dropped.
+     */
+    private boolean enqueue(Outgoing message, boolean retry) {
+        Outgoing evicted = null;
+        lock.lock();
+        try {
+            if (queuedCount >= capacity) {
+                for (int p = queues.length - 1; p > message.priority.ordinal() && evicted == null; p--) {
+                    evicted = queues[p].pollLast();
+                }
+                if (evicted == null) {
+                    evicted = message;
+                } else {
+                    queuedCount--;
+                }
+            }
+            if (evicted != message) {
+                if (retry) {
+                    queues[message.priority.ordinal()].addFirst(message);
+                } else {
+                    queues[message.priority.ordinal()].addLast(message);
+                }
+                queuedCount++;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (evicted != null) {
+            dropped.incrementAndGet();
+            if (evicted.batch != null) {
+                evicted.batch.finishOne(false);
+            }
+        }
+        return evicted != message;
+    }
+
+    // returns the most urgent message, waiting for one if the queue is empty
+    private Outgoing take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queuedCount == 0) {
+                notEmpty.await();
+            }
+            queuedCount--;
+            for (ArrayDeque<Outgoing> queue : queues) {
+                if (!queue.isEmpty()) return queue.pollFirst();
+            }
+            throw new IllegalStateException("Queued messages went missing.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Outgoing message;
+            try {
+                // wait for room first, so the message picked is the most urgent one when there is room
+                inFlight.acquire();
+                message = this.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.deliver(message);
+        }
+    }
+
+    // effect: starts sending the message, holding a permit until its calls come back
+    private void deliver(Outgoing message) {
+        message.attempts++;
+        try {
+            if (message.channel != null) {
+                this.pace();
+                this.post(message, message.channel);
+                return;
+            }
+
+            PrivateChannel privateChannel = privateChannels.get(message.user.getIdLong());
+            if (privateChannel != null) {
+                this.pace();
+                this.post(message, privateChannel);
+                return;
+            }
+            // the message goes out when the channel comes back, so its place under the rate limit is taken now
+            this.pace();
+            this.pace();
+            message.user.openPrivateChannel().queue(opened -> {
+                privateChannels.put(message.user.getIdLong(), opened);
+                this.post(message, opened);
+            }, failure -> this.failed(message, failure));
+        } catch (Exception e) {
+            this.failed(message, e);
+        }
+    }
+
+    private void post(Outgoing message, MessageChannel channel) {
+        try {
+            channel.sendMessage(message.text).queue(posted -> {
+                inFlight.release();
+                sent.incrementAndGet();
+                if (message.batch != null) {
+                    message.batch.finishOne(true);
+                }
+            }, failure -> this.failed(message, failure));
+        } catch (Exception e) {
+            // JDA checks some things, like permissions, before queueing the call at all
+            this.failed(message, e);
+        }
+    }
+
+    // effect: lets go of the message's permit, then gives up on it or schedules it to be tried again
+    private void failed(Outgoing message, Throwable failure) {
+        inFlight.release();
+        if (message.user != null) {
+            privateChannels.invalidate(message.user.getIdLong());
+        }
+        if (this.isPermanent(failure) || message.attempts >= maxAttempts) {
+            failed.incrementAndGet();
+            if (message.batch != null) {
+                message.batch.finishOne(false);
+            }
+        } else {
+            retried.incrementAndGet();
+            long delay = backoffMillis << (message.attempts - 1);
+            retries.schedule(() -> this.enqueue(message, true), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // effect: waits until sending another request won't exceed the global rate limit
+    private void pace() throws InterruptedException {
+        long now = System.nanoTime();
+        if (nextRequest > now) {
+            TimeUnit.NANOSECONDS.sleep(nextRequest - now);
+            now = nextRequest;
+        }
+        nextRequest = now + nanosPerRequest;
+    }
+
+    // users with DMs closed, or who have left, will never accept the message, so don't bother retrying
+    private boolean isPermanent(Throwable e) {
+        if (!(e instanceof ErrorResponseException)) return false;
+        ErrorResponse response = ((ErrorResponseException) e).getErrorResponse();
+        return response == ErrorResponse.CANNOT_SEND_TO_USER || response == ErrorResponse.UNKNOWN_USER ||
+                response == ErrorResponse.UNKNOWN_CHANNEL;
+    }
+}
@@ -0,0 +1,196 @@
+package bot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/* what the bot is doing, in numbers: command latency and errors, persistence commits, and gauges for everything with
+ * a current value (queues, reminder lag, PUG and player counts).
+ * recording is lock-free and cheap enough for every message. MetricsExporter serves the numbers over JMX and as
+ * Prometheus text.
+ */
+class Metrics {
+    // latency histogram with fixed buckets, in seconds - fixed so it can be exported as a Prometheus histogram as is
+    static class Histogram {
+        private static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+                2.5, 5, 10};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final LongAdder sumNanos = new LongAdder();
+
+        void record(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sumNanos.add(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        double sumSeconds() {
+            return sumNanos.sum() / 1e9;
+        }
+
+        private void writeTo(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i <= BOUNDS.length; i++) {
+                cumulative += buckets.get(i);
+                out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                        .append("le=\"").append(i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(braces(labels)).append(' ').append(sumSeconds()).append('\n');
+            out.append(name).append("_count").append(braces(labels)).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    // one command's latency, and how often it went wrong
+    static class CommandStats {
+        final Histogram latency = new Histogram();
+        // refused because the author isn't a mod
+        final LongAdder denied = new LongAdder();
+        // bad arguments - the user got told what was wrong
+        final LongAdder rejected = new LongAdder();
+        // anything else - a bug or a Discord failure
+        final LongAdder failed = new LongAdder();
+        // never run, because the author or the channel was over its rate limit
+        final LongAdder throttled = new LongAdder();
+    }
+
+    private static class Gauge {
+        private final String name;
+        private final String labels;
+        private final String help;
+        private final Supplier<Number> value;
+
+        private Gauge(String name, String labels, String help, Supplier<Number> value) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, CommandStats> commands = new ConcurrentSkipListMap<>();
+    private final Histogram commits = new Histogram();
+    private final LongAdder committedEntries = new LongAdder();
+    private final LongAdder committedBytes = new LongAdder();
+    private final LinkedHashMap<String, Gauge> gauges = new LinkedHashMap<>();
+
+    CommandStats command(String name) {
+        return commands.computeIfAbsent(name, n -> new CommandStats());
+    }
+
+    // effect: records one group commit of the journal
+    void committed(long nanos, int entries, long bytes) {
+        commits.record(nanos);
+        committedEntries.add(entries);
+        committedBytes.add(bytes);
+    }
+
+    /* effect: adds a gauge, read each time the metrics are. Gauges with the same name but different labels (like
+     * queue="messages" and queue="roles") are exported together.
+     */
+    synchronized void gauge(String name, String labels, String help, Supplier<Number> value) {
+        gauges.put(name + braces(labels), new Gauge(name, labels, help, value));
+    }
+
+    // every metric as a flat name -> value map, for JMX
+    Map<String, Number> snapshot() {
+        LinkedHashMap<String, Number> values = new LinkedHashMap<>();
+        for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+            String prefix = "command." + entry.getKey() + ".";
+            CommandStats stats = entry.getValue();
+            long count = stats.latency.count();
+            values.put(prefix + "count", count);
+            values.put(prefix + "meanMillis", count == 0 ? 0 : stats.latency.sumSeconds() * 1000 / count);
+            values.put(prefix + "denied", stats.denied.sum());
+            values.put(prefix + "rejected", stats.rejected.sum());
+            values.put(prefix + "failed", stats.failed.sum());
+            values.put(prefix + "throttled", stats.throttled.sum());
+        }
+
+        long commitCount = commits.count();
+        values.put("persistence.commits", commitCount);
+        values.put("persistence.meanCommitMillis", commitCount == 0 ? 0 : commits.sumSeconds() * 1000 / commitCount);
+        values.put("persistence.entries", committedEntries.sum());
+        values.put("persistence.bytes", committedBytes.sum());
+
+        synchronized (this) {
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                values.put(entry.getKey(), read(entry.getValue()));
+            }
+        }
+        return values;
+    }
+
+    // every metric in Prometheus' text format
+    String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# HELP pugbot_command_duration_seconds Time from a command arriving to its reply being queued.\n");
+        out.append("# TYPE pugbot_command_duration_seconds histogram\n");
+        for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+            entry.getValue().latency.writeTo(out, "pugbot_command_duration_seconds",
+                    "command=\"" + entry.getKey() + "\"");
+        }
+
+        out.append("# HELP pugbot_command_errors_total Commands that didn't succeed, by why.\n");
+        out.append("# TYPE pugbot_command_errors_total counter\n");
+        for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+            String command = "pugbot_command_errors_total{command=\"" + entry.getKey() + "\",kind=\"";
+            CommandStats stats = entry.getValue();
+            out.append(command).append("denied\"} ").append(stats.denied.sum()).append('\n');
+            out.append(command).append("rejected\"} ").append(stats.rejected.sum()).append('\n');
+            out.append(command).append("failed\"} ").append(stats.failed.sum()).append('\n');
+            out.append(command).append("throttled\"} ").append(stats.throttled.sum()).append('\n');
+        }
+
+        out.append("# HELP pugbot_persistence_commit_duration_seconds Time to write and sync one group commit.\n");
+        out.append("# TYPE pugbot_persistence_commit_duration_seconds histogram\n");
+        commits.writeTo(out, "pugbot_persistence_commit_duration_seconds", "");
+        out.append("# HELP pugbot_persistence_entries_total Journal entries written.\n");
+        out.append("# TYPE pugbot_persistence_entries_total counter\n");
+        out.append("pugbot_persistence_entries_total ").append(committedEntries.sum()).append('\n');
+        out.append("# HELP pugbot_persistence_bytes_total Journal bytes written.\n");
+        out.append("# TYPE pugbot_persistence_bytes_total counter\n");
+        out.append("pugbot_persistence_bytes_total ").append(committedBytes.sum()).append('\n');
+
+        synchronized (this) {
+            String described = null;
+            for (Gauge gauge : gauges.values()) {
+                if (!gauge.name.equals(described)) {
+                    out.append("# HELP ").append(gauge.name).append(' ').append(gauge.help).append('\n');
+                    out.append("# TYPE ").append(gauge.name).append(" gauge\n");
+                    described = gauge.name;
+                }
+                out.append(gauge.name).append(braces(gauge.labels)).append(' ').append(read(gauge)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static Number read(Gauge gauge) {
+        try {
+            return gauge.value.get();
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+}
@@ -0,0 +1,95 @@
+package bot;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/* makes the bot's metrics readable from outside the process:
+ * - as the MBean bot:type=Metrics, for jconsole and friends
+ * - as Prometheus text at http://localhost:<port>/metrics, for scraping
+ * the HTTP endpoint only listens on the loopback address - put a proxy in front of it to scrape from elsewhere.
+ */
+class MetricsExporter {
+    // the MBean's attributes are whatever metrics exist when it's asked, so commands show up as they're registered
+    private static class MetricsBean implements DynamicMBean {
+        private final Metrics metrics;
+
+        private MetricsBean(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = metrics.snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = metrics.snapshot();
+            AttributeList found = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    found.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> entry : metrics.snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "PUG bot metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+    }
+
+    // effect: registers the MBean and starts serving /metrics on the given port, until the process exits
+    static void start(Metrics metrics, int port) throws IOException, JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(metrics),
+                new ObjectName("bot:type=Metrics"));
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // scrapes are rare and cheap, the server's own single thread is plenty
+        server.start();
+    }
+}
@@ -5,69 +5,86 @@ import net.dv8tion.jda.core.entities.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
+// users and roles are kept as snowflakes and only looked up from JDA when they're actually needed, so restoring a
+// PUG from backup doesn't have to resolve every player up front.
+// every method that touches state is synchronized: commands, reminders and BotCore (which also journals under this
+// lock) all see one change to a PUG at a time.
+// rendered views (!info, !list, !players, !watchers) are cached per time zone until the PUG changes.
 class PUG {
-    private LinkedHashSet<User> players;
-    private LinkedHashSet<User> watchers;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("h:mm a z M-d-y");
+    // names and nicknames can change without the PUG changing, so a cached view is only trusted this long
+    private static final long RENDER_TTL_MILLIS = 60_000;
+
+    private enum View { BRIEF, FULL, PLAYERS, WATCHERS }
+
+    private static class Rendered {
+        private final int version;
+        private final long renderedAt;
+        private final String text;
+
+        private Rendered(int version, long renderedAt, String text) {
+            this.version = version;
+            this.renderedAt = renderedAt;
+            this.text = text;
+        }
+    }
+
+    private LongSet players;
+    private LongSet watchers;
     private ZonedDateTime time;
     private String description;
-    private User mod;
+    private long mod;
     private Guild guild;
     private String name;
-    private int minutesWarning;
-    private Role identifier;
-    private ScheduledFuture reminder;
-
-    private static ScheduledExecutorService reminderService = Executors.newScheduledThreadPool(5);
-
-    PUG (ZonedDateTime time, String description, User mod, Guild guild, String name, int minutesWarning, String announcementID, String NO_DM_ID) {
+    private long identifier;
+    private ReminderPlan plan;
+    private int nextReminder; // index of the next stage of plan to send
+    private ReminderWheel.Timeout reminder;
+    private PUGServices services;
+    private MessageDispatcher dispatcher;
+    private RoleSync roles;
+    private MembershipIndex memberships;
+    // bumped by every change that could show up in a rendered view
+    private int version;
+    private EnumMap<View, HashMap<ZoneId, Rendered>> renders = new EnumMap<>(View.class);
+
+    // a new PUG, with its role made but nobody told about it yet - see announce
+    PUG (ZonedDateTime time, String description, User mod, Guild guild, String name, ReminderPlan plan,
+         PUGServices services) {
         this.time = time;
         this.description = description;
-        this.mod = mod;
+        this.mod = mod.getIdLong();
         this.guild = guild;
         this.name = name;
-        this.minutesWarning = minutesWarning;
+        this.plan = plan;
+        this.services = services;
+        this.dispatcher = services.dispatcher;
+        this.roles = services.roles;
+        this.memberships = services.memberships;
 
-        this.players = new LinkedHashSet<>();
-        this.watchers = new LinkedHashSet<>();
+        this.players = new LongSet();
+        this.watchers = new LongSet();
 
-        players.add(mod);
+        // the role comes first: if Discord won't make it, there's no PUG, so nothing may point at it yet
+        Role identifier = guild.getController().createRole().setName("[PUG] " + name).complete();
+        this.identifier = identifier.getIdLong();
 
-        this.identifier = guild.getController().createRole().setName("[PUG] " + name).complete();
-        guild.getController().addSingleRoleToMember(guild.getMember(mod), identifier).queue();
+        players.add(this.mod);
+        roles.add(this.mod, this.identifier);
+        memberships.add(this.mod, this);
 
-        this.createReminder();
-
-        //announce in pug-pings
-        guild.getTextChannelById(announcementID).sendMessage(
-                "Attention @everyone:\n A new PUG, \"" + name + "\", has been created. Use !info " +
-                        name + ", [your time zone (optional if you already registered a time zone)] to get " +
-                        "information and timing in your time zone, and !join " + name + " or !watch " +
-                        name + " to register as a player or watcher."
-        ).queue();
-
-        //DM anyone without dont dm me as a role
-        for (Member member : guild.getMembers()) {
-            if (!member.getRoles().contains(guild.getRoleById(NO_DM_ID)) && !member.getUser().isBot()) {
-                member.getUser().openPrivateChannel().queue((PrivateChannel channel) -> channel.sendMessage(
-                        "A new PUG, \"" + name + "\", has been created. Use !info " + name + ", " +
-                                "[your time zone(optional if you already registered a time zone)] to get " +
-                                "information and timing in your time zone, and !join " + name +
-                                " or !watch " + name + " to register as a player or watcher. You can tun these messages " +
-                                "off by typing !dms off in any channel in Spark's Pugs."
-                ).queue());
-            }
-        }
+        this.skipPastReminders();
+        this.scheduleNextReminder();
     }
 
-    PUG(LinkedHashSet<User> players, LinkedHashSet<User> watchers, ZonedDateTime time, String description, User mod,
-               Guild guild, String name, int minutesWarning, Role identifier) {
+    PUG(LongSet players, LongSet watchers, ZonedDateTime time, String description, long mod,
+               Guild guild, String name, long identifier, ReminderPlan plan, int nextReminder, PUGServices services) {
         this.players = players;
         this.watchers = watchers;
         this.time = time;
@@ -75,115 +92,296 @@ class PUG {
         this.mod = mod;
         this.guild = guild;
         this.name = name;
-        this.minutesWarning = minutesWarning;
         this.identifier = identifier;
-        this.createReminder();
+        this.plan = plan;
+        this.nextReminder = nextReminder;
+        this.services = services;
+        this.dispatcher = services.dispatcher;
+        this.roles = services.roles;
+        this.memberships = services.memberships;
+        for (int i = 0; i < players.size(); i++) {
+            memberships.add(players.get(i), this);
+        }
+        for (int i = 0; i < watchers.size(); i++) {
+            memberships.add(watchers.get(i), this);
+        }
+        this.scheduleNextReminder();
+    }
+
+    /* effect: tells the server about this new PUG in the announcement channel, and DMs everyone subscribed to PUGs at
+     * its time. Only called once the PUG has been added, so nobody hears about one that lost its name to another.
+     */
+    synchronized void announce(String announcementID) {
+        //announce in pug-pings
+        dispatcher.send(MessageDispatcher.Priority.UPDATE, guild.getTextChannelById(announcementID),
+                "Attention @everyone:\n A new PUG, \"" + name + "\", has been created. Use !info " +
+                        name + ", [your time zone (optional if you already registered a time zone)] to get " +
+                        "information and timing in your time zone, and !join " + name + " or !watch " +
+                        name + " to register as a player or watcher."
+        );
+
+        //DM everyone subscribed to announcements of PUGs at this time
+        String announcement = "A new PUG, \"" + name + "\", has been created. Use !info " + name + ", " +
+                "[your time zone(optional if you already registered a time zone)] to get " +
+                "information and timing in your time zone, and !join " + name +
+                " or !watch " + name + " to register as a player or watcher. You can tun these messages " +
+                "off by typing !dms off in any channel in Spark's Pugs, or only get them for PUGs at times that " +
+                "suit you with !dms on, 6pm-11pm.";
+        MessageDispatcher.Batch batch = dispatcher.batch("announcing PUG " + name);
+        for (long id : services.subscribers.recipients(time)) {
+            Member member = guild.getMemberById(id);
+            if (member != null) {
+                dispatcher.sendDM(MessageDispatcher.Priority.BROADCAST, member.getUser(), announcement, batch);
+            }
+        }
+        batch.close();
     }
 
-    private void createReminder() {
-        ZonedDateTime now = ZonedDateTime.now();
-        long secondsDifference = ChronoUnit.SECONDS.between(now,
-                time.withZoneSameInstant(now.getZone()).minusMinutes(minutesWarning));
+    /* schedules the next stage of the reminder plan that is still worth sending. Stages that came due while the bot
+     * was down still go out if they're within the wheel's grace window; older ones are skipped.
+     * only one stage is ever scheduled at a time - the next is scheduled when it fires.
+     */
+    private synchronized void scheduleNextReminder() {
+        while (nextReminder < plan.stageCount()) {
+            this.reminder = services.reminders.schedule(this.stageDue(nextReminder), this::remind);
+            if (this.reminder != null) return;
+            nextReminder++;
+        }
+    }
 
-        if (secondsDifference > 0) {
-            this.reminder = reminderService.schedule(() -> {
-                informAllOf(players, "The PUG you registered to play in, \"" + name + "\", is beginning in " +
-                        minutesWarning + " minutes.");
-                informAllOf(watchers, "The PUG you registered to watch, \"" + name + "\", is beginning in " +
-                        minutesWarning + " minutes.");
-            }, secondsDifference, TimeUnit.SECONDS);
+    // effect: moves past every stage that is already due, so a new time or plan doesn't set off stale reminders
+    private void skipPastReminders() {
+        long now = System.currentTimeMillis();
+        while (nextReminder < plan.stageCount() && this.stageDue(nextReminder) <= now) {
+            nextReminder++;
         }
     }
 
+    private long stageDue(int stage) {
+        return time.toInstant().minus(Duration.ofMinutes(plan.stageMinutes(stage))).toEpochMilli();
+    }
+
+    private synchronized void remind(ReminderWheel.Timeout firing) {
+        // cancelled after the wheel picked it up, but before we got the lock - and maybe replaced by a new one since
+        if (this.reminder != firing) return;
+        this.reminder = null;
+
+        long minutesLeft = Duration.between(ZonedDateTime.now(), time).toMinutes();
+        String when = minutesLeft > 0 ? "is beginning in " + ReminderPlan.formatMinutes((int) minutesLeft) + "." :
+                "is starting now!";
+
+        if (plan.isWarning(nextReminder)) {
+            if (players.size() < 12) {
+                dispatcher.sendDM(MessageDispatcher.Priority.REMINDER, this.user(mod), "Heads up: your PUG \"" +
+                        name + "\" " + (minutesLeft > 0 ? "starts in " + ReminderPlan.formatMinutes((int) minutesLeft) :
+                        "is starting") + " and only has " + players.size() + " of 12 players.");
+            }
+        } else {
+            informAllOf(players, MessageDispatcher.Priority.REMINDER, "The PUG you registered to play in, \"" +
+                    name + "\", " + when);
+            informAllOf(watchers, MessageDispatcher.Priority.REMINDER, "The PUG you registered to watch, \"" +
+                    name + "\", " + when);
+        }
+
+        nextReminder++;
+        services.onReminded.accept(this);
+        this.scheduleNextReminder();
+    }
+
+    // effect: replaces the reminder plan. Stages of the new plan that are already due are skipped.
+    synchronized void setReminderPlan(ReminderPlan plan) {
+        this.cancelReminder();
+        this.plan = plan;
+        this.nextReminder = 0;
+        this.skipPastReminders();
+        this.scheduleNextReminder();
+    }
+
+    synchronized ReminderPlan getReminderPlan() {
+        return plan;
+    }
+
+    synchronized int getNextReminder() {
+        return nextReminder;
+    }
+
     // effect: registers the given user as a player in this PUG
-    void registerPlayer(User player) {
-        this.watchers.remove(player);
-        this.players.add(player);
-        guild.getController().addSingleRoleToMember(guild.getMember(player), identifier).queue();
+    synchronized void registerPlayer(User player) {
+        this.watchers.remove(player.getIdLong());
+        this.players.add(player.getIdLong());
+        roles.add(player.getIdLong(), identifier);
+        memberships.add(player.getIdLong(), this);
+        this.version++;
         if (this.players.size() == 12) {
-            this.mod.openPrivateChannel().queue((PrivateChannel channel) ->
-                    channel.sendMessage("Your PUG \"" + name + "\" is now full.").queue());
+            dispatcher.sendDM(MessageDispatcher.Priority.UPDATE, this.user(mod),
+                    "Your PUG \"" + name + "\" is now full.");
         }
     }
 
     // effect: register the given user as a watcher of this PUG
-    void registerWatcher(User watcher) {
-        this.players.remove(watcher);
-        this.watchers.add(watcher);
-        guild.getController().addSingleRoleToMember(guild.getMember(watcher), identifier).queue();
+    synchronized void registerWatcher(User watcher) {
+        this.players.remove(watcher.getIdLong());
+        this.watchers.add(watcher.getIdLong());
+        roles.add(watcher.getIdLong(), identifier);
+        memberships.add(watcher.getIdLong(), this);
+        this.version++;
     }
 
     //removes player from this pug entirely, unless they are the mod
-    void removePlayer (User player) {
-        if (player.equals(mod)) {
+    synchronized void removePlayer (User player) {
+        if (player.getIdLong() == mod) {
             throw new IllegalArgumentException();
         }
-        this.players.remove(player);
-        this.watchers.remove(player);
-        guild.getController().removeSingleRoleFromMember(guild.getMember(player), identifier).queue();
+        this.players.remove(player.getIdLong());
+        this.watchers.remove(player.getIdLong());
+        roles.remove(player.getIdLong(), identifier);
+        memberships.remove(player.getIdLong(), this);
+        this.version++;
     }
 
-    void changeMod (User newMod) {
-        guild.getController().removeSingleRoleFromMember(guild.getMember(mod), identifier).queue();
+    synchronized void changeMod (User newMod) {
+        roles.remove(mod, identifier);
         this.players.remove(mod);
-        this.mod = newMod;
+        memberships.remove(mod, this);
+        this.mod = newMod.getIdLong();
         this.players.add(mod);
-        guild.getController().addSingleRoleToMember(guild.getMember(mod), identifier).queue();
+        roles.add(mod, identifier);
+        memberships.add(mod, this);
+        this.version++;
     }
 
     // returns a string that quickly describes this pug, hopefully nicely formatted
     // (for !list)
-    String briefInfo(ZoneId zone) {
-        return this.name + ":\nMod: " + this.mod.getName() + ", Time: " + this.formatTime(zone) +
-                ", Players: " + this.players.size() + ".";
+    synchronized String briefInfo(ZoneId zone) {
+        String cached = this.cached(View.BRIEF, zone);
+        if (cached != null) return cached;
+
+        return this.cache(View.BRIEF, zone, this.name + ":\nMod: " + this.userName(mod) + ", Time: " +
+                this.formatTime(zone) + ", Players: " + this.players.size() + ".");
     }
 
     // returns a string that describes this pug, hopefully nicely formatted
     //  (for !info)
-    String fullInfo(ZoneId zone) {
-        return "Info for " + this.name + ":\n" +
-                "Mod: " + this.mod.getName() + "\n" +
+    synchronized String fullInfo(ZoneId zone) {
+        String cached = this.cached(View.FULL, zone);
+        if (cached != null) return cached;
+
+        return this.cache(View.FULL, zone, "Info for " + this.name + ":\n" +
+                "Mod: " + this.userName(mod) + "\n" +
                 "Time: " + this.formatTime(zone) + "\n" +
                 "Players: " + this.players.size() + " of 12\n" +
                 "Watchers: " + this.watchers.size() + "\n" +
-                "Description:\n" + this.description;
+                "Description:\n" + this.description);
     }
 
     private String formatTime(ZoneId zone) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("h:mm a z M-d-y");
-        ZonedDateTime zonedTime = time.withZoneSameInstant(zone);
-        return formatter.format(zonedTime);
+        return TIME_FORMAT.format(time.withZoneSameInstant(zone));
+    }
+
+    synchronized String playerList() {
+        String cached = this.cached(View.PLAYERS, null);
+        if (cached != null) return cached;
+        return this.cache(View.PLAYERS, null, this.memberList("Here is everyone playing in this PUG:", players));
+    }
+
+    synchronized String watcherList() {
+        String cached = this.cached(View.WATCHERS, null);
+        if (cached != null) return cached;
+        return this.cache(View.WATCHERS, null, this.memberList("Here is everyone watching this PUG:", watchers));
+    }
+
+    private String memberList(String heading, LongSet users) {
+        StringBuilder out = new StringBuilder(heading.length() + users.size() * 24).append(heading);
+        for (int i = 0; i < users.size(); i++) {
+            Member member = guild.getMemberById(users.get(i));
+            out.append("\n - ").append(member != null ? member.getEffectiveName() : "(left the server)");
+        }
+        return out.toString();
     }
 
-    String playerList() {
-        String out = "Here is everyone playing in this PUG:";
-        for (User u : players) {
-            out += "\n - " + guild.getMember(u).getEffectiveName();
+    // returns the cached text of the view in the given zone, or null if it has to be rendered again
+    private String cached(View view, ZoneId zone) {
+        HashMap<ZoneId, Rendered> byZone = renders.get(view);
+        Rendered rendered = byZone == null ? null : byZone.get(zone);
+        if (rendered == null || rendered.version != version ||
+                System.currentTimeMillis() - rendered.renderedAt > RENDER_TTL_MILLIS) {
+            return null;
         }
-        return out;
+        return rendered.text;
+    }
+
+    private String cache(View view, ZoneId zone, String text) {
+        renders.computeIfAbsent(view, v -> new HashMap<>()).put(zone,
+                new Rendered(version, System.currentTimeMillis(), text));
+        return text;
+    }
+
+    private String userName(long id) {
+        User user = this.user(id);
+        return user != null ? user.getName() : "(unknown)";
+    }
+
+    String getName() {
+        return name;
+    }
+
+    synchronized ZonedDateTime getTime() {
+        return time;
+    }
+
+    synchronized long getMod() {
+        return mod;
+    }
+
+    synchronized int playerCount() {
+        return players.size();
+    }
+
+    synchronized boolean isPlayer(long user) {
+        return players.contains(user);
+    }
+
+    // the players, in the order they signed up
+    synchronized long[] getPlayers() {
+        return players.toArray();
     }
 
-    String watcherList() {
-        String out = "Here is everyone watching this PUG:";
-        for (User u : watchers) {
-            out += "\n - " + guild.getMember(u).getEffectiveName();
+    // returns this PUG as it should be archived once it's deleted. noShows are left out unless they were players.
+    synchronized HistoryArchive.Entry toHistory(boolean cancelled, Collection<Long> noShows) {
+        LongSet absent = new LongSet();
+        for (long u : noShows) {
+            if (players.contains(u)) {
+                absent.add(u);
+            }
         }
-        return out;
+        return new HistoryArchive.Entry(name, time.toInstant().toEpochMilli(), System.currentTimeMillis(), cancelled,
+                mod, players.toArray(), watchers.toArray(), absent.toArray());
     }
 
     // performs any necessary operations before removing this PUG
-    void close() {
-        this.identifier.delete().queue();
+    synchronized void close() {
+        this.forgetMembers();
+        this.cancelReminder();
+        this.identifier().delete().queue();
     }
 
-    //inform watchers and players of this pug's cancellation
-    void cancel() {
-        this.informAllOf(players, "Unfortunately, the PUG you registered to play in, \"" + name + "\", " +
-                "has been cancelled.");
-        this.informAllOf(watchers, "Unfortunately, the PUG you have been watching, \"" + name + "\", has " +
-                "been cancelled.");
+    // effect: stops this PUG's reminders and takes it out of the membership index, leaving its role alone. For when
+    // the server's state is being thrown away, to be loaded again from its backup.
+    synchronized void unload() {
+        this.forgetMembers();
+        this.cancelReminder();
+    }
 
-        this.identifier.delete().queue();
+    //inform watchers and players of this pug's cancellation
+    synchronized void cancel() {
+        this.informAllOf(players, MessageDispatcher.Priority.UPDATE, "Unfortunately, the PUG you registered to " +
+                "play in, \"" + name + "\", has been cancelled.");
+        this.informAllOf(watchers, MessageDispatcher.Priority.UPDATE, "Unfortunately, the PUG you have been " +
+                "watching, \"" + name + "\", has been cancelled.");
+
+        this.forgetMembers();
+        this.cancelReminder();
+        this.identifier().delete().queue();
     }
 
     /* changes this pug's time, and informs all players and watchers of the change
@@ -191,45 +389,76 @@ class PUG {
      *   - remind them they can "join" "watch" or "leave" the PUG via DMs
      * - via the designated [PUG]--pug name-- role
      */
-    void reschedule(ZonedDateTime newTime) {
+    synchronized void reschedule(ZonedDateTime newTime) {
         this.time = newTime;
-        if (this.reminder != null) {
-            this.reminder.cancel(false);
-        }
-        this.createReminder();
-
-        this.informAllOf(players, "The PUG you are playing in, \"" + name + "\" has been rescheduled.\n" +
+        this.version++;
+        this.cancelReminder();
+        this.nextReminder = 0;
+        this.skipPastReminders();
+        this.scheduleNextReminder();
+
+        this.informAllOf(players, MessageDispatcher.Priority.UPDATE, "The PUG you are playing in, \"" + name +
+                "\" has been rescheduled.\n" +
                 "Use !info " + name + " [your time zone (optional if you already registered a time zone)] to see " +
                 "the new time in your time zone, and !watch " + name + " or !leave " + name +
                 " to update your status if this time no longer works for you.");
 
-        this.informAllOf(watchers, "The PUG you are watching, \"" + name + "\" has been rescheduled.\n" +
+        this.informAllOf(watchers, MessageDispatcher.Priority.UPDATE, "The PUG you are watching, \"" + name +
+                "\" has been rescheduled.\n" +
                 "Use !info " + name + " [your time zone (optional if you already registered a time zone)] to see the " +
                 "new time in your time zone, and !join " + name + " or !leave " + name +
                 " to update your status if this new time changes your availability.");
     }
 
-    private void informAllOf(LinkedHashSet<User> users, String notification) {
-        for (User u : users) {
-            u.openPrivateChannel().queue((PrivateChannel channel) -> channel.sendMessage(notification).queue());
+    private void informAllOf(LongSet users, MessageDispatcher.Priority priority, String notification) {
+        for (int i = 0; i < users.size(); i++) {
+            User u = this.user(users.get(i));
+            if (u != null) {
+                dispatcher.sendDM(priority, u, notification);
+            }
         }
     }
 
-    SerializablePUG toSerializableForm() {
+    private void forgetMembers() {
+        for (int i = 0; i < players.size(); i++) {
+            memberships.remove(players.get(i), this);
+        }
+        for (int i = 0; i < watchers.size(); i++) {
+            memberships.remove(watchers.get(i), this);
+        }
+    }
+
+    private void cancelReminder() {
+        if (this.reminder != null) {
+            this.reminder.cancel();
+            this.reminder = null;
+        }
+    }
+
+    private User user(long id) {
+        return guild.getJDA().getUserById(id);
+    }
+
+    private Role identifier() {
+        return guild.getRoleById(identifier);
+    }
+
+    synchronized SerializablePUG toSerializableForm() {
         LinkedHashSet<String> players = new LinkedHashSet<>();
-        for (User u: this.players) {
-            players.add(u.getId());
+        for (int i = 0; i < this.players.size(); i++) {
+            players.add(Long.toString(this.players.get(i)));
         }
 
         LinkedHashSet<String> watchers = new LinkedHashSet<>();
-        for (User u : this.watchers) {
-            watchers.add(u.getId());
+        for (int i = 0; i < this.watchers.size(); i++) {
+            watchers.add(Long.toString(this.watchers.get(i)));
         }
 
-        String modID = mod.getId();
+        String modID = Long.toString(mod);
         String guildID = guild.getId();
-        String identifierID = identifier.getId();
+        String identifierID = Long.toString(identifier);
 
-        return new SerializablePUG(players, watchers, time, description, modID, guildID, name, minutesWarning, identifierID);
+        return new SerializablePUG(players, watchers, time, description, modID, guildID, name, identifierID, plan,
+                nextReminder);
     }
 }
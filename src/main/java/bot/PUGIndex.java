@@ -0,0 +1,87 @@
+package bot;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/* one server's PUGs, sorted by start time (ties broken by name), overall and per mod.
+ * lets !list walk PUGs in order, or jump straight to a time range or to one mod's PUGs, without sorting or scanning
+ * every PUG on each call.
+ * a PUG's entry has to be refreshed with put whenever its time or mod changes.
+ */
+class PUGIndex {
+    private static class Key implements Comparable<Key> {
+        private final long start;
+        private final String name;
+        private final long mod;
+
+        private Key(long start, String name, long mod) {
+            this.start = start;
+            this.name = name;
+            this.mod = mod;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byStart = Long.compare(start, other.start);
+            return byStart != 0 ? byStart : name.compareTo(other.name);
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key, PUG> byTime = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, ConcurrentSkipListMap<Key, PUG>> byMod = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Key> keys = new ConcurrentHashMap<>();
+
+    // effect: adds the PUG, or moves it to match its current time and mod
+    void put(PUG pug) {
+        synchronized (pug) {
+            Key key = new Key(pug.getTime().toInstant().toEpochMilli(), pug.getName(), pug.getMod());
+            Key old = keys.put(pug.getName(), key);
+            if (old != null) {
+                if (old.start == key.start && old.mod == key.mod) return;
+                this.unlink(old);
+            }
+            byTime.put(key, pug);
+            byMod.computeIfAbsent(key.mod, mod -> new ConcurrentSkipListMap<>()).put(key, pug);
+        }
+    }
+
+    void remove(PUG pug) {
+        synchronized (pug) {
+            Key key = keys.remove(pug.getName());
+            if (key != null) {
+                this.unlink(key);
+            }
+        }
+    }
+
+    // every PUG, earliest first
+    Collection<PUG> inOrder() {
+        return byTime.values();
+    }
+
+    // PUGs starting at or after from and before to, as epoch milliseconds, earliest first
+    Collection<PUG> between(long from, long to) {
+        return byTime.subMap(new Key(from, "", 0), new Key(to, "", 0)).values();
+    }
+
+    // the mod's PUGs, earliest first
+    Collection<PUG> moddedBy(long mod) {
+        Map<Key, PUG> pugs = byMod.get(mod);
+        return pugs == null ? Collections.emptyList() : pugs.values();
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    private void unlink(Key key) {
+        byTime.remove(key);
+        ConcurrentSkipListMap<Key, PUG> modded = byMod.get(key.mod);
+        if (modded != null) {
+            modded.remove(key);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package bot;
+
+import java.util.function.Consumer;
+
+// the parts of the bot a PUG uses but doesn't own, bundled so PUG's constructors don't grow a parameter for each one
+class PUGServices {
+    final MessageDispatcher dispatcher;
+    final ReminderWheel reminders;
+    final RoleSync roles;
+    final MembershipIndex memberships;
+    final SubscriptionIndex subscribers;
+    // called with the PUG's lock held each time a reminder stage goes out, so its progress can be persisted
+    final Consumer<PUG> onReminded;
+
+    PUGServices(MessageDispatcher dispatcher, ReminderWheel reminders, RoleSync roles, MembershipIndex memberships,
+                SubscriptionIndex subscribers, Consumer<PUG> onReminded) {
+        this.dispatcher = dispatcher;
+        this.reminders = reminders;
+        this.roles = roles;
+        this.memberships = memberships;
+        this.subscribers = subscribers;
+        this.onReminded = onReminded;
+    }
+}
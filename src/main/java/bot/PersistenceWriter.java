@@ -0,0 +1,213 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/* writes journal entries on its own thread, so commands never wait on the disk.
+ * entries that arrive within commitWindow of each other are written together and synced once (group commit), which
+ * keeps a burst of !joins after an announcement down to a handful of fsyncs.
+ * closed and cancelled PUGs are archived here too, once the batch that deletes them is on disk - so a PUG shows up in
+ * !history a commit window after it's deleted, not the moment it is.
+ */
+class PersistenceWriter {
+    private final Journal journal;
+    private final HistoryArchive history;
+    private final long commitWindowMillis;
+    private final Metrics metrics;
+    private final LinkedBlockingQueue<Pending> queue;
+    private final Thread thread;
+    // guarded by this, so nothing can be queued behind STOP and never written
+    private boolean running;
+
+    // a queued entry, a PUG to archive, or a flush barrier if both are null
+    private static class Pending {
+        private final JournalEntry entry;
+        private final HistoryArchive.Entry archived;
+        private final CompletableFuture<Void> done;
+
+        private Pending(JournalEntry entry, HistoryArchive.Entry archived, CompletableFuture<Void> done) {
+            this.entry = entry;
+            this.archived = archived;
+            this.done = done;
+        }
+    }
+
+    private static final Pending STOP = new Pending(null, null, null);
+    // a failed commit is retried after RETRY_DELAY_MILLIS, doubling with each failure in a row up to the max
+    private static final long RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+    // once shutdown has been asked for, changes that have failed to commit this many times in a row are given up on
+    private static final int ATTEMPTS_WHEN_STOPPING = 3;
+
+    PersistenceWriter(Journal journal, HistoryArchive history, long commitWindowMillis, Metrics metrics) {
+        this.journal = journal;
+        this.history = history;
+        this.commitWindowMillis = commitWindowMillis;
+        this.metrics = metrics;
+        this.queue = new LinkedBlockingQueue<>();
+        this.running = true;
+
+        this.thread = new Thread(this::run, "persistence-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // queues the entry for the next group commit and returns immediately
+    void submit(JournalEntry entry) {
+        this.enqueue(new Pending(entry, null, null));
+    }
+
+    // queues the PUG to be archived once everything submitted before it is on disk, and returns immediately
+    void archive(HistoryArchive.Entry archived) {
+        this.enqueue(new Pending(null, archived, null));
+    }
+
+    /* returns a future that completes once everything submitted before this call is on disk. After shutdown,
+     * everything submitted is already on disk or given up on, so the future fails straight away.
+     */
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this) {
+            if (running) {
+                queue.add(new Pending(null, null, done));
+                return done;
+            }
+        }
+        done.completeExceptionally(new IllegalStateException("Persistence writer has been shut down."));
+        return done;
+    }
+
+    // effect: writes out everything still queued, then stops the writer thread
+    void shutdown() throws InterruptedException {
+        synchronized (this) {
+            if (running) {
+                running = false;
+                queue.add(STOP);
+            }
+        }
+        thread.join();
+    }
+
+    private synchronized void enqueue(Pending pending) {
+        if (!running) {
+            throw new IllegalStateException("Persistence writer has been shut down.");
+        }
+        queue.add(pending);
+    }
+
+    private void run() {
+        // entries that failed to commit stay in here, in order, and go out ahead of anything newer
+        ArrayList<Pending> batch = new ArrayList<>();
+        boolean stopping = false;
+        int failures = 0;
+
+        while (true) {
+            try {
+                if (batch.isEmpty() && !stopping) {
+                    batch.add(queue.take());
+                }
+                // give the rest of a burst a moment to arrive, so it shares one sync - or, after a failure, give the
+                // disk a moment to recover
+                Thread.sleep(failures == 0 ? commitWindowMillis :
+                        Math.min(RETRY_DELAY_MILLIS << Math.min(failures - 1, 16), MAX_RETRY_DELAY_MILLIS));
+            } catch (InterruptedException e) {
+                // only happens if someone interrupts us directly - treat it like a shutdown request
+                stopping = true;
+            }
+            queue.drainTo(batch);
+            stopping |= batch.remove(STOP);
+
+            if (this.commit(batch)) {
+                batch.clear();
+                failures = 0;
+            } else {
+                failures++;
+            }
+
+            if (stopping && (batch.isEmpty() || failures >= ATTEMPTS_WHEN_STOPPING)) break;
+        }
+
+        if (!batch.isEmpty()) {
+            System.out.println("WARNING: Gave up saving " + batch.size() + " changes while shutting down, they'll " +
+                    "be lost when the bot restarts!");
+        }
+        try {
+            journal.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* writes the batch and syncs it, then archives its PUGs and compacts if needed. Returns false if it couldn't be
+     * synced, in which case the journal has dropped the whole batch and its entries should be committed again.
+     * flush barriers are completed either way, and taken out of the batch. PUGs that can't be archived aren't retried,
+     * since the journal entries that went with them are already on disk.
+     */
+    private boolean commit(ArrayList<Pending> batch) {
+        Exception failure = null;
+
+        long start = System.nanoTime();
+        int entries = 0;
+        long bytes = 0;
+        try {
+            for (Pending pending : batch) {
+                if (pending.entry != null) {
+                    bytes += journal.write(pending.entry);
+                    entries++;
+                }
+            }
+            journal.sync();
+            if (entries > 0) {
+                metrics.committed(System.nanoTime() - start, entries, bytes);
+            }
+        } catch (Exception e) {
+            failure = e;
+            e.printStackTrace();
+            System.out.println("WARNING: Could not back up bot, retrying! Data may not be saved if bot gets " +
+                    "restarted!");
+        }
+
+        if (failure == null) {
+            this.archiveBatch(batch);
+        }
+
+        for (Pending pending : batch) {
+            if (pending.done != null) {
+                if (failure == null) {
+                    pending.done.complete(null);
+                } else {
+                    pending.done.completeExceptionally(failure);
+                }
+            }
+        }
+        batch.removeIf(pending -> pending.entry == null && pending.archived == null);
+        if (failure != null) return false;
+
+        try {
+            journal.compactIfNeeded();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not compact backup! Restarts will be slower until it succeeds.");
+        }
+        return true;
+    }
+
+    // effect: archives the batch's PUGs, all in one sync
+    private void archiveBatch(ArrayList<Pending> batch) {
+        ArrayList<HistoryArchive.Entry> archived = new ArrayList<>();
+        for (Pending pending : batch) {
+            if (pending.archived != null) {
+                archived.add(pending.archived);
+            }
+        }
+        if (archived.isEmpty()) return;
+        try {
+            history.append(archived);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not archive " + archived.size() + " PUGs, they won't show up in " +
+                    "!history.");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.PrivateChannel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// remembers DM channels we've already opened, so repeat notifications to the same user skip the openPrivateChannel
+// round trip. Least recently used channels are evicted once the cache is full.
+class PrivateChannelCache {
+    private final LinkedHashMap<Long, PrivateChannel> channels;
+
+    PrivateChannelCache(int capacity) {
+        this.channels = new LinkedHashMap<Long, PrivateChannel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PrivateChannel> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized PrivateChannel get(long userID) {
+        return channels.get(userID);
+    }
+
+    synchronized void put(long userID, PrivateChannel channel) {
+        channels.put(userID, channel);
+    }
+
+    // effect: forgets the channel for this user. Called when sending to it fails, since it may no longer be valid.
+    synchronized void invalidate(long userID) {
+        channels.remove(userID);
+    }
+
+    synchronized int size() {
+        return channels.size();
+    }
+}
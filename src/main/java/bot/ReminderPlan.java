@@ -0,0 +1,177 @@
+package bot;
+
+import java.util.Arrays;
+
+/* the reminders a PUG sends, as a ladder of stages counted back from its start time.
+ * - a regular stage DMs every player and watcher
+ * - the optional short-handed warning DMs only the mod, and only if the PUG has fewer than 12 players by then
+ * a PUG walks through its stages in order and only ever has the next one scheduled, so a longer ladder doesn't mean
+ * more pending timers.
+ */
+class ReminderPlan {
+    static final int NO_WARNING = -1;
+    static final ReminderPlan DEFAULT = new ReminderPlan(new int[] {60, 5}, 60);
+    // a year, which also keeps a long run of digits from overflowing
+    static final int MAX_MINUTES = 365 * 1440;
+
+    private final int[] reminderMinutes;
+    private final int warningMinutes;
+
+    // every stage, reminders and warning merged, latest-first (largest minutes before start first)
+    private final int[] stageMinutes;
+    private final boolean[] stageIsWarning;
+
+    ReminderPlan(int[] reminderMinutes, int warningMinutes) {
+        this.reminderMinutes = reminderMinutes.clone();
+        Arrays.sort(this.reminderMinutes);
+        reverse(this.reminderMinutes);
+        this.warningMinutes = warningMinutes;
+
+        int stages = this.reminderMinutes.length + (warningMinutes == NO_WARNING ? 0 : 1);
+        this.stageMinutes = new int[stages];
+        this.stageIsWarning = new boolean[stages];
+
+        int stage = 0;
+        boolean warningPlaced = (warningMinutes == NO_WARNING);
+        for (int minutes : this.reminderMinutes) {
+            // the warning goes before a reminder at the same time, so the mod hears about it first
+            if (!warningPlaced && warningMinutes >= minutes) {
+                stageMinutes[stage] = warningMinutes;
+                stageIsWarning[stage++] = true;
+                warningPlaced = true;
+            }
+            stageMinutes[stage++] = minutes;
+        }
+        if (!warningPlaced) {
+            stageMinutes[stage] = warningMinutes;
+            stageIsWarning[stage] = true;
+        }
+    }
+
+    // the plan old PUGs had: a single reminder some minutes before the start, and no warning
+    static ReminderPlan single(int minutesWarning) {
+        return new ReminderPlan(new int[] {minutesWarning}, NO_WARNING);
+    }
+
+    /* parses a ladder like "24h 1h 5m start" or "none", and a warning time like "1h" or "none"
+     * times are a number followed by d, h or m, and can be combined ("1h30m"). "start" means the moment the PUG
+     * begins.
+     */
+    static ReminderPlan parse(String ladder, String warning) throws IllegalCommandArgumentException {
+        ladder = ladder.trim();
+        if (ladder.isEmpty()) {
+            throw new IllegalCommandArgumentException("Give at least one reminder time, like 1h 5m, or none for no " +
+                    "reminders.");
+        }
+        String[] parts = ladder.equalsIgnoreCase("none") ? new String[0] : ladder.split("\\s+");
+        int[] minutes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            minutes[i] = parseMinutes(parts[i]);
+            for (int j = 0; j < i; j++) {
+                if (minutes[j] == minutes[i]) {
+                    throw new IllegalCommandArgumentException("There are two reminders at " +
+                            formatMinutes(minutes[i]) + " - each time should only be given once.");
+                }
+            }
+        }
+
+        int warningMinutes = NO_WARNING;
+        if (warning != null && !warning.equalsIgnoreCase("none")) {
+            warningMinutes = parseMinutes(warning.trim());
+        }
+        return new ReminderPlan(minutes, warningMinutes);
+    }
+
+    private static int parseMinutes(String time) throws IllegalCommandArgumentException {
+        if (time.equalsIgnoreCase("start")) return 0;
+        if (time.isEmpty()) {
+            throw new IllegalCommandArgumentException("A reminder time is missing - use something like 24h, 1h30m, " +
+                    "5m or start.");
+        }
+
+        int total = 0;
+        int number = -1;
+        for (int i = 0; i < time.length(); i++) {
+            char c = Character.toLowerCase(time.charAt(i));
+            if (c >= '0' && c <= '9') {
+                number = (number == -1 ? 0 : number * 10) + (c - '0');
+                if (number > MAX_MINUTES) throw tooFar(time);
+            } else if (number != -1 && (c == 'd' || c == 'h' || c == 'm')) {
+                total += number * (c == 'd' ? 1440 : c == 'h' ? 60 : 1);
+                if (total > MAX_MINUTES) throw tooFar(time);
+                number = -1;
+            } else {
+                throw new IllegalCommandArgumentException("I couldn't understand the reminder time \"" + time +
+                        "\" - use something like 24h, 1h30m, 5m or start.");
+            }
+        }
+        if (number != -1) {
+            throw new IllegalCommandArgumentException("The reminder time \"" + time + "\" needs a unit - d, h or m.");
+        }
+        return total;
+    }
+
+    private static IllegalCommandArgumentException tooFar(String time) {
+        return new IllegalCommandArgumentException("The reminder time \"" + time + "\" is too far ahead - it can " +
+                "be at most " + formatMinutes(MAX_MINUTES) + " before the start.");
+    }
+
+    int stageCount() {
+        return stageMinutes.length;
+    }
+
+    int stageMinutes(int stage) {
+        return stageMinutes[stage];
+    }
+
+    boolean isWarning(int stage) {
+        return stageIsWarning[stage];
+    }
+
+    int[] getReminderMinutes() {
+        return reminderMinutes.clone();
+    }
+
+    int getWarningMinutes() {
+        return warningMinutes;
+    }
+
+    // the closest-to-start reminder that isn't at the start itself, which is what old PUGs called minutesWarning
+    int legacyMinutesWarning() {
+        for (int i = reminderMinutes.length - 1; i >= 0; i--) {
+            if (reminderMinutes[i] > 0) return reminderMinutes[i];
+        }
+        return 0;
+    }
+
+    String describe() {
+        StringBuilder out = new StringBuilder("Reminders: ");
+        if (reminderMinutes.length == 0) {
+            out.append("none");
+        }
+        for (int i = 0; i < reminderMinutes.length; i++) {
+            if (i > 0) out.append(", ");
+            out.append(formatMinutes(reminderMinutes[i]));
+        }
+        out.append("\nShort-handed warning to the mod: ");
+        out.append(warningMinutes == NO_WARNING ? "none" : formatMinutes(warningMinutes));
+        return out.toString();
+    }
+
+    static String formatMinutes(int minutes) {
+        if (minutes == 0) return "start";
+        StringBuilder out = new StringBuilder();
+        if (minutes >= 1440) out.append(minutes / 1440).append('d');
+        if (minutes % 1440 >= 60) out.append(minutes % 1440 / 60).append('h');
+        if (minutes % 60 > 0) out.append(minutes % 60).append('m');
+        return out.toString();
+    }
+
+    private static void reverse(int[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+}
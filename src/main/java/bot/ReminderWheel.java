@@ -0,0 +1,171 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/* hashed timing wheel for PUG reminders - one driver thread, O(1) schedule and cancel no matter how many reminders
+ * are pending.
+ * the wheel is an array of buckets, each a doubly linked list of timeouts. Every tick the driver advances one bucket
+ * and fires whatever in it is due; a timeout further away than one trip around the wheel waits out the extra
+ * rounds in its bucket.
+ * deadlines that have already passed fire on the next tick, as long as they're no more than graceMillis late. Older
+ * ones are dropped - that's what happens to reminders that were missed a long time ago while the bot was down.
+ * tasks run on the driver thread after their timeout has left the wheel, so a cancel() that lands in between can't
+ * stop them. Each task is handed the timeout that fired it, so its owner can tell whether that's still the one it
+ * wants.
+ */
+class ReminderWheel {
+    class Timeout {
+        private final Consumer<Timeout> task;
+        private final long deadline;
+        private long rounds;
+        private int bucket;
+        private Timeout previous;
+        private Timeout next;
+        private boolean pending;
+
+        private Timeout(Consumer<Timeout> task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // effect: stops the task from running, if it hasn't already
+        void cancel() {
+            ReminderWheel.this.cancel(this);
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final long graceMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long start;
+
+    private long tick; // the next tick to be processed, counted from start
+    private int pending;
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    ReminderWheel(long tickMillis, int wheelSize, long graceMillis) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two.");
+        }
+        this.tickMillis = tickMillis;
+        this.graceMillis = graceMillis;
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.start = System.currentTimeMillis();
+
+        Thread driver = new Thread(this::run, "reminder-wheel");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    // schedules the task to run at the given epoch millisecond. Returns null, and never runs the task, if the
+    // deadline is already more than the grace window in the past.
+    synchronized Timeout schedule(long deadline, Consumer<Timeout> task) {
+        if (deadline < System.currentTimeMillis() - graceMillis) {
+            return null;
+        }
+
+        Timeout timeout = new Timeout(task, deadline);
+        long target = Math.max((deadline - start + tickMillis - 1) / tickMillis, tick);
+        timeout.rounds = (target - tick) / buckets.length;
+        timeout.bucket = (int) (target & mask);
+
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        timeout.pending = true;
+        pending++;
+
+        return timeout;
+    }
+
+    synchronized int pending() {
+        return pending;
+    }
+
+    // how late, in milliseconds, the most recently fired task was compared to its deadline
+    long lastLagMillis() {
+        return lastLagMillis;
+    }
+
+    long maxLagMillis() {
+        return maxLagMillis;
+    }
+
+    private synchronized void cancel(Timeout timeout) {
+        if (timeout.pending) {
+            this.unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.pending = false;
+        pending--;
+    }
+
+    private void run() {
+        ArrayList<Timeout> due = new ArrayList<>();
+        while (true) {
+            long tickTime;
+            synchronized (this) {
+                tickTime = start + tick * tickMillis;
+            }
+            long wait = tickTime - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        this.unlink(timeout);
+                        due.add(timeout);
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+
+            // run tasks outside the lock, so they can schedule follow-ups
+            for (Timeout timeout : due) {
+                long lag = Math.max(0, System.currentTimeMillis() - timeout.deadline);
+                lastLagMillis = lag;
+                maxLagMillis = Math.max(maxLagMillis, lag);
+                try {
+                    timeout.task.accept(timeout);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            due.clear();
+        }
+    }
+}
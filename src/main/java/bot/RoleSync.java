@@ -0,0 +1,149 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/* applies one server's role changes in batches, instead of making a REST call for every single change.
+ * - changes are kept as the state each (member, role) pair should end up in, so a later change to the same pair
+ *   replaces an earlier one - a !join, !watch, !leave in quick succession adds up to nothing at all
+ * - after a short window, whatever a member has left goes out as one modify-member call
+ * - roles the member already has (or already doesn't) are left out, and if nothing is left, no call is made
+ * a member's next batch waits for their previous call to finish, so it never races the one before it.
+ */
+class RoleSync {
+    private final Supplier<Guild> guild;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+
+    // for each member with changes waiting, the roles they should have (true) or not have (false)
+    private final HashMap<Long, HashMap<Long, Boolean>> pending = new HashMap<>();
+    private final HashSet<Long> inFlight = new HashSet<>();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    RoleSync(Supplier<Guild> guild, ScheduledExecutorService scheduler, long windowMillis) {
+        this.guild = guild;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+    }
+
+    // effect: makes sure the member will have the role
+    void add(long member, long role) {
+        this.submit(member, role, true);
+    }
+
+    // effect: makes sure the member won't have the role
+    void remove(long member, long role) {
+        this.submit(member, role, false);
+    }
+
+    String progress() {
+        synchronized (this) {
+            return "waiting: " + pending.size() + ", requested: " + requested.get() + ", calls made: " + sent.get() +
+                    ", skipped: " + skipped.get() + ", failed: " + failed.get();
+        }
+    }
+
+    // members with changes waiting for their window or for their call to finish
+    synchronized int outstanding() {
+        HashSet<Long> members = new HashSet<>(inFlight);
+        members.addAll(pending.keySet());
+        return members.size();
+    }
+
+    private void submit(long member, long role, boolean has) {
+        requested.incrementAndGet();
+        synchronized (this) {
+            HashMap<Long, Boolean> roles = pending.get(member);
+            if (roles == null) {
+                roles = new HashMap<>();
+                pending.put(member, roles);
+                // the first change for a member starts the window; later ones just join it
+                if (!inFlight.contains(member)) {
+                    this.schedule(member);
+                }
+            }
+            roles.put(role, has);
+        }
+    }
+
+    private void schedule(long member) {
+        scheduler.schedule(() -> this.flush(member), windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(long member) {
+        HashMap<Long, Boolean> roles;
+        synchronized (this) {
+            roles = pending.remove(member);
+            if (roles == null) return;
+            inFlight.add(member);
+        }
+
+        try {
+            Guild server = guild.get();
+            // left the server, or the server's gone - either way there's nothing to change
+            Member target = server == null ? null : server.getMemberById(member);
+            if (target == null) {
+                this.finished(member);
+                return;
+            }
+
+            List<Role> current = target.getRoles();
+            List<Role> add = new ArrayList<>();
+            List<Role> remove = new ArrayList<>();
+            for (Map.Entry<Long, Boolean> change : roles.entrySet()) {
+                Role role = server.getRoleById(change.getKey());
+                // deleted since, like the role of a PUG that was closed
+                if (role == null) continue;
+
+                if (change.getValue() && !current.contains(role)) {
+                    add.add(role);
+                } else if (!change.getValue() && current.contains(role)) {
+                    remove.add(role);
+                }
+            }
+
+            if (add.isEmpty() && remove.isEmpty()) {
+                skipped.incrementAndGet();
+                this.finished(member);
+                return;
+            }
+
+            sent.incrementAndGet();
+            server.getController().modifyMemberRoles(target, add, remove).queue(
+                    success -> this.finished(member),
+                    failure -> {
+                        failed.incrementAndGet();
+                        this.finished(member);
+                    });
+        } catch (Exception e) {
+            e.printStackTrace();
+            failed.incrementAndGet();
+            this.finished(member);
+        }
+    }
+
+    // effect: lets the member's next batch go, if changes came in while this one was being applied
+    private void finished(long member) {
+        synchronized (this) {
+            inFlight.remove(member);
+            if (pending.containsKey(member)) {
+                this.schedule(member);
+            }
+        }
+    }
+}
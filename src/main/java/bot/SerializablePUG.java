@@ -2,14 +2,15 @@ package bot;
 
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.Role;
-import net.dv8tion.jda.core.entities.User;
 
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.util.LinkedHashSet;
 
 class SerializablePUG implements Serializable {
+    // pinned to the value of the original class so backups written before the journal existed still load
+    private static final long serialVersionUID = -4063900200267834274L;
+
     private LinkedHashSet<String> players;
     private LinkedHashSet<String> watchers;
     private ZonedDateTime time;
@@ -17,11 +18,16 @@ class SerializablePUG implements Serializable {
     private String mod;
     private String guild;
     private String name;
+    // only read from old Java-serialized backups, which predate reminder plans - see readResolve
     private int minutesWarning;
     private String identifier;
+    // transient because Java-serialized backups are only ever read now, and were all written before these existed
+    private transient ReminderPlan plan;
+    private transient int nextReminder;
 
     SerializablePUG(LinkedHashSet<String> players, LinkedHashSet<String> watchers, ZonedDateTime time,
-                    String description, String mod, String guild, String name, int minutesWarning, String identifier) {
+                    String description, String mod, String guild, String name, String identifier, ReminderPlan plan,
+                    int nextReminder) {
         this.players = players;
         this.watchers = watchers;
         this.time = time;
@@ -29,25 +35,115 @@ class SerializablePUG implements Serializable {
         this.mod = mod;
         this.guild = guild;
         this.name = name;
-        this.minutesWarning = minutesWarning;
+        this.minutesWarning = plan.legacyMinutesWarning();
         this.identifier = identifier;
+        this.plan = plan;
+        this.nextReminder = nextReminder;
+    }
+
+    // old backups have no plan, just the single reminder they were created with
+    private Object readResolve() {
+        if (this.plan == null) {
+            this.plan = ReminderPlan.single(minutesWarning);
+        }
+        return this;
+    }
+
+    // the following mirror the roster changes PUG makes, so journal entries can be replayed without touching Discord
+    void addPlayer(String player) {
+        this.watchers.remove(player);
+        this.players.add(player);
+    }
+
+    void addWatcher(String watcher) {
+        this.players.remove(watcher);
+        this.watchers.add(watcher);
+    }
+
+    void remove(String user) {
+        this.players.remove(user);
+        this.watchers.remove(user);
+    }
+
+    // PUG skips stages that are already due when it's rescheduled or given a new plan. The REMINDER_STAGE entry
+    // journaled right after these says where it ended up.
+    void reschedule(ZonedDateTime time) {
+        this.time = time;
+        this.nextReminder = 0;
+    }
+
+    void setPlan(ReminderPlan plan) {
+        this.plan = plan;
+        this.nextReminder = 0;
+    }
+
+    void setNextReminder(int nextReminder) {
+        this.nextReminder = nextReminder;
+    }
+
+    void changeMod(String newMod) {
+        this.players.remove(mod);
+        this.mod = newMod;
+        this.players.add(mod);
+    }
+
+    LinkedHashSet<String> getPlayers() {
+        return players;
+    }
+
+    LinkedHashSet<String> getWatchers() {
+        return watchers;
+    }
+
+    ZonedDateTime getTime() {
+        return time;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    String getMod() {
+        return mod;
+    }
+
+    String getGuild() {
+        return guild;
+    }
+
+    int getMinutesWarning() {
+        return plan.legacyMinutesWarning();
+    }
+
+    String getIdentifier() {
+        return identifier;
     }
 
-    PUG toPUG (JDA api) {
-        LinkedHashSet<User> players = new LinkedHashSet<>();
+    ReminderPlan getPlan() {
+        return plan;
+    }
+
+    int getNextReminder() {
+        return nextReminder;
+    }
+
+    PUG toPUG (JDA api, PUGServices services) {
+        LongSet players = new LongSet();
         for (String uid: this.players) {
-            players.add(api.getUserById(uid));
+            players.add(Long.parseLong(uid));
         }
 
-        LinkedHashSet<User> watchers = new LinkedHashSet<>();
+        LongSet watchers = new LongSet();
         for (String uid : this.watchers) {
-            watchers.add(api.getUserById(uid));
+            watchers.add(Long.parseLong(uid));
         }
 
         Guild guild = api.getGuildById(this.guild);
-        User mod = api.getUserById(this.mod);
+        if (guild == null) {
+            throw new IllegalStateException("PUG " + name + " belongs to a guild the bot is no longer in.");
+        }
 
-        Role identifier = guild.getRoleById(this.identifier);
-        return new PUG(players, watchers, time, description, mod, guild, name, minutesWarning, identifier);
+        return new PUG(players, watchers, time, description, Long.parseLong(mod), guild, name,
+                Long.parseLong(identifier), plan, nextReminder, services);
     }
 }
@@ -0,0 +1,75 @@
+package bot;
+
+// how good a player is, for balancing teams: a rating on the competitive scale, and the roles they can play
+class Skill {
+    // role bits - a player's roles are any combination of these
+    static final int TANK = 1;
+    static final int DPS = 2;
+    static final int SUPPORT = 4;
+    static final int ANY = TANK | DPS | SUPPORT;
+
+    static final int MAX_RATING = 5000;
+
+    final int rating;
+    final int roles;
+
+    Skill(int rating, int roles) {
+        this.rating = rating;
+        this.roles = roles;
+    }
+
+    // returns the roles named in text, like "tank support" or "flex" for all of them
+    static int parseRoles(String text) throws IllegalCommandArgumentException {
+        int roles = 0;
+        for (String word : text.trim().toLowerCase().split("[\\s/,]+")) {
+            switch (word) {
+                case "tank":
+                case "tanks":
+                    roles |= TANK;
+                    break;
+                case "dps":
+                case "damage":
+                    roles |= DPS;
+                    break;
+                case "support":
+                case "supports":
+                case "heals":
+                case "healer":
+                    roles |= SUPPORT;
+                    break;
+                case "flex":
+                case "any":
+                    roles |= ANY;
+                    break;
+                default:
+                    throw new IllegalCommandArgumentException("Roles should be tank, dps, support or flex - \"" +
+                            word + "\" isn't one of those.");
+            }
+        }
+        return roles;
+    }
+
+    static String roleName(int role) {
+        switch (role) {
+            case TANK:
+                return "tank";
+            case DPS:
+                return "dps";
+            case SUPPORT:
+                return "support";
+            default:
+                return "flex";
+        }
+    }
+
+    static String describeRoles(int roles) {
+        if (roles == ANY) return "flex";
+        StringBuilder out = new StringBuilder();
+        for (int role = TANK; role <= SUPPORT; role <<= 1) {
+            if ((roles & role) != 0) {
+                out.append(out.length() == 0 ? "" : "/").append(roleName(role));
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,272 @@
+package bot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/* the binary snapshot format. Layout:
+ *   header:     magic, version, journal sequence number
+ *   zones:      count, then every zone ID used anywhere in the file, so PUGs and registrations refer to them by index
+ *   pugs:       count, then one length-prefixed record per PUG
+ *   time zones: count, then (user, zone index) pairs
+ *   skills:     count, then (user, rating, role bits) triples
+ *   DM hours:   count, then (user, hour bits) pairs
+ *   trailer:    crc32 of everything before it
+ * snowflakes are stored as longs and strings as length-prefixed UTF-8. Records are length-prefixed so that a reader
+ * can skip fields added by a newer version it doesn't know about.
+ */
+class SnapshotFormat {
+    private static final int MAGIC = 0x50554753; // "PUGS"
+    // bump this when the layout changes, and teach read() the old layout if those files still need to load
+    private static final int VERSION = 1;
+
+    // what a snapshot file holds: the state, and the last journal sequence number it includes
+    static class Snapshot {
+        final StoredState state;
+        final long sequence;
+
+        private Snapshot(StoredState state, long sequence) {
+            this.state = state;
+            this.sequence = sequence;
+        }
+    }
+
+    private SnapshotFormat() {}
+
+    static void write(File file, StoredState state, long sequence) throws IOException {
+        ArrayList<String> zones = new ArrayList<>();
+        HashMap<String, Integer> zoneIndices = new HashMap<>();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        // the zone dictionary has to come before its users, so write those to a separate buffer first
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(records);
+
+        recordOut.writeInt(state.pugs.size());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        for (Map.Entry<String, SerializablePUG> entry : state.pugs.entrySet()) {
+            record.reset();
+            writePUG(new DataOutputStream(record), entry.getKey(), entry.getValue(), zones, zoneIndices);
+            recordOut.writeInt(record.size());
+            record.writeTo(recordOut);
+        }
+
+        recordOut.writeInt(state.timeZones.size());
+        for (Map.Entry<String, ZoneId> entry : state.timeZones.entrySet()) {
+            recordOut.writeLong(Long.parseLong(entry.getKey()));
+            recordOut.writeInt(intern(entry.getValue().getId(), zones, zoneIndices));
+        }
+
+        recordOut.writeInt(state.skills.size());
+        for (Map.Entry<String, Skill> entry : state.skills.entrySet()) {
+            recordOut.writeLong(Long.parseLong(entry.getKey()));
+            recordOut.writeInt(entry.getValue().rating);
+            recordOut.writeByte(entry.getValue().roles);
+        }
+
+        recordOut.writeInt(state.dmHours.size());
+        for (Map.Entry<String, Integer> entry : state.dmHours.entrySet()) {
+            recordOut.writeLong(Long.parseLong(entry.getKey()));
+            recordOut.writeInt(entry.getValue());
+        }
+        recordOut.close();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sequence);
+        out.writeInt(zones.size());
+        for (String zone : zones) {
+            writeString(out, zone);
+        }
+        records.writeTo(out);
+        out.close();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            body.writeTo(fileOut);
+            new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+            fileOut.getChannel().force(true);
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    static Snapshot read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        if (buffer.limit() < 24 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot file: " + file);
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(buffer.limit() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Snapshot file is corrupt (checksum mismatch): " + file);
+        }
+
+        buffer.position(4);
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Snapshot was written in a format this version of the bot can't read (format "
+                    + version + ")");
+        }
+        long sequence = buffer.getLong();
+
+        ZoneId[] zones = new ZoneId[buffer.getInt()];
+        for (int i = 0; i < zones.length; i++) {
+            zones[i] = ZoneId.of(readString(buffer));
+        }
+
+        StoredState state = new StoredState();
+        int pugCount = buffer.getInt();
+        for (int i = 0; i < pugCount; i++) {
+            int length = buffer.getInt();
+            int end = buffer.position() + length;
+            String name = readString(buffer);
+            state.pugs.put(name, readPUG(buffer, name, zones));
+            buffer.position(end);
+        }
+
+        int zoneCount = buffer.getInt();
+        for (int i = 0; i < zoneCount; i++) {
+            long user = buffer.getLong();
+            state.timeZones.put(Long.toString(user), zones[buffer.getInt()]);
+        }
+
+        int skillCount = buffer.getInt();
+        for (int i = 0; i < skillCount; i++) {
+            long user = buffer.getLong();
+            state.skills.put(Long.toString(user), new Skill(buffer.getInt(), buffer.get() & 0xFF));
+        }
+
+        int hoursCount = buffer.getInt();
+        for (int i = 0; i < hoursCount; i++) {
+            long user = buffer.getLong();
+            state.dmHours.put(Long.toString(user), buffer.getInt());
+        }
+
+        return new Snapshot(state, sequence);
+    }
+
+    // reads a backup written by older versions of the bot with plain Java serialization
+    @SuppressWarnings("unchecked")
+    static Snapshot readLegacy(File file) throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            LinkedHashMap<String, SerializablePUG> pugs = (LinkedHashMap<String, SerializablePUG>) input.readObject();
+            LinkedHashMap<String, ZoneId> timeZones = (LinkedHashMap<String, ZoneId>) input.readObject();
+
+            // backups from before the journal existed end here, and have no sequence number
+            long sequence;
+            try {
+                sequence = (Long) input.readObject();
+            } catch (EOFException e) {
+                sequence = 0;
+            }
+            return new Snapshot(new StoredState(pugs, timeZones), sequence);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writePUG(DataOutputStream out, String name, SerializablePUG pug, ArrayList<String> zones,
+                                 HashMap<String, Integer> zoneIndices) throws IOException {
+        writeString(out, name);
+        out.writeLong(Long.parseLong(pug.getGuild()));
+        out.writeLong(Long.parseLong(pug.getMod()));
+        out.writeLong(Long.parseLong(pug.getIdentifier()));
+        out.writeLong(pug.getTime().toEpochSecond());
+        out.writeInt(intern(pug.getTime().getZone().getId(), zones, zoneIndices));
+        writeString(out, pug.getDescription());
+        writeIDs(out, pug.getPlayers());
+        writeIDs(out, pug.getWatchers());
+        JournalEntry.writePlan(out, pug.getPlan());
+        out.writeInt(pug.getNextReminder());
+    }
+
+    private static SerializablePUG readPUG(ByteBuffer in, String name, ZoneId[] zones) {
+        String guild = Long.toString(in.getLong());
+        String mod = Long.toString(in.getLong());
+        String identifier = Long.toString(in.getLong());
+        long epochSecond = in.getLong();
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zones[in.getInt()]);
+        String description = readString(in);
+        LinkedHashSet<String> players = readIDs(in);
+        LinkedHashSet<String> watchers = readIDs(in);
+        ReminderPlan plan = readPlan(in);
+        int nextReminder = in.getInt();
+        return new SerializablePUG(players, watchers, time, description, mod, guild, name, identifier, plan,
+                nextReminder);
+    }
+
+    private static ReminderPlan readPlan(ByteBuffer in) {
+        int[] minutes = new int[in.getInt()];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = in.getInt();
+        }
+        return new ReminderPlan(minutes, in.getInt());
+    }
+
+    private static int intern(String zone, ArrayList<String> zones, HashMap<String, Integer> zoneIndices) {
+        Integer index = zoneIndices.get(zone);
+        if (index == null) {
+            index = zones.size();
+            zones.add(zone);
+            zoneIndices.put(zone, index);
+        }
+        return index;
+    }
+
+    private static void writeIDs(DataOutputStream out, LinkedHashSet<String> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeLong(Long.parseLong(id));
+        }
+    }
+
+    private static LinkedHashSet<String> readIDs(ByteBuffer in) {
+        int count = in.getInt();
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(Long.toString(in.getLong()));
+        }
+        return ids;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,30 @@
+package bot;
+
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+
+// the persisted view of the bot: PUGs, time zones, skill ratings and DM preferences by ID only, with no references to
+// live JDA entities
+class StoredState {
+    final LinkedHashMap<String, SerializablePUG> pugs;
+    final LinkedHashMap<String, ZoneId> timeZones;
+    final LinkedHashMap<String, Skill> skills;
+    // only users who've narrowed down when they get new PUG DMs - see SubscriptionIndex
+    final LinkedHashMap<String, Integer> dmHours;
+
+    StoredState() {
+        this(new LinkedHashMap<>(), new LinkedHashMap<>());
+    }
+
+    StoredState(LinkedHashMap<String, SerializablePUG> pugs, LinkedHashMap<String, ZoneId> timeZones) {
+        this(pugs, timeZones, new LinkedHashMap<>());
+    }
+
+    StoredState(LinkedHashMap<String, SerializablePUG> pugs, LinkedHashMap<String, ZoneId> timeZones,
+                LinkedHashMap<String, Skill> skills) {
+        this.pugs = pugs;
+        this.timeZones = timeZones;
+        this.skills = skills;
+        this.dmHours = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,127 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/* who gets a DM when a new PUG is created in a server: every member who isn't a bot and doesn't have the no-DM role,
+ * narrowed down by the hours of the day they've said they want to hear about.
+ * the member list is scanned once, when the server is loaded; after that, joins, leaves, role changes and !dms keep
+ * it up to date, so announcing a PUG only walks the people it goes to.
+ * who's subscribed follows the no-DM role, which Discord keeps. The hours are the bot's own, and are journaled by
+ * GuildState.
+ */
+class SubscriptionIndex {
+    // one bit per hour of the day, in the user's own time zone
+    static final int ALL_HOURS = (1 << 24) - 1;
+
+    private static final Pattern HOURS = Pattern.compile(
+            "\\s*(\\d{1,2})(?::00)?\\s*(am|pm)?\\s*(?:-|to)\\s*(\\d{1,2})(?::00)?\\s*(am|pm)?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private final ConcurrentHashMap.KeySetView<Long, Boolean> subscribed = ConcurrentHashMap.newKeySet();
+    // only users who've narrowed it down
+    private final ConcurrentHashMap<Long, Integer> hours = new ConcurrentHashMap<>();
+    private final ZoneMap zones;
+
+    SubscriptionIndex(ZoneMap zones) {
+        this.zones = zones;
+    }
+
+    // effect: subscribes exactly the server's members who aren't bots and don't have the no-DM role
+    void rebuild(Guild guild, long noDMs) {
+        Role optOut = guild.getRoleById(noDMs);
+        subscribed.clear();
+        for (Member member : guild.getMembers()) {
+            if (!member.getUser().isBot() && (optOut == null || !member.getRoles().contains(optOut))) {
+                subscribed.add(member.getUser().getIdLong());
+            }
+        }
+    }
+
+    void subscribe(long user) {
+        subscribed.add(user);
+    }
+
+    void unsubscribe(long user) {
+        subscribed.remove(user);
+    }
+
+    boolean isSubscribed(long user) {
+        return subscribed.contains(user);
+    }
+
+    int size() {
+        return subscribed.size();
+    }
+
+    int getHours(long user) {
+        return hours.getOrDefault(user, ALL_HOURS);
+    }
+
+    void setHours(long user, int hours) {
+        if (hours == ALL_HOURS) {
+            this.hours.remove(user);
+        } else {
+            this.hours.put(user, hours);
+        }
+    }
+
+    // the users to DM about a new PUG starting at the given time
+    long[] recipients(ZonedDateTime start) {
+        ArrayList<Long> recipients = new ArrayList<>(subscribed.size());
+        // the start's hour in each zone someone filtering by hours is in - there are far fewer zones than users
+        HashMap<ZoneId, Integer> startHour = new HashMap<>();
+        for (long user : subscribed) {
+            Integer wanted = hours.get(user);
+            if (wanted != null) {
+                ZoneId zone = zones.get(user);
+                // they chose hours in a zone they've since lost track of - better a DM too many than one missed
+                if (zone != null && (wanted & 1 << startHour.computeIfAbsent(zone,
+                        z -> start.withZoneSameInstant(z).getHour())) == 0) continue;
+            }
+            recipients.add(user);
+        }
+
+        long[] ids = new long[recipients.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = recipients.get(i);
+        }
+        return ids;
+    }
+
+    // returns the hour bits for text like "6pm-11pm" or "22-2" - from the first hour up to, not including, the second
+    static int parseHours(String text) throws IllegalCommandArgumentException {
+        Matcher matcher = HOURS.matcher(text);
+        if (!matcher.matches()) {
+            throw new IllegalCommandArgumentException("Hours should look like 6pm-11pm or 18-23.");
+        }
+        int from = hour(matcher.group(1), matcher.group(2));
+        int to = hour(matcher.group(3), matcher.group(4));
+        if (from == to) return ALL_HOURS;
+
+        int bits = 0;
+        for (int h = from; h != to; h = (h + 1) % 24) {
+            bits |= 1 << h;
+        }
+        return bits;
+    }
+
+    private static int hour(String number, String half) throws IllegalCommandArgumentException {
+        int hour = Integer.parseInt(number);
+        if (half == null) {
+            if (hour > 24) throw new IllegalCommandArgumentException("There are only 24 hours in a day.");
+            return hour % 24;
+        }
+        if (hour < 1 || hour > 12) throw new IllegalCommandArgumentException("With am or pm, hours go from 1 to 12.");
+        return hour % 12 + (half.equalsIgnoreCase("pm") ? 12 : 0);
+    }
+}
@@ -0,0 +1,302 @@
+package bot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/* splits a PUG's players into the two most even teams of six, where each team can field two tanks, two DPS and two
+ * supports from the roles its players can play.
+ * players are bits in a long, so a team is a mask and checking it is a handful of bit counts:
+ * - with exactly 12 players, every split is tried - 462 of them, since swapping the teams changes nothing
+ * - with a few more, every choice of who sits out is tried too, as long as that stays under EXHAUSTIVE_LIMIT splits
+ * - past that, a local search swapping players between the teams and the subs bench, from several starting points
+ * when splits are equally even, the one that lets the earliest signups play wins.
+ */
+class TeamBalancer {
+    static final int TEAM_SIZE = 6;
+    static final int PER_ROLE = 2;
+    // players are bits in a long
+    static final int MAX_PLAYERS = 64;
+    private static final long EXHAUSTIVE_LIMIT = 100_000;
+    private static final int RESTARTS = 32;
+
+    // how the cost of a split is packed into a long: role shortfall first, then the rating difference, then the
+    // signup positions of whoever plays
+    private static final int DIFFERENCE_SHIFT = 12;
+    private static final int SHORTFALL_SHIFT = 40;
+
+    // what balance found, as indices into the players it was given, each team in signup order
+    static class Split {
+        final int[] teamA;
+        final int[] teamB;
+        final int[] subs;
+        // the role each member plays, in the same order as the team - or 0 if the roles couldn't all be covered
+        final int[] rolesA;
+        final int[] rolesB;
+        final int ratingA;
+        final int ratingB;
+        // false if no split could give both teams two of every role, in which case it's just the most even one
+        final boolean rolesMet;
+
+        private Split(TeamBalancer balancer, long a, long b) {
+            long subMask = balancer.everyone & ~a & ~b;
+            this.teamA = indices(a);
+            this.teamB = indices(b);
+            this.subs = indices(subMask);
+            this.rolesA = balancer.assignRoles(teamA);
+            this.rolesB = balancer.assignRoles(teamB);
+            this.ratingA = balancer.rating(a);
+            this.ratingB = balancer.rating(b);
+            this.rolesMet = balancer.shortfall(a) + balancer.shortfall(b) == 0;
+        }
+    }
+
+    private final int count;
+    private final int[] ratings;
+    private final int[] roles;
+    private final long everyone;
+    // fits[r] holds the players who can't play anything outside the roles r - too many of them on a team means r's
+    // slots can't hold them all
+    private final long[] fits = new long[Skill.ANY + 1];
+
+    private TeamBalancer(int[] ratings, int[] roles) {
+        this.count = ratings.length;
+        this.ratings = ratings;
+        this.roles = new int[count];
+        for (int p = 0; p < count; p++) {
+            // no roles on record counts as able to play anything
+            this.roles[p] = roles[p] == 0 ? Skill.ANY : roles[p];
+            for (int r = 1; r <= Skill.ANY; r++) {
+                if ((this.roles[p] & ~r) == 0) {
+                    fits[r] |= 1L << p;
+                }
+            }
+        }
+        this.everyone = count == MAX_PLAYERS ? -1L : (1L << count) - 1;
+    }
+
+    /* returns the best split of the given players, in signup order, with ratings[i] and the Skill role bits roles[i]
+     * belonging to player i.
+     * needs at least 12 players and at most MAX_PLAYERS.
+     */
+    static Split balance(int[] ratings, int[] roles) {
+        if (ratings.length < 2 * TEAM_SIZE || ratings.length > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Can only balance " + 2 * TEAM_SIZE + " to " + MAX_PLAYERS +
+                    " players, not " + ratings.length);
+        }
+        TeamBalancer balancer = new TeamBalancer(ratings, roles);
+        long[] best = choose(ratings.length, 2 * TEAM_SIZE) * 462 <= EXHAUSTIVE_LIMIT ?
+                balancer.exhaustive() : balancer.search();
+        return new Split(balancer, best[0], best[1]);
+    }
+
+    // tries every choice of 12 players, and every split of them
+    private long[] exhaustive() {
+        long bestCost = Long.MAX_VALUE;
+        long[] best = new long[2];
+        int[] members = new int[2 * TEAM_SIZE];
+
+        for (long playing = (1L << 2 * TEAM_SIZE) - 1; playing <= everyone && playing != 0;
+             playing = nextCombination(playing)) {
+            int position = 0;
+            for (long rest = playing; rest != 0; rest &= rest - 1) {
+                members[position++] = Long.numberOfTrailingZeros(rest);
+            }
+            int total = this.rating(playing);
+            long signups = this.signups(playing);
+
+            // the first of the 12 is always on team A, and five of the other eleven join them
+            for (int others = (1 << TEAM_SIZE - 1) - 1; others < 1 << 2 * TEAM_SIZE - 1;
+                 others = (int) nextCombination(others)) {
+                long a = 1L << members[0];
+                for (int rest = others; rest != 0; rest &= rest - 1) {
+                    a |= 1L << members[1 + Integer.numberOfTrailingZeros(rest)];
+                }
+                long b = playing & ~a;
+                int ratingA = this.rating(a);
+                long cost = this.cost(a, b, Math.abs(2 * ratingA - total), signups);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best[0] = a;
+                    best[1] = b;
+                }
+            }
+        }
+        return best;
+    }
+
+    // hill climbs from the first 12 signups drafted by rating, then from random starts, keeping the best it finds
+    private long[] search() {
+        Random random = new Random(count);
+        long bestCost = Long.MAX_VALUE;
+        long[] best = new long[2];
+        int[] order = new int[count];
+
+        for (int restart = 0; restart < RESTARTS; restart++) {
+            for (int p = 0; p < count; p++) {
+                order[p] = p;
+            }
+            if (restart > 0) {
+                for (int p = count - 1; p > 0; p--) {
+                    int other = random.nextInt(p + 1);
+                    int swap = order[p];
+                    order[p] = order[other];
+                    order[other] = swap;
+                }
+            }
+            long[] teams = this.draft(order);
+            long cost = this.climb(teams);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best[0] = teams[0];
+                best[1] = teams[1];
+            }
+        }
+        return best;
+    }
+
+    // splits the first 12 in order between the teams snake-draft style, best rated first
+    private long[] draft(int[] order) {
+        Integer[] picks = new Integer[2 * TEAM_SIZE];
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = order[i];
+        }
+        Arrays.sort(picks, (x, y) -> Integer.compare(ratings[y], ratings[x]));
+        long[] teams = new long[2];
+        for (int i = 0; i < picks.length; i++) {
+            // A B B A A B B A ...
+            teams[(i + 1) / 2 % 2] |= 1L << picks[i];
+        }
+        return teams;
+    }
+
+    // effect: moves teams to a split no single swap can improve on. Returns its cost.
+    private long climb(long[] teams) {
+        long a = teams[0];
+        long b = teams[1];
+        long cost = this.cost(a, b);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            long subs = everyone & ~a & ~b;
+            for (long fromA = a; fromA != 0 && !improved; fromA &= fromA - 1) {
+                long x = fromA & -fromA;
+                // a player on A trades places with one on B, or one on the bench
+                for (long to = b | subs; to != 0; to &= to - 1) {
+                    long y = to & -to;
+                    long newA = a & ~x | y;
+                    long newB = (b & y) != 0 ? b & ~y | x : b;
+                    long newCost = this.cost(newA, newB);
+                    if (newCost < cost) {
+                        a = newA;
+                        b = newB;
+                        cost = newCost;
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+            for (long fromB = b; fromB != 0 && !improved; fromB &= fromB - 1) {
+                long x = fromB & -fromB;
+                for (long to = subs; to != 0; to &= to - 1) {
+                    long y = to & -to;
+                    long newB = b & ~x | y;
+                    long newCost = this.cost(a, newB);
+                    if (newCost < cost) {
+                        b = newB;
+                        cost = newCost;
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        teams[0] = a;
+        teams[1] = b;
+        return cost;
+    }
+
+    private long cost(long a, long b) {
+        return this.cost(a, b, Math.abs(this.rating(a) - this.rating(b)), this.signups(a | b));
+    }
+
+    private long cost(long a, long b, int difference, long signups) {
+        return ((long) (this.shortfall(a) + this.shortfall(b)) << SHORTFALL_SHIFT) |
+                ((long) difference << DIFFERENCE_SHIFT) | signups;
+    }
+
+    // how many players on the team can't get a slot in any role they play
+    private int shortfall(long team) {
+        int shortfall = 0;
+        for (int r = 1; r < Skill.ANY; r++) {
+            int excess = Long.bitCount(team & fits[r]) - PER_ROLE * Integer.bitCount(r);
+            if (excess > 0) {
+                shortfall += excess;
+            }
+        }
+        return shortfall;
+    }
+
+    private int rating(long team) {
+        int total = 0;
+        for (long rest = team; rest != 0; rest &= rest - 1) {
+            total += ratings[Long.numberOfTrailingZeros(rest)];
+        }
+        return total;
+    }
+
+    // sum of the signup positions of everyone playing - lower means earlier signups get to play
+    private long signups(long playing) {
+        long total = 0;
+        for (long rest = playing; rest != 0; rest &= rest - 1) {
+            total += Long.numberOfTrailingZeros(rest);
+        }
+        return total;
+    }
+
+    // gives each member a role they play, two per role. Returns all 0s if that can't be done.
+    private int[] assignRoles(int[] team) {
+        int[] assigned = new int[team.length];
+        if (!this.assign(team, 0, assigned, new int[Skill.SUPPORT + 1])) {
+            return new int[team.length];
+        }
+        return assigned;
+    }
+
+    private boolean assign(int[] team, int member, int[] assigned, int[] taken) {
+        if (member == team.length) return true;
+        for (int role = Skill.TANK; role <= Skill.SUPPORT; role <<= 1) {
+            if ((roles[team[member]] & role) != 0 && taken[role] < PER_ROLE) {
+                taken[role]++;
+                assigned[member] = role;
+                if (this.assign(team, member + 1, assigned, taken)) return true;
+                taken[role]--;
+            }
+        }
+        return false;
+    }
+
+    private static int[] indices(long mask) {
+        int[] indices = new int[Long.bitCount(mask)];
+        int position = 0;
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            indices[position++] = Long.numberOfTrailingZeros(rest);
+        }
+        return indices;
+    }
+
+    // the next larger number with the same number of bits set (Gosper's hack), or 0 past the last one in 64 bits
+    private static long nextCombination(long bits) {
+        long lowest = bits & -bits;
+        long ripple = bits + lowest;
+        if (ripple == 0) return 0;
+        return ripple | ((bits ^ ripple) >>> 2) / lowest;
+    }
+
+    private static long choose(int n, int k) {
+        long result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+}
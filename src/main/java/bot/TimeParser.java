@@ -0,0 +1,404 @@
+package bot;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* turns what people type for times and time zones into ZonedDateTimes and ZoneIds.
+ * - times are either absolute, like "8:30 pm EST 5-20", "20:30", "tomorrow 8pm" or "friday 9pm PT", or relative,
+ *   like "in 2h" or "in 1h30m"
+ * - zones are abbreviations (EST, CEST), shorthands that follow daylight savings (ET, PT), IANA names
+ *   (Europe/Berlin) or UTC offsets (UTC+2, GMT-5:30, +01:00), in any case
+ * everything that can be worked out ahead of time is: the alias table is built once, and offsets are cached once
+ * they've been resolved. Nothing here compiles a pattern per call.
+ */
+class TimeParser {
+    static final DateTimeFormatter ZONE_NAME = DateTimeFormatter.ofPattern("z");
+
+    // upper-cased name -> zone, for every name we know ahead of time
+    private static final HashMap<String, ZoneId> ALIASES = new HashMap<>();
+    // upper-cased offsets like UTC+2 that have already been resolved
+    private static final ConcurrentHashMap<String, ZoneId> RESOLVED = new ConcurrentHashMap<>();
+    private static final int MAX_RESOLVED = 1024;
+
+    private static final String[] WEEKDAYS = {"MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN"};
+
+    // abbreviations that mean more than one zone, and what to use for the ones we don't pick
+    private static final HashMap<String, String> AMBIGUOUS = new HashMap<>();
+
+    static {
+        for (String id : ZoneId.getAvailableZoneIds()) {
+            ALIASES.put(id.toUpperCase(Locale.ROOT), ZoneId.of(id));
+        }
+
+        // standard and daylight abbreviations are fixed offsets, so "EST" always means UTC-5 - that's how people
+        // tell them apart
+        fixed(0, 0, "UTC", "GMT", "Z", "WET");
+        fixed(1, 0, "BST", "CET", "WEST");
+        fixed(2, 0, "CEST", "EET", "SAST");
+        fixed(3, 0, "EEST", "MSK");
+        fixed(5, 30, "IST");
+        fixed(8, 0, "AWST", "SGT", "HKT");
+        fixed(9, 0, "JST", "KST");
+        fixed(9, 30, "ACST");
+        fixed(10, 0, "AEST");
+        fixed(10, 30, "ACDT");
+        fixed(11, 0, "AEDT");
+        fixed(12, 0, "NZST");
+        fixed(13, 0, "NZDT");
+        fixed(-3, 0, "BRT", "ART");
+        fixed(-3, -30, "NST");
+        fixed(-2, -30, "NDT");
+        fixed(-4, 0, "AST", "EDT");
+        fixed(-3, 0, "ADT");
+        fixed(-5, 0, "EST", "CDT");
+        fixed(-6, 0, "CST", "MDT");
+        fixed(-7, 0, "MST", "PDT");
+        fixed(-8, 0, "PST", "AKDT");
+        fixed(-9, 0, "AKST", "HDT");
+        fixed(-10, 0, "HST");
+
+        AMBIGUOUS.put("IST", "IST is taken as India Standard Time - for Irish time use Europe/Dublin, and for Israel " +
+                "time Asia/Jerusalem.");
+        AMBIGUOUS.put("BST", "BST is taken as British Summer Time - for Bangladesh time use Asia/Dhaka.");
+        AMBIGUOUS.put("CST", "CST is taken as Central Standard Time - for China time use Asia/Shanghai.");
+        AMBIGUOUS.put("AST", "AST is taken as Atlantic Standard Time - for Arabia time use Asia/Riyadh.");
+
+        // shorthands for regions, which switch between standard and daylight time on their own
+        region("America/New_York", "ET", "EASTERN");
+        region("America/Chicago", "CT", "CENTRAL");
+        region("America/Denver", "MT", "MOUNTAIN");
+        region("America/Phoenix", "ARIZONA");
+        region("America/Los_Angeles", "PT", "PACIFIC");
+        region("America/Anchorage", "AKT", "ALASKA");
+        region("Pacific/Honolulu", "HAWAII");
+        region("Europe/London", "UK");
+        region("Australia/Sydney", "AET");
+        region("Pacific/Auckland", "NZT");
+    }
+
+    private TimeParser() {}
+
+    private static void fixed(int hours, int minutes, String... names) {
+        ZoneId zone = (hours == 0 && minutes == 0) ? ZoneId.of("UTC") :
+                ZoneId.ofOffset("UTC", ZoneOffset.ofHoursMinutes(hours, minutes));
+        for (String name : names) {
+            ALIASES.put(name, zone);
+        }
+    }
+
+    private static void region(String id, String... names) {
+        for (String name : names) {
+            ALIASES.put(name, ZoneId.of(id));
+        }
+    }
+
+    static ZoneId parseZone(String zone) throws IllegalCommandArgumentException {
+        ZoneId parsed = zoneOrNull(zone.trim());
+        if (parsed == null) {
+            throw new IllegalCommandArgumentException("I don't know the time zone \"" + zone.trim() + "\" - use an " +
+                    "abbreviation like EST or CEST, a region like ET or Europe/Berlin, or an offset like UTC+2.");
+        }
+        return parsed;
+    }
+
+    // returns which zone was picked for the name, if it's an abbreviation that could mean another, or null if not
+    static String ambiguity(String name) {
+        return AMBIGUOUS.get(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    // returns the named zone, or null if the name isn't a zone
+    static ZoneId zoneOrNull(String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        ZoneId zone = ALIASES.get(upper);
+        if (zone == null) {
+            zone = RESOLVED.get(upper);
+        }
+        if (zone == null) {
+            zone = parseOffset(upper);
+            if (zone != null && RESOLVED.size() < MAX_RESOLVED) {
+                RESOLVED.put(upper, zone);
+            }
+        }
+        return zone;
+    }
+
+    // parses offsets like UTC+2, GMT-05:30, +0100 or -5. Returns null if it isn't one.
+    private static ZoneId parseOffset(String upper) {
+        int i = 0;
+        if (upper.startsWith("UTC") || upper.startsWith("GMT")) {
+            i = 3;
+        }
+        if (i >= upper.length() || (upper.charAt(i) != '+' && upper.charAt(i) != '-')) return null;
+        int sign = upper.charAt(i++) == '-' ? -1 : 1;
+
+        int digits = 0;
+        int value = 0;
+        int hours = -1;
+        for (; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if (c == ':' && hours == -1 && digits > 0) {
+                hours = value;
+                value = 0;
+                digits = 0;
+            } else {
+                return null;
+            }
+        }
+
+        int minutes = 0;
+        if (hours == -1) {
+            // +5, +05 or +0530
+            if (digits == 0 || digits > 4) return null;
+            hours = digits > 2 ? value / 100 : value;
+            minutes = digits > 2 ? value % 100 : 0;
+        } else {
+            if (digits != 2) return null;
+            minutes = value;
+        }
+        if (hours > 14 || minutes > 59) return null;
+
+        return ZoneId.ofOffset("UTC", ZoneOffset.ofHoursMinutes(sign * hours, sign * minutes));
+    }
+
+    static ZonedDateTime parseTime(String time, ZoneId registered) throws IllegalCommandArgumentException {
+        return parseTime(time, registered, Instant.now());
+    }
+
+    /* parses the time, relative to now. Times without a zone use the registered one, which may be null if the user
+     * hasn't registered a zone; times without a day are today, in the time's zone.
+     * a weekday means the next one, so one whose time has passed today is a week out. A date without a year that has
+     * gone by this year is next year's.
+     */
+    static ZonedDateTime parseTime(String time, ZoneId registered, Instant now)
+            throws IllegalCommandArgumentException {
+        ArrayList<String> tokens = tokenize(time);
+        if (tokens.isEmpty()) {
+            throw unclear(time);
+        }
+        if (tokens.get(0).equalsIgnoreCase("in")) {
+            return relative(time, tokens, registered, now);
+        }
+
+        int hour = -1;
+        int minute = 0;
+        boolean am = false;
+        boolean pm = false;
+        int month = -1;
+        int day = -1;
+        int year = -1;
+        int daysAhead = -1;
+        DayOfWeek weekday = null;
+        ZoneId zone = null;
+
+        for (String token : tokens) {
+            String upper = token.toUpperCase(Locale.ROOT);
+            char first = upper.charAt(0);
+            ZoneId named;
+            if (upper.equals("AM") || upper.equals("A.M.")) {
+                am = true;
+            } else if (upper.equals("PM") || upper.equals("P.M.")) {
+                pm = true;
+            } else if (upper.equals("TODAY") || upper.equals("TONIGHT")) {
+                daysAhead = 0;
+            } else if (upper.equals("TOMORROW")) {
+                daysAhead = 1;
+            } else if (upper.equals("NOON")) {
+                hour = 12;
+            } else if (upper.equals("MIDNIGHT")) {
+                hour = 0;
+            } else if (weekday(upper) != null) {
+                weekday = weekday(upper);
+            } else if (first >= '0' && first <= '9' && (upper.indexOf('-') > 0 || upper.indexOf('/') > 0)) {
+                int[] date = parseDate(upper);
+                if (date == null) throw unclear(time);
+                month = date[0];
+                day = date[1];
+                year = date[2];
+            } else if (first >= '0' && first <= '9' && hour == -1) {
+                int end = 0;
+                int value = 0;
+                while (end < upper.length() && Character.isDigit(upper.charAt(end)) && end < 2) {
+                    value = value * 10 + (upper.charAt(end++) - '0');
+                }
+                hour = value;
+                if (end < upper.length() && upper.charAt(end) == ':') {
+                    if (end + 3 > upper.length() || !Character.isDigit(upper.charAt(end + 1)) ||
+                            !Character.isDigit(upper.charAt(end + 2))) {
+                        throw unclear(time);
+                    }
+                    minute = (upper.charAt(end + 1) - '0') * 10 + (upper.charAt(end + 2) - '0');
+                    end += 3;
+                }
+                String suffix = upper.substring(end);
+                if (suffix.equals("AM") || suffix.equals("A")) {
+                    am = true;
+                } else if (suffix.equals("PM") || suffix.equals("P")) {
+                    pm = true;
+                } else if (!suffix.isEmpty()) {
+                    throw unclear(time);
+                }
+            } else if ((named = zoneOrNull(token)) != null) {
+                zone = named;
+            } else {
+                throw unclear(time);
+            }
+        }
+
+        if (hour == -1) {
+            throw unclear(time);
+        }
+        if (am || pm) {
+            if (hour < 1 || hour > 12) throw unclear(time);
+            hour = hour % 12 + (pm ? 12 : 0);
+        }
+        if (hour > 23 || minute > 59) {
+            throw unclear(time);
+        }
+
+        if (zone == null) {
+            zone = registered;
+        }
+        if (zone == null) {
+            throw new IllegalCommandArgumentException("No time zone found - register one now with !timezone.");
+        }
+
+        LocalDate today = now.atZone(zone).toLocalDate();
+        LocalDate date;
+        try {
+            if (month != -1) {
+                date = LocalDate.of(year != -1 ? year : today.getYear(), month, day);
+                if (year == -1 && date.isBefore(today)) {
+                    date = LocalDate.of(today.getYear() + 1, month, day);
+                }
+            } else if (daysAhead != -1) {
+                date = today.plusDays(daysAhead);
+            } else if (weekday != null) {
+                date = today.with(TemporalAdjusters.nextOrSame(weekday));
+            } else {
+                date = today;
+            }
+        } catch (DateTimeException e) {
+            throw new IllegalCommandArgumentException("That date doesn't exist.");
+        }
+
+        ZonedDateTime parsed = ZonedDateTime.of(date, LocalTime.of(hour, minute), zone);
+        if (weekday != null && month == -1 && daysAhead == -1 && !parsed.toInstant().isAfter(now)) {
+            parsed = parsed.plusWeeks(1);
+        }
+        return parsed;
+    }
+
+    // "in 2h", "in 1h30m", "in 2 hours 15 minutes"
+    private static ZonedDateTime relative(String time, ArrayList<String> tokens, ZoneId registered, Instant now)
+            throws IllegalCommandArgumentException {
+        StringBuilder spec = new StringBuilder();
+        for (int i = 1; i < tokens.size(); i++) {
+            spec.append(tokens.get(i).toLowerCase(Locale.ROOT));
+        }
+
+        long minutes = 0;
+        int i = 0;
+        boolean any = false;
+        while (i < spec.length()) {
+            int start = i;
+            long value = 0;
+            while (i < spec.length() && Character.isDigit(spec.charAt(i))) {
+                value = value * 10 + (spec.charAt(i++) - '0');
+                if (value > 100000) throw unclear(time);
+            }
+            if (i == start) throw unclear(time);
+
+            int unitStart = i;
+            while (i < spec.length() && Character.isLetter(spec.charAt(i))) {
+                i++;
+            }
+            long perUnit = unitMinutes(spec.substring(unitStart, i));
+            if (perUnit == 0) throw unclear(time);
+            minutes += value * perUnit;
+            any = true;
+        }
+        if (!any) throw unclear(time);
+
+        ZoneId zone = registered != null ? registered : ZoneId.of("UTC");
+        return now.plus(minutes, ChronoUnit.MINUTES).atZone(zone).truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    private static long unitMinutes(String unit) {
+        switch (unit) {
+            case "d": case "day": case "days":
+                return 1440;
+            case "h": case "hr": case "hrs": case "hour": case "hours":
+                return 60;
+            case "m": case "min": case "mins": case "minute": case "minutes":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    // month, day and year (or -1) of dates like 5-20, 5/20 or 5-20-2018. Returns null if it isn't one.
+    private static int[] parseDate(String token) {
+        int[] parts = {-1, -1, -1};
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i <= token.length(); i++) {
+            char c = i < token.length() ? token.charAt(i) : '-';
+            if (c >= '0' && c <= '9') {
+                value = (value == -1 ? 0 : value * 10) + (c - '0');
+                if (value > 9999) return null;
+            } else if ((c == '-' || c == '/') && value != -1 && part < 3) {
+                parts[part++] = value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (part < 2) return null;
+        if (parts[2] != -1 && parts[2] < 100) {
+            parts[2] += 2000;
+        }
+        return parts;
+    }
+
+    private static DayOfWeek weekday(String upper) {
+        if (upper.length() < 3) return null;
+        for (int i = 0; i < WEEKDAYS.length; i++) {
+            if (upper.startsWith(WEEKDAYS[i]) && DayOfWeek.of(i + 1).name().startsWith(upper)) {
+                return DayOfWeek.of(i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static ArrayList<String> tokenize(String time) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < time.length()) {
+            while (i < time.length() && Character.isWhitespace(time.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < time.length() && !Character.isWhitespace(time.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(time.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static IllegalCommandArgumentException unclear(String time) {
+        return new IllegalCommandArgumentException("I couldn't understand the time \"" + time.trim() + "\" - try " +
+                "something like 8:30 pm EST, 20:30 5-20, tomorrow 8pm or in 2h.");
+    }
+}
@@ -3,22 +3,21 @@ package bot;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 
-import java.util.Scanner;
 
 abstract class UserInfoCommand extends Command {
-    UserInfoCommand(boolean MOD_ONLY, boolean MUTATOR, String template, String info) {
-        super (MOD_ONLY, MUTATOR, template, info);
+    UserInfoCommand(boolean MOD_ONLY, String template, String info) {
+        super (MOD_ONLY, template, info);
     }
 
-    abstract String processUser (Scanner args, User user) throws Exception;
+    abstract String processUser (CommandArgs args, User user, GuildState guild) throws Exception;
 
     @Override
-    String processServerMessage(Scanner args, MessageReceivedEvent message) throws Exception {
-        return this.processUser(args, message.getAuthor());
+    String processServerMessage(CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
+        return this.processUser(args, message.getAuthor(), guild);
     }
 
     @Override
-    String processDM(Scanner args, MessageReceivedEvent message) throws Exception {
-        return this.processUser(args, message.getAuthor());
+    String processDM(CommandArgs args, MessageReceivedEvent message, GuildState guild) throws Exception {
+        return this.processUser(args, message.getAuthor(), guild);
     }
 }
@@ -0,0 +1,89 @@
+package bot;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/* the time zone each user registered, keyed by snowflake.
+ * a server with tens of thousands of registered members only uses a few dozen distinct zones, so each zone is stored
+ * once in a dictionary and users map to a short index into it: an open-addressed table of primitive keys and short
+ * values, with no entry objects or boxed keys for the GC to trace.
+ * 0 marks an empty slot, which is safe since no snowflake is 0.
+ * thread safe - commands for different PUGs read and register zones at the same time.
+ */
+class ZoneMap {
+    private long[] users;
+    private short[] zones;
+    private int size;
+    private final ArrayList<ZoneId> dictionary = new ArrayList<>();
+    private final HashMap<ZoneId, Short> codes = new HashMap<>();
+
+    ZoneMap() {
+        this.users = new long[64];
+        this.zones = new short[64];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // returns the user's zone, or null if they haven't registered one
+    synchronized ZoneId get(long user) {
+        int slot = this.slot(user);
+        return users[slot] == 0 ? null : dictionary.get(zones[slot]);
+    }
+
+    synchronized void put(long user, ZoneId zone) {
+        if (user == 0) {
+            throw new IllegalArgumentException("0 is not a user");
+        }
+        Short code = codes.get(zone);
+        if (code == null) {
+            if (dictionary.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct time zones");
+            }
+            code = (short) dictionary.size();
+            dictionary.add(zone);
+            codes.put(zone, code);
+        }
+
+        int slot = this.slot(user);
+        if (users[slot] == 0) {
+            users[slot] = user;
+            size++;
+        }
+        zones[slot] = code;
+        if (size * 2 > users.length) {
+            this.grow();
+        }
+    }
+
+    // the slot the user is in, or the empty one they'd go in
+    private int slot(long user) {
+        int mask = users.length - 1;
+        int slot = hash(user) & mask;
+        while (users[slot] != 0 && users[slot] != user) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldUsers = users;
+        short[] oldZones = zones;
+        users = new long[oldUsers.length * 2];
+        zones = new short[oldUsers.length * 2];
+        for (int i = 0; i < oldUsers.length; i++) {
+            if (oldUsers[i] != 0) {
+                int slot = this.slot(oldUsers[i]);
+                users[slot] = oldUsers[i];
+                zones[slot] = oldZones[i];
+            }
+        }
+    }
+
+    private static int hash(long user) {
+        long mixed = user * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
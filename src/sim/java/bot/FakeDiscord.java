@@ -0,0 +1,236 @@
+package bot;
+
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.*;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.core.managers.GuildController;
+import net.dv8tion.jda.core.requests.restaction.AuditableRestAction;
+import net.dv8tion.jda.core.requests.restaction.RoleAction;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* one server's worth of offline stand-ins for the JDA entities the bot touches, so benchmarks and tests run without
+ * Discord.
+ * every entity is a dynamic proxy that answers the methods the bot calls, and returns a default for anything else.
+ * REST calls go to a SimulatedRest, and "succeed" without going anywhere - at once unless it simulates latency and
+ * rate limits. Role changes stick, so the bot sees its own changes like it would on Discord.
+ */
+class FakeDiscord {
+    // answers one method of a fake, given the call's arguments
+    interface Answer {
+        Object answer(Object[] args);
+    }
+
+    // a fake's answers by method name, built up with on()
+    static class Answers extends HashMap<String, Answer> {
+        Answers on(String method, Answer answer) {
+            this.put(method, answer);
+            return this;
+        }
+    }
+
+    static final long GUILD_ID = 1000;
+    static final long CHANNEL_ID = 1001;
+    static final long NO_DM_ID = 1002;
+    static final long MOD_ID = 1003;
+    // members are numbered from here; the first one is a mod
+    static final long FIRST_MEMBER = 10_000;
+    // roles the bot creates are numbered from here
+    static final long FIRST_ROLE = 1_000_000;
+
+    final JDA jda;
+    final Guild guild;
+    final TextChannel channel;
+    final SimulatedRest rest;
+    private final GuildController controller;
+    private final HashMap<Long, User> users = new HashMap<>();
+    private final HashMap<Long, Member> members = new HashMap<>();
+    private final HashMap<Long, List<Role>> memberRoles = new HashMap<>();
+    private final List<Member> memberList = new ArrayList<>();
+    private final ConcurrentHashMap<Long, Role> roles = new ConcurrentHashMap<>();
+    private final AtomicLong nextRole = new AtomicLong(FIRST_ROLE);
+    private long nextMessage = 1;
+
+    FakeDiscord(int memberCount) {
+        this(memberCount, SimulatedRest.instant());
+    }
+
+    FakeDiscord(int memberCount, SimulatedRest rest) {
+        this.rest = rest;
+        HashMap<String, Answer> jdaAnswers = new HashMap<>();
+        this.jda = fake(JDA.class, jdaAnswers);
+        HashMap<String, Answer> guildAnswers = new HashMap<>();
+        this.guild = fake(Guild.class, guildAnswers);
+        Role modRole = this.role(MOD_ID, "Moderator");
+        this.role(NO_DM_ID, "Don't DM me");
+        HashMap<String, Answer> channelAnswers = snowflake(CHANNEL_ID, new Answers()
+                .on("getGuild", args -> guild)
+                .on("getType", args -> ChannelType.TEXT)
+                .on("getName", args -> "pug-pings"));
+        this.channel = fake(TextChannel.class, channelAnswers);
+        channelAnswers.put("sendMessage", args -> rest.message("sendMessage", "channel " + CHANNEL_ID, channel));
+        // GuildController's own server is only used by the methods overridden here, and it expects JDA's
+        // implementation, so it doesn't get one
+        Guild template = fake(Guild.class, snowflake(GUILD_ID, new Answers()));
+        this.controller = new GuildController(null) {
+            @Override
+            public RoleAction createRole() {
+                return rest.role(template, name -> role(nextRole.getAndIncrement(), name));
+            }
+
+            @Override
+            public AuditableRestAction<Void> modifyMemberRoles(Member member, Collection<Role> add,
+                                                               Collection<Role> remove) {
+                return rest.call("modifyMemberRoles", "member " + member.getUser().getIdLong(), () -> {
+                    List<Role> current = memberRoles.get(member.getUser().getIdLong());
+                    current.removeAll(remove);
+                    for (Role role : add) {
+                        if (!current.contains(role)) {
+                            current.add(role);
+                        }
+                    }
+                    return null;
+                });
+            }
+        };
+
+        for (long id = FIRST_MEMBER; id < FIRST_MEMBER + memberCount; id++) {
+            long userID = id;
+            User user = fake(User.class, snowflake(userID, new Answers()
+                .on("getName", args -> "Player" + userID)
+                .on("isBot", args -> false)
+                .on("getJDA", args -> jda)
+                .on("getAsMention", args -> "<@" + userID + ">")
+                .on("getMutualGuilds", args -> Collections.singletonList(guild))
+                .on("openPrivateChannel", args -> rest.call("openPrivateChannel", "dm " + userID,
+                        () -> this.privateChannel(userID)))));
+            List<Role> roles = new CopyOnWriteArrayList<>();
+            if (userID == FIRST_MEMBER) {
+                roles.add(modRole);
+            }
+            Member member = fake(Member.class, new Answers()
+                .on("getUser", args -> user)
+                .on("getGuild", args -> guild)
+                .on("getEffectiveName", args -> "Nickname" + userID)
+                .on("getRoles", args -> roles));
+            users.put(userID, user);
+            members.put(userID, member);
+            memberRoles.put(userID, roles);
+            memberList.add(member);
+        }
+
+        jdaAnswers.put("getUserById", args -> users.get(id(args[0])));
+        jdaAnswers.put("getGuildById", args -> id(args[0]) == GUILD_ID ? guild : null);
+        jdaAnswers.put("getTextChannelById", args -> id(args[0]) == CHANNEL_ID ? channel : null);
+        jdaAnswers.put("getGuilds", args -> Collections.singletonList(guild));
+
+        guildAnswers.putAll(snowflake(GUILD_ID, new HashMap<>()));
+        guildAnswers.put("getName", args -> "Fake PUGs");
+        guildAnswers.put("getJDA", args -> jda);
+        guildAnswers.put("getMembers", args -> memberList);
+        guildAnswers.put("getMember", args -> members.get(((User) args[0]).getIdLong()));
+        guildAnswers.put("getMemberById", args -> members.get(id(args[0])));
+        guildAnswers.put("getRoleById", args -> roles.get(id(args[0])));
+        guildAnswers.put("getController", args -> controller);
+        guildAnswers.put("getTextChannelById", args -> id(args[0]) == CHANNEL_ID ? channel : null);
+    }
+
+    GuildConfig config(String backupName) {
+        return new GuildConfig(Long.toString(CHANNEL_ID), Long.toString(NO_DM_ID), Long.toString(MOD_ID),
+                backupName);
+    }
+
+    User user(long id) {
+        return users.get(id);
+    }
+
+    // a message sent by the given member in the server's channel
+    MessageReceivedEvent message(long author, String content) {
+        long id = nextMessage++;
+        User user = users.get(author);
+        Message message = fake(Message.class, snowflake(id, new Answers()
+                .on("getContentRaw", args -> content)
+                .on("getContentDisplay", args -> content)
+                .on("getAuthor", args -> user)
+                .on("getMember", args -> members.get(author))
+                .on("getGuild", args -> guild)
+                .on("getChannel", args -> channel)
+                .on("getChannelType", args -> ChannelType.TEXT)
+                .on("isFromType", args -> args[0] == ChannelType.TEXT)
+                .on("getMentionedMembers", args -> Collections.emptyList())
+                .on("getMentionedUsers", args -> Collections.emptyList())));
+        return new MessageReceivedEvent(jda, id, message);
+    }
+
+    private Role role(long id, String name) {
+        Role role = fake(Role.class, snowflake(id, new Answers()
+                .on("getName", args -> name)
+                .on("getGuild", args -> guild)
+                .on("delete", args -> rest.call("deleteRole", "role " + id, () -> {
+                    roles.remove(id);
+                    return null;
+                }))));
+        roles.put(id, role);
+        return role;
+    }
+
+    private PrivateChannel privateChannel(long userID) {
+        HashMap<String, Answer> answers = snowflake(userID + 1, new Answers()
+                .on("getUser", args -> users.get(userID))
+                .on("getType", args -> ChannelType.PRIVATE));
+        PrivateChannel channel = fake(PrivateChannel.class, answers);
+        answers.put("sendMessage", args -> rest.message("sendDM", "dm " + userID, channel));
+        return channel;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T fake(Class<T> type, Map<String, Answer> answers) {
+        return (T) Proxy.newProxyInstance(FakeDiscord.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    Answer answer = answers.get(method.getName());
+                    if (answer != null) {
+                        return answer.answer(args);
+                    }
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Fake" + type.getSimpleName();
+                    }
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return '\0';
+    }
+
+    private static HashMap<String, Answer> snowflake(long id, HashMap<String, Answer> answers) {
+        answers.put("getIdLong", args -> id);
+        answers.put("getId", args -> Long.toString(id));
+        return answers;
+    }
+
+    private static long id(Object id) {
+        return id instanceof String ? Long.parseLong((String) id) : (Long) id;
+    }
+}
@@ -0,0 +1,231 @@
+package bot;
+
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/* drives BotCore with synthetic traffic from FakeDiscord's members at a fixed rate, to find where it falls over.
+ * Discord is simulated by SimulatedRest, so the bot's outgoing calls take time and get rate limited.
+ * messages arrive on schedule whether or not the bot keeps up, and latency counts from when each one was due, so a
+ * backlog shows up in the percentiles instead of quietly lowering the rate.
+ * it's built with the tests, not the benchmarks, so it runs without JMH:
+ *   mvn -P loadtest test-compile exec:java -Dexec.args="[rate=300] [seconds=30] [members=2000] [threads=4]
+ *       [latency=50] [global=50] [mix=create:1,join:30,list:10,info:20,timezone:5,chat:34]"
+ * rate is messages per second, threads the event threads handing them to the bot, latency the simulated round trip
+ * in milliseconds, and global Discord's overall limit on calls per second. mix weighs the kinds of message sent.
+ */
+public class LoadTest {
+    enum Kind {
+        CREATE, JOIN, LIST, INFO, TIMEZONE, CHAT
+    }
+
+    private static final String[] ZONES = {"EST", "PST", "CET", "UTC", "Europe/London", "Australia/Sydney"};
+
+    // handling times of one kind of message, in nanoseconds
+    private static class Latencies {
+        private final long[] samples;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Latencies(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        private void record(long nanos) {
+            samples[count.getAndIncrement()] = nanos;
+        }
+
+        private String summary() {
+            int size = count.get();
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            StringBuilder row = new StringBuilder(String.format("%8d", size));
+            for (double percentile : new double[] {0.5, 0.9, 0.99, 0.999, 1}) {
+                long value = size == 0 ? 0 : sorted[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+                row.append(String.format("%10.2f", value / 1e6));
+            }
+            return row.toString();
+        }
+    }
+
+    private final Map<String, String> options;
+    private final Random random = new Random(42);
+    private final List<String> pugNames = new ArrayList<>();
+    private FakeDiscord discord;
+    private int members;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String... args) throws Exception {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("Options look like rate=300 - see LoadTest's class comment for the list.");
+                return;
+            }
+            options.put(option[0], option[1]);
+        }
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int rate = this.option("rate", 300);
+        int seconds = this.option("seconds", 30);
+        int threads = this.option("threads", 4);
+        members = this.option("members", 2000);
+        int[] weights = this.mix(options.getOrDefault("mix", "create:1,join:30,list:10,info:20,timezone:5,chat:34"));
+
+        // Discord allows about 5 messages per 5 seconds on a channel, and 50 calls a second overall
+        SimulatedRest rest = new SimulatedRest(this.option("latency", 50), this.option("global", 50), 5, 5000);
+        discord = new FakeDiscord(members, rest);
+        File directory = Files.createTempDirectory("pug-load").toFile();
+        BotCore core = new BotCore(discord.config(new File(directory, "backup").getPath()));
+        core.onReady(new ReadyEvent(discord.jda, 0));
+
+        // something to join and look at from the first message on
+        for (int i = 0; i < 5; i++) {
+            core.handle(this.message(Kind.CREATE)).join();
+        }
+
+        int total = rate * seconds;
+        Latencies[] latencies = new Latencies[Kind.values().length];
+        for (Kind kind : Kind.values()) {
+            latencies[kind.ordinal()] = new Latencies(total);
+        }
+        Latencies all = new Latencies(total);
+        CountDownLatch handled = new CountDownLatch(total);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService events = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, "event-" + threadNumber.incrementAndGet()));
+
+        System.out.println("Sending " + total + " messages at " + rate + "/s to " + members + " members' worth of " +
+                "server, on " + threads + " event threads...");
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long due = start + i * period;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Kind kind = this.pick(weights);
+            MessageReceivedEvent event = this.message(kind);
+            // the event thread is free once the bot has handed the command off, but it isn't handled until it has run
+            events.execute(() -> core.handle(event).whenComplete((result, failure) -> {
+                long latency = System.nanoTime() - due;
+                latencies[kind.ordinal()].record(latency);
+                all.record(latency);
+                handled.countDown();
+            }));
+        }
+        handled.await();
+        events.shutdown();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Map<String, Number> metrics = core.getMetrics().snapshot();
+
+        System.out.println(String.format("Handled %d messages in %.1fs: %.1f/s, %d offered", total, elapsed,
+                total / elapsed, rate));
+        System.out.println();
+        System.out.println(String.format("%-10s%8s%10s%10s%10s%10s%10s", "latency", "count", "p50 ms", "p90 ms",
+                "p99 ms", "p99.9 ms", "max ms"));
+        for (Kind kind : Kind.values()) {
+            System.out.println(String.format("%-10s", kind.name().toLowerCase()) +
+                    latencies[kind.ordinal()].summary());
+        }
+        System.out.println(String.format("%-10s", "all") + all.summary());
+
+        System.out.println();
+        System.out.println("Simulated Discord calls:");
+        for (Map.Entry<String, Long> call : rest.calls().entrySet()) {
+            System.out.println(String.format("  %-20s%10d", call.getKey(), call.getValue()));
+        }
+        System.out.println(String.format("  %d calls waited on a rate limit, %.1fs in total", rest.limited(),
+                rest.waitedMillis() / 1000.0));
+        System.out.println("Still waiting when traffic stopped: " +
+                metrics.get("pugbot_outbound_queued{queue=\"messages\"}") + " messages, " +
+                metrics.get("pugbot_outbound_queued{queue=\"roles\"}") + " members' role changes");
+        for (Map.Entry<String, Number> metric : metrics.entrySet()) {
+            if ((metric.getKey().endsWith(".rejected") || metric.getKey().endsWith(".failed") ||
+                    metric.getKey().endsWith(".throttled")) &&
+                    metric.getValue().longValue() > 0) {
+                System.out.println(String.format("  %-30s%10d", metric.getKey(), metric.getValue().longValue()));
+            }
+        }
+
+        core.shutdown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    // a message of the given kind, from a random member - or from the mod, for commands only mods can use
+    private MessageReceivedEvent message(Kind kind) {
+        long author = FakeDiscord.FIRST_MEMBER + random.nextInt(members);
+        String pug = pugNames.isEmpty() ? "none" : pugNames.get(random.nextInt(pugNames.size()));
+        switch (kind) {
+            case CREATE:
+                String name = "load" + pugNames.size();
+                pugNames.add(name);
+                return discord.message(FakeDiscord.FIRST_MEMBER, "!create " + name + ", tomorrow 8pm EST, load test");
+            case JOIN:
+                return discord.message(author, "!join " + pug);
+            case LIST:
+                return discord.message(author, "!list");
+            case INFO:
+                return discord.message(author, "!info " + pug + ", EST");
+            case TIMEZONE:
+                return discord.message(author, "!timezone " + ZONES[random.nextInt(ZONES.length)]);
+            default:
+                return discord.message(author, "anyone up for a game tonight?");
+        }
+    }
+
+    private Kind pick(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (Kind kind : Kind.values()) {
+            roll -= weights[kind.ordinal()];
+            if (roll < 0) {
+                return kind;
+            }
+        }
+        return Kind.CHAT;
+    }
+
+    // parses "kind:weight,..."; kinds left out aren't sent
+    private int[] mix(String mix) {
+        int[] weights = new int[Kind.values().length];
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split(":");
+            weights[Kind.valueOf(weight[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(weight[1].trim());
+        }
+        return weights;
+    }
+
+    private int option(String name, int otherwise) {
+        String value = options.get(name);
+        return value == null ? otherwise : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,189 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.requests.restaction.AuditableRestAction;
+import net.dv8tion.jda.core.requests.restaction.MessageAction;
+import net.dv8tion.jda.core.requests.restaction.RoleAction;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/* Discord's REST API, as far as FakeDiscord's entities are concerned. Every call is counted by kind, takes a
+ * simulated round trip, and waits for room under a global limit and a per-route one (one channel, one DM, the
+ * server's roles) - the way JDA's requester holds calls back instead of letting them fail.
+ * instant() has no latency and no limits, so calls finish on the spot - what the benchmarks and tests want.
+ */
+class SimulatedRest {
+    // limit calls per period, either as a burst or spread out (a generic cell rate algorithm)
+    private static class Bucket {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private long theoretical = System.nanoTime();
+
+        private Bucket(int limit, long periodMillis) {
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis) / limit;
+            this.toleranceNanos = intervalNanos * (limit - 1);
+        }
+
+        // returns when a call made at now may go out, in System.nanoTime() terms
+        private synchronized long reserve(long now) {
+            long start = Math.max(now, theoretical - toleranceNanos);
+            theoretical = Math.max(theoretical, start) + intervalNanos;
+            return start;
+        }
+    }
+
+    private final long latencyNanos;
+    private final Bucket global;
+    private final int routeLimit;
+    private final long routePeriodMillis;
+    private final ConcurrentHashMap<String, Bucket> routes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService responder;
+
+    private final ConcurrentSkipListMap<String, LongAdder> calls = new ConcurrentSkipListMap<>();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    // globalPerSecond or routeLimit of 0 turns that limit off
+    SimulatedRest(long latencyMillis, int globalPerSecond, int routeLimit, long routePeriodMillis) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.global = globalPerSecond > 0 ? new Bucket(globalPerSecond, 1000) : null;
+        this.routeLimit = routeLimit;
+        this.routePeriodMillis = routePeriodMillis;
+        this.responder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "simulated-rest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static SimulatedRest instant() {
+        return new SimulatedRest(0, 0, 0, 0);
+    }
+
+    // a call on the given route that produces result() once it "reaches Discord"
+    <T> AuditableRestAction<T> call(String kind, String route, Supplier<T> result) {
+        return new AuditableRestAction.EmptyRestAction<T>(null, null) {
+            @Override
+            public void queue(Consumer<? super T> success, Consumer<? super Throwable> failure) {
+                respond(kind, route, result, success);
+            }
+
+            @Override
+            public T complete(boolean shouldQueue) {
+                return await(kind, route, result);
+            }
+        };
+    }
+
+    MessageAction message(String kind, String route, MessageChannel channel) {
+        return new MessageAction(null, null, channel) {
+            @Override
+            public void queue(Consumer<? super Message> success, Consumer<? super Throwable> failure) {
+                respond(kind, route, () -> null, success);
+            }
+
+            @Override
+            public Message complete(boolean shouldQueue) {
+                return await(kind, route, () -> null);
+            }
+        };
+    }
+
+    // creating a role; create makes the role from the name it was given. RoleAction reads the JDA off template, which
+    // has to be a guild without one, since the real RoleAction expects JDA's own implementation.
+    RoleAction role(Guild template, Function<String, Role> create) {
+        return new RoleAction(template) {
+            private String name;
+
+            @Override
+            public RoleAction setName(String name) {
+                this.name = name;
+                return super.setName(name);
+            }
+
+            @Override
+            public void queue(Consumer<? super Role> success, Consumer<? super Throwable> failure) {
+                respond("createRole", "roles", () -> create.apply(name), success);
+            }
+
+            @Override
+            public Role complete(boolean shouldQueue) {
+                return await("createRole", "roles", () -> create.apply(name));
+            }
+        };
+    }
+
+    // calls made so far, by kind
+    Map<String, Long> calls() {
+        ConcurrentSkipListMap<String, Long> counts = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, LongAdder> entry : calls.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    // calls that had to wait for a rate limit
+    long limited() {
+        return limited.sum();
+    }
+
+    long waitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos.sum());
+    }
+
+    private <T> void respond(String kind, String route, Supplier<T> result, Consumer<? super T> success) {
+        Runnable response = () -> {
+            T value = result.get();
+            if (success != null) {
+                success.accept(value);
+            }
+        };
+        long delay = this.delayNanos(kind, route);
+        if (delay == 0) {
+            response.run();
+        } else {
+            responder.schedule(response, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private <T> T await(String kind, String route, Supplier<T> result) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(this.delayNanos(kind, route));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result.get();
+    }
+
+    // effect: counts the call and takes its place in the buckets. Returns how long it takes to come back.
+    private long delayNanos(String kind, String route) {
+        calls.computeIfAbsent(kind, k -> new LongAdder()).increment();
+
+        long now = System.nanoTime();
+        long start = now;
+        if (global != null) {
+            start = global.reserve(now);
+        }
+        if (routeLimit > 0) {
+            Bucket bucket = routes.computeIfAbsent(route, r -> new Bucket(routeLimit, routePeriodMillis));
+            start = Math.max(start, bucket.reserve(now));
+        }
+        if (start > now) {
+            limited.increment();
+            waitedNanos.add(start - now);
+        }
+        return start - now + latencyNanos;
+    }
+}
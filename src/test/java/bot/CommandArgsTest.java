@@ -0,0 +1,71 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+public class CommandArgsTest {
+    // every argument of a message whose arguments start at start
+    private static List<String> all(String content, int start) {
+        CommandArgs args = new CommandArgs(content, start);
+        List<String> out = new ArrayList<>();
+        while (args.hasNext()) {
+            out.add(args.next());
+        }
+        return out;
+    }
+
+    @Test
+    public void splitsOnCommasAndTrims() {
+        assertEquals(Arrays.asList("scrim", "8pm", "bring snacks"),
+                all("!create   scrim ,8pm,  bring snacks  ", "!create".length()));
+        assertEquals(Arrays.asList("scrim"), all("!join scrim", "!join".length()));
+        // spaces inside an argument stay
+        assertEquals(Arrays.asList("America/New York", "b c"), all("!tz America/New York , b c", 3));
+    }
+
+    @Test
+    public void noArguments() {
+        assertFalse(new CommandArgs("!list", "!list".length()).hasNext());
+        assertFalse(new CommandArgs("!list   \t ", "!list".length()).hasNext());
+        assertEquals("", new CommandArgs("!list  ", "!list".length()).rest());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextPastTheEnd() {
+        CommandArgs args = new CommandArgs("!join scrim", "!join".length());
+        args.next();
+        args.next();
+    }
+
+    @Test
+    public void emptyArgumentsBetweenCommasAreKept() {
+        assertEquals(Arrays.asList("a", "", "b"), all("!x a,,b", 2));
+        assertEquals(Arrays.asList("", "b"), all("!x , b", 2));
+        assertEquals(Arrays.asList("a", "", "b"), all("!x a ,  , b", 2));
+        // a trailing comma doesn't add one
+        assertEquals(Arrays.asList("a"), all("!x a, ", 2));
+    }
+
+    @Test
+    public void quotesAreOrdinaryCharacters() {
+        // like the Scanner this replaced, there's no quoting - a comma splits wherever it is
+        assertEquals(Arrays.asList("\"a", "b\"", "'c'"), all("!x \"a, b\", 'c'", 2));
+        assertEquals(Arrays.asList("\"\""), all("!x \"\"", 2));
+    }
+
+    @Test
+    public void restKeepsCommasAndInnerWhitespace() {
+        CommandArgs args = new CommandArgs("!create scrim, 8pm,  bring snacks,  drinks  ", "!create".length());
+        assertEquals("scrim", args.next());
+        assertEquals("8pm", args.next());
+        assertEquals("bring snacks,  drinks", args.rest());
+        assertFalse(args.hasNext());
+        assertEquals("", args.rest());
+    }
+}
@@ -0,0 +1,157 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CommandExecutorTest {
+    private static List<String> keys(String... keys) {
+        return Arrays.asList(keys);
+    }
+
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void commandsSharingAKeyRunInOrder() throws Exception {
+        CommandExecutor executor = new CommandExecutor(1000);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 200; i++) {
+            int command = i;
+            last = executor.submit(keys("user/1"), () -> {
+                // a pause now and then, so a command let through early would overtake the one before it
+                if (command % 7 == 0) sleep(2);
+                ran.add(command);
+            }, () -> fail("refused"));
+        }
+        await(last);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) ran.get(i));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void commandsWithoutSharedKeysRunTogether() throws Exception {
+        CommandExecutor executor = new CommandExecutor(10);
+        CountDownLatch both = new CountDownLatch(2);
+        Runnable meet = () -> {
+            both.countDown();
+            try {
+                assertTrue(both.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        CompletableFuture<Void> first = executor.submit(keys("user/1", "pug/a"), meet, () -> fail("refused"));
+        CompletableFuture<Void> second = executor.submit(keys("user/2", "pug/b"), meet, () -> fail("refused"));
+        await(first);
+        await(second);
+        assertEquals(0, both.getCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void overlappingKeysKeepOrderWithoutDeadlock() throws Exception {
+        CommandExecutor executor = new CommandExecutor(64);
+        String[] pool = {"user/1", "user/2", "user/3", "pug/a", "pug/b"};
+        // the commands that ran so far, per key, in the order they ran
+        ConcurrentHashMap<String, List<Integer>> ran = new ConcurrentHashMap<>();
+        List<List<String>> submitted = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Random random = new Random(20);
+
+        for (int i = 0; i < 2000; i++) {
+            // two keys, in either order - two commands each waiting on the other would hang here
+            String a = pool[random.nextInt(pool.length)];
+            String b = pool[random.nextInt(pool.length)];
+            List<String> commandKeys = a.equals(b) ? keys(a) : keys(a, b);
+            submitted.add(commandKeys);
+            int command = i;
+            futures.add(executor.submit(commandKeys, () -> {
+                for (String key : commandKeys) {
+                    ran.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(command);
+                }
+            }, () -> fail("refused")));
+        }
+        await(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+
+        for (String key : pool) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < submitted.size(); i++) {
+                if (submitted.get(i).contains(key)) expected.add(i);
+            }
+            assertEquals(key, expected, ran.getOrDefault(key, Collections.emptyList()));
+        }
+        assertEquals(0, executor.inFlight());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shutdownRunsCommandsWaitingOnAKey() throws Exception {
+        CommandExecutor executor = new CommandExecutor(10);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        executor.submit(keys("pug/a"), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            ran.incrementAndGet();
+        }, refused::incrementAndGet);
+        // taken before shutdown, so it has to run even though it's still waiting
+        CompletableFuture<Void> waiting = executor.submit(keys("pug/a"), ran::incrementAndGet,
+                refused::incrementAndGet);
+
+        Thread shutdown = new Thread(executor::shutdown);
+        shutdown.start();
+        sleep(50);
+        assertTrue("shutdown returned with commands still to run", shutdown.isAlive());
+
+        // arrives after shutdown began, so it's refused
+        await(executor.submit(keys("pug/b"), ran::incrementAndGet, refused::incrementAndGet));
+        assertEquals(1, refused.get());
+
+        release.countDown();
+        shutdown.join(10_000);
+        assertFalse(shutdown.isAlive());
+        assertTrue(waiting.isDone());
+        assertEquals(2, ran.get());
+        assertEquals(0, executor.inFlight());
+    }
+
+    @Test
+    public void failingCommandDoesNotHoldUpTheNext() throws Exception {
+        CommandExecutor executor = new CommandExecutor(10);
+        AtomicInteger ran = new AtomicInteger();
+        executor.submit(keys("user/1"), () -> {
+            throw new IllegalStateException("command failed");
+        }, () -> fail("refused"));
+        await(executor.submit(keys("user/1"), ran::incrementAndGet, () -> fail("refused")));
+        assertEquals(1, ran.get());
+        executor.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
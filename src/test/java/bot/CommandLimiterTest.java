@@ -0,0 +1,88 @@
+package bot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandLimiterTest {
+    private static final long USER = 10;
+    private static final long CHANNEL = 1;
+
+    @Test
+    public void burstThenOneWarningThenSilence() {
+        // refills too slowly to matter during the test
+        CommandLimiter limiter = new CommandLimiter(3, 0.001, 100, 100);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 1));
+        }
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(USER, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.DROPPED, limiter.acquire(USER, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.DROPPED, limiter.acquire(USER, CHANNEL, 1));
+        // someone else in the same channel isn't held back
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER + 1, CHANNEL, 1));
+    }
+
+    @Test
+    public void costlyCommandTakesMoreTokens() {
+        CommandLimiter limiter = new CommandLimiter(5, 0.001, 100, 100);
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 3));
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(USER, CHANNEL, 3));
+        assertEquals(CommandLimiter.Outcome.DROPPED, limiter.acquire(USER, CHANNEL, 3));
+        // what's left still covers a cheap one, which resets the warning
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 2));
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(USER, CHANNEL, 1));
+    }
+
+    @Test
+    public void channelLimitCoversEveryone() {
+        CommandLimiter limiter = new CommandLimiter(100, 100, 2, 0.001);
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER + 1, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.WARN_CHANNEL, limiter.acquire(USER + 2, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.DROPPED, limiter.acquire(USER + 3, CHANNEL, 1));
+        // a refused command doesn't use up the user's tokens
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER + 2, CHANNEL + 1, 1));
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        // one token every 10 milliseconds
+        CommandLimiter limiter = new CommandLimiter(1, 100, 100, 100);
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(USER, CHANNEL, 1));
+        Thread.sleep(30);
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 1));
+        // never more than the burst, however long it's been
+        Thread.sleep(50);
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(USER, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(USER, CHANNEL, 1));
+    }
+
+    @Test
+    public void sweepsOutFullBuckets() throws InterruptedException {
+        // users refill within a millisecond; channels never do
+        CommandLimiter limiter = new CommandLimiter(1, 1_000_000, CommandLimiter.SWEEP_SIZE * 2, 0.001);
+        for (long user = 0; user < CommandLimiter.SWEEP_SIZE; user++) {
+            assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(user, CHANNEL, 1));
+        }
+        assertEquals(CommandLimiter.SWEEP_SIZE + 1, limiter.size());
+        Thread.sleep(5);
+
+        // the next new user sets off a sweep, and only their bucket and the channel's are left
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(CommandLimiter.SWEEP_SIZE, CHANNEL, 1));
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    public void busyBucketsAreKeptAndNotSweptAgainStraightAway() {
+        // nobody refills, so nothing can be swept
+        CommandLimiter limiter = new CommandLimiter(2, 0.001, CommandLimiter.SWEEP_SIZE * 4, 0.001);
+        for (long user = 0; user < CommandLimiter.SWEEP_SIZE + 100; user++) {
+            assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(user, CHANNEL, 1));
+        }
+        assertEquals(CommandLimiter.SWEEP_SIZE + 101, limiter.size());
+        // their limits still hold after the sweep
+        assertEquals(CommandLimiter.Outcome.ALLOWED, limiter.acquire(0, CHANNEL, 1));
+        assertEquals(CommandLimiter.Outcome.WARN_USER, limiter.acquire(0, CHANNEL, 1));
+    }
+}
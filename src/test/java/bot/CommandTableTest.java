@@ -0,0 +1,82 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandTableTest {
+    private static Command command(String name) {
+        return new Command(false, "!" + name, name) {};
+    }
+
+    @Test
+    public void looksUpIgnoringCase() {
+        CommandTable table = new CommandTable();
+        Command join = command("join");
+        table.put("join", join);
+        assertSame(join, table.get("join"));
+        assertSame(join, table.get("JOIN"));
+        assertSame(join, table.get("jOiN"));
+        assertNull(table.get("joins"));
+        assertNull(table.get("joi"));
+        assertNull(table.get(""));
+    }
+
+    @Test
+    public void looksUpARegionOfTheMessage() {
+        CommandTable table = new CommandTable();
+        Command join = command("join");
+        table.put("join", join);
+        String message = "!Join scrim";
+        assertSame(join, table.get(message, 1, 5));
+        assertNull(table.get(message, 1, 4));
+        assertNull(table.get(message, 0, 5));
+    }
+
+    @Test
+    public void onlyAsciiLettersFold() {
+        CommandTable table = new CommandTable();
+        Command accented = command("caf\u00e9");
+        table.put("caf\u00e9", accented);
+        assertSame(accented, table.get("CAF\u00e9"));
+        assertNull(table.get("CAF\u00c9"));
+    }
+
+    @Test
+    public void collidingNamesProbeToTheirOwnSlots() {
+        // "aa" and "c#" hash the same, so the second has to probe past the first
+        CommandTable table = new CommandTable();
+        Command aa = command("aa");
+        Command cSharp = command("c#");
+        table.put("aa", aa);
+        table.put("c#", cSharp);
+        assertSame(aa, table.get("AA"));
+        assertSame(cSharp, table.get("C#"));
+        // hashes the same as both, but isn't there
+        assertNull(table.get("d\u0004"));
+
+        // replacing one doesn't disturb the other
+        Command replacement = command("c#");
+        table.put("c#", replacement);
+        assertSame(replacement, table.get("c#"));
+        assertSame(aa, table.get("aa"));
+    }
+
+    @Test
+    public void keepsEverythingAcrossGrowth() {
+        CommandTable table = new CommandTable();
+        List<Command> commands = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Command command = command("cmd" + i);
+            commands.add(command);
+            table.put("cmd" + i, command);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertSame(commands.get(i), table.get("CMD" + i));
+        }
+        assertNull(table.get("cmd500"));
+    }
+}
@@ -0,0 +1,90 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// loading a server's state from its journal
+public class GuildStateTest {
+    private File dir;
+    private String backup;
+    private FakeDiscord discord;
+    private ScheduledExecutorService roleUpdates;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("guild").toFile();
+        backup = new File(dir, "backup").getPath();
+        discord = new FakeDiscord(5);
+        roleUpdates = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void deleteDirectory() {
+        roleUpdates.shutdownNow();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private Journal journal() {
+        return new Journal(backup + ".bin", backup + ".txt", backup + ".journal", 1000);
+    }
+
+    private GuildState guild() {
+        return new GuildState(discord.config(backup), discord.jda, FakeDiscord.GUILD_ID, this.journal(),
+                new HistoryArchive(backup + ".history", backup + ".history.idx"), 1,
+                new MessageDispatcher(1000, 45, 1, 1000, 10, 50),
+                new ReminderWheel(10, 64, TimeUnit.HOURS.toMillis(1)),
+                new RoleSync(() -> discord.guild, roleUpdates, 500), new Metrics());
+    }
+
+    private static SerializablePUG pug(String name, long guild) {
+        return new SerializablePUG(new LinkedHashSet<>(Arrays.asList(Long.toString(FakeDiscord.FIRST_MEMBER))),
+                new LinkedHashSet<>(), ZonedDateTime.now().plusDays(1), "", Long.toString(FakeDiscord.FIRST_MEMBER),
+                Long.toString(guild), name, "5000000", new ReminderPlan(new int[0], ReminderPlan.NO_WARNING), 0);
+    }
+
+    private static List<String> names(GuildState guild) {
+        List<String> names = new ArrayList<>();
+        for (PUG pug : guild.allPugs()) {
+            names.add(pug.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void pugThatCannotBeRestoredIsDeletedFromTheJournal() throws Exception {
+        Journal journal = this.journal();
+        journal.load();
+        journal.write(JournalEntry.create("kept", pug("kept", FakeDiscord.GUILD_ID)));
+        // a server the bot isn't in any more
+        journal.write(JournalEntry.create("orphaned", pug("orphaned", FakeDiscord.GUILD_ID + 50)));
+        journal.sync();
+        journal.close();
+
+        GuildState guild = this.guild();
+        guild.load();
+        assertEquals(Arrays.asList("kept"), names(guild));
+        assertNull(guild.getPug("orphaned"));
+        guild.shutdown();
+
+        StoredState state = this.journal().load();
+        assertEquals(new LinkedHashSet<>(Arrays.asList("kept")), state.pugs.keySet());
+    }
+}
@@ -0,0 +1,243 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// the archive and its index, and how they're put back together after a crash
+public class HistoryArchiveTest {
+    private static final long MOD = 1;
+    private static final long ALICE = 10;
+    private static final long BOB = 11;
+    private static final long CAROL = 12;
+
+    private File dir;
+    private File archiveFile;
+    private File indexFile;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("history").toFile();
+        archiveFile = new File(dir, "backup.history");
+        indexFile = new File(dir, "backup.history.idx");
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private HistoryArchive open() throws IOException {
+        HistoryArchive history = new HistoryArchive(archiveFile.getPath(), indexFile.getPath());
+        history.load();
+        return history;
+    }
+
+    // a PUG Alice and Bob played in and Carol watched, archived the given number of minutes in
+    private static HistoryArchive.Entry played(String name, int minute) {
+        return new HistoryArchive.Entry(name, 0, minute * 60_000L, false, MOD, new long[] {ALICE, BOB},
+                new long[] {CAROL}, new long[0]);
+    }
+
+    // effect: archives the entries, one append each, and closes the archive
+    private void archive(HistoryArchive.Entry... entries) throws IOException {
+        HistoryArchive history = this.open();
+        for (HistoryArchive.Entry entry : entries) {
+            history.append(Arrays.asList(entry));
+        }
+        history.close();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.close();
+    }
+
+    @Test
+    public void answersFromReloadedIndex() throws IOException {
+        HistoryArchive history = this.open();
+        history.append(Arrays.asList(played("first", 1), played("second", 2)));
+        history.append(Arrays.asList(new HistoryArchive.Entry("third", 0, 3 * 60_000L, false, MOD,
+                new long[] {ALICE, BOB}, new long[0], new long[] {BOB})));
+        history.append(Arrays.asList(new HistoryArchive.Entry("fourth", 0, 4 * 60_000L, true, MOD,
+                new long[] {ALICE}, new long[0], new long[0])));
+        history.close();
+
+        history = this.open();
+        assertEquals(4, history.archivedCount());
+        assertEquals(1, history.cancelledCount());
+
+        HistoryArchive.Stats bob = history.stats(BOB);
+        assertEquals(3, bob.played);
+        assertEquals(1, bob.noShows);
+        HistoryArchive.Stats alice = history.stats(ALICE);
+        assertEquals(3, alice.played);
+        assertEquals(1, alice.cancelled);
+        assertEquals(2, history.stats(CAROL).watched);
+        assertEquals(4, history.stats(MOD).modded);
+
+        List<HistoryArchive.Entry> recent = history.recent(ALICE, 2);
+        assertEquals("fourth", recent.get(0).name);
+        assertEquals("third", recent.get(1).name);
+
+        // Alice went to three, Bob to two and no-showed one
+        List<long[]> top = history.top(0, 10);
+        assertArrayEquals(new long[] {ALICE, 3, 0}, top.get(0));
+        assertArrayEquals(new long[] {BOB, 2, 1}, top.get(1));
+        history.close();
+    }
+
+    @Test
+    public void reindexesRecordWhosePostingsWereCutShort() throws IOException {
+        this.archive(played("first", 1), played("second", 2));
+        // the second PUG's postings only partly made it to disk - its first, and half of the next
+        long firstPostings = indexFile.length() / 2;
+        truncate(indexFile, firstPostings + firstPostings / 3 + 10);
+
+        HistoryArchive history = this.open();
+        assertEquals(2, history.archivedCount());
+        assertEquals(2, history.stats(ALICE).played);
+        assertEquals(2, history.stats(CAROL).watched);
+        history.close();
+        assertEquals(2 * firstPostings, indexFile.length());
+    }
+
+    @Test
+    public void indexesRecordsMissingFromIndex() throws IOException {
+        this.archive(played("first", 1), played("second", 2), played("third", 3));
+        truncate(indexFile, 0);
+
+        HistoryArchive history = this.open();
+        assertEquals(3, history.archivedCount());
+        assertEquals(3, history.stats(BOB).played);
+        history.close();
+    }
+
+    @Test
+    public void dropsTornRecordAtTheEnd() throws IOException {
+        this.archive(played("first", 1), played("second", 2));
+        long intact = archiveFile.length();
+        this.archive(played("third", 3));
+        truncate(archiveFile, intact + (archiveFile.length() - intact) / 2);
+
+        HistoryArchive history = this.open();
+        assertEquals(2, history.archivedCount());
+        assertEquals(2, history.stats(ALICE).played);
+        assertEquals("second", history.recent(ALICE, 1).get(0).name);
+        assertEquals(intact, archiveFile.length());
+
+        // the next PUG goes where the torn one was, and is found on the next load
+        history.append(Arrays.asList(played("fourth", 4)));
+        history.close();
+        history = this.open();
+        assertEquals(3, history.archivedCount());
+        assertEquals("fourth", history.recent(ALICE, 1).get(0).name);
+        history.close();
+    }
+
+    @Test
+    public void dropsCorruptRecordAtTheEnd() throws IOException {
+        this.archive(played("first", 1));
+        long intact = archiveFile.length();
+        this.archive(played("second", 2));
+        RandomAccessFile raf = new RandomAccessFile(archiveFile, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xff);
+        raf.close();
+
+        HistoryArchive history = this.open();
+        assertEquals(1, history.archivedCount());
+        assertEquals(1, history.stats(ALICE).played);
+        assertEquals(intact, archiveFile.length());
+        history.close();
+    }
+
+    @Test
+    public void topCountsOnlyTheWindowAndTheLimit() throws IOException {
+        HistoryArchive history = this.open();
+        // Carol plays in the early ones, Alice and Bob in the later ones
+        for (int minute = 1; minute <= 4; minute++) {
+            history.append(Arrays.asList(new HistoryArchive.Entry("early" + minute, 0, minute * 60_000L, false, MOD,
+                    new long[] {CAROL}, new long[0], new long[0])));
+        }
+        history.append(Arrays.asList(played("late", 10), played("later", 11)));
+
+        assertArrayEquals(new long[] {CAROL, 4, 0}, history.top(0, 10).get(0));
+        assertEquals(3, history.top(0, 10).size());
+        assertEquals(1, history.top(0, 1).size());
+        assertTrue(history.top(0, 0).isEmpty());
+
+        List<long[]> recent = history.top(10 * 60_000L, 10);
+        assertEquals(2, recent.size());
+        assertEquals(2, recent.get(0)[1]);
+        assertArrayEquals(new long[] {CAROL, 1, 0}, history.top(4 * 60_000L, 10).get(2));
+        assertTrue(history.top(12 * 60_000L, 10).isEmpty());
+        history.close();
+    }
+
+    @Test
+    public void topMatchesCountingEveryPosting() throws IOException {
+        Random random = new Random(22);
+        HistoryArchive history = this.open();
+        List<HistoryArchive.Entry> all = new ArrayList<>();
+        for (int minute = 0; minute < 300; minute++) {
+            long[] players = {100 + random.nextInt(30), 130 + random.nextInt(30)};
+            long[] noShows = random.nextInt(4) == 0 ? new long[] {players[0]} : new long[0];
+            HistoryArchive.Entry entry = new HistoryArchive.Entry("pug" + minute, 0, minute * 60_000L,
+                    random.nextInt(10) == 0, MOD, players, new long[] {160 + random.nextInt(5)}, noShows);
+            all.add(entry);
+            history.append(Arrays.asList(entry));
+        }
+
+        for (int since : new int[] {0, 1, 50, 150, 299, 300}) {
+            // every user's count the slow way
+            HashMap<Long, long[]> expected = new HashMap<>();
+            for (HistoryArchive.Entry entry : all) {
+                if (entry.cancelled || entry.archivedAt < since * 60_000L) continue;
+                for (long player : entry.players) {
+                    long[] counts = expected.computeIfAbsent(player, p -> new long[] {p, 0, 0});
+                    boolean noShow = entry.noShows.length > 0 && entry.noShows[0] == player;
+                    counts[noShow ? 2 : 1]++;
+                }
+            }
+            List<long[]> top = history.top(since * 60_000L, 1000);
+            int ranked = 0;
+            for (long[] counts : expected.values()) {
+                if (counts[1] > 0) ranked++;
+            }
+            assertEquals(ranked, top.size());
+            for (int i = 0; i < top.size(); i++) {
+                assertArrayEquals(expected.get(top.get(i)[0]), top.get(i));
+                if (i > 0) {
+                    assertTrue(top.get(i - 1)[1] > top.get(i)[1] ||
+                            top.get(i - 1)[1] == top.get(i)[1] && top.get(i - 1)[2] <= top.get(i)[2]);
+                }
+            }
+            // a shorter list is the start of the longer one, give or take exact ties
+            List<long[]> five = history.top(since * 60_000L, 5);
+            for (int i = 0; i < five.size(); i++) {
+                assertEquals(top.get(i)[1], five.get(i)[1]);
+                assertEquals(top.get(i)[2], five.get(i)[2]);
+            }
+        }
+        history.close();
+    }
+}
@@ -0,0 +1,167 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+
+// replaying the journal after a crash, and what's left of it after a write fails
+public class JournalTest {
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private File dir;
+    private String backup;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        backup = new File(dir, "backup").getPath();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private Journal journal() {
+        return new Journal(backup + ".bin", backup + ".txt", backup + ".journal", 1000);
+    }
+
+    private File journalFile() {
+        return new File(backup + ".journal");
+    }
+
+    // writes timeZone entries for users first to last-1, syncs them and closes the journal
+    private void writeUsers(int first, int last) throws Exception {
+        Journal journal = this.journal();
+        journal.load();
+        for (int user = first; user < last; user++) {
+            journal.write(JournalEntry.timeZone(Integer.toString(user), UTC));
+        }
+        journal.sync();
+        journal.close();
+    }
+
+    private static SerializablePUG pug(String name) {
+        return new SerializablePUG(new LinkedHashSet<>(), new LinkedHashSet<>(),
+                ZonedDateTime.of(2026, 10, 20, 20, 0, 0, 0, UTC), "scrims", "1", "2", name, "3",
+                ReminderPlan.DEFAULT, 0);
+    }
+
+    @Test
+    public void replaysSyncedEntries() throws Exception {
+        Journal journal = this.journal();
+        journal.load();
+        journal.write(JournalEntry.create("scrim", pug("scrim")));
+        journal.write(JournalEntry.join("scrim", "10"));
+        journal.write(JournalEntry.join("scrim", "11"));
+        journal.write(JournalEntry.leave("scrim", "10"));
+        journal.write(JournalEntry.timeZone("10", UTC));
+        journal.sync();
+        journal.close();
+
+        StoredState state = this.journal().load();
+        assertEquals(1, state.pugs.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("11")), state.pugs.get("scrim").getPlayers());
+        assertEquals(UTC, state.timeZones.get("10"));
+    }
+
+    @Test
+    public void dropsTornRecordAtTheEnd() throws Exception {
+        this.writeUsers(0, 5);
+        long intact = journalFile().length();
+        this.writeUsers(5, 6);
+        // the last record only got half way to disk
+        RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+        file.setLength(intact + (file.length() - intact) / 2);
+        file.close();
+
+        StoredState state = this.journal().load();
+        assertEquals(5, state.timeZones.size());
+        assertFalse(state.timeZones.containsKey("5"));
+        assertEquals(intact, journalFile().length());
+
+        // new entries go after the last good record, and survive the next load
+        this.writeUsers(5, 7);
+        assertEquals(7, this.journal().load().timeZones.size());
+    }
+
+    @Test
+    public void dropsCorruptRecordAtTheEnd() throws Exception {
+        this.writeUsers(0, 3);
+        long intact = journalFile().length();
+        this.writeUsers(3, 4);
+        RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+        file.seek(file.length() - 1);
+        int last = file.read();
+        file.seek(file.length() - 1);
+        file.write(last ^ 0xff);
+        file.close();
+
+        StoredState state = this.journal().load();
+        assertEquals(3, state.timeZones.size());
+        assertEquals(intact, journalFile().length());
+    }
+
+    @Test
+    public void dropsHeaderClaimingMoreThanTheFileHolds() throws Exception {
+        this.writeUsers(0, 3);
+        long intact = journalFile().length();
+        // a garbage header whose length would have replay allocate 2GB
+        RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+        file.seek(intact);
+        file.writeInt(Integer.MAX_VALUE);
+        file.writeInt(0);
+        file.writeLong(4);
+        file.close();
+
+        StoredState state = this.journal().load();
+        assertEquals(3, state.timeZones.size());
+        assertEquals(intact, journalFile().length());
+    }
+
+    @Test
+    public void failedWriteIsTakenBack() throws Exception {
+        this.writeUsers(0, 2);
+        Journal journal = this.journal();
+        StoredState state = journal.load();
+
+        // the journal file can't be opened while a directory is in its way
+        File moved = new File(dir, "moved");
+        assertTrue(journalFile().renameTo(moved));
+        assertTrue(journalFile().mkdir());
+        try {
+            journal.write(JournalEntry.timeZone("2", UTC));
+            fail("wrote to a directory");
+        } catch (IOException expected) {
+        }
+        assertFalse(state.timeZones.containsKey("2"));
+
+        // once it's back, the same entry can be written again and comes back with the right sequence number
+        assertTrue(journalFile().delete());
+        assertTrue(moved.renameTo(journalFile()));
+        journal.write(JournalEntry.timeZone("2", UTC));
+        journal.sync();
+        assertEquals(UTC, state.timeZones.get("2"));
+        journal.compact();
+        journal.write(JournalEntry.timeZone("3", UTC));
+        journal.close();
+
+        LinkedHashMap<String, ZoneId> zones = this.journal().load().timeZones;
+        assertEquals(4, zones.size());
+    }
+}
@@ -0,0 +1,105 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongSetTest {
+    private static void assertSameAs(LinkedHashSet<Long> expected, LongSet set) {
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected.isEmpty(), set.isEmpty());
+        long[] elements = set.toArray();
+        int i = 0;
+        for (long id : expected) {
+            assertEquals(id, set.get(i));
+            assertEquals(id, elements[i]);
+            assertTrue(set.contains(id));
+            i++;
+        }
+    }
+
+    @Test
+    public void keepsInsertionOrderAndIgnoresDuplicates() {
+        LongSet set = new LongSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(30));
+        assertTrue(set.add(10));
+        assertTrue(set.add(20));
+        assertFalse(set.add(10));
+        assertArrayEquals(new long[] {30, 10, 20}, set.toArray());
+
+        assertTrue(set.remove(30));
+        assertFalse(set.remove(30));
+        assertFalse(set.contains(30));
+        // back at the end, not where it was
+        assertTrue(set.add(30));
+        assertArrayEquals(new long[] {10, 20, 30}, set.toArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEnd() {
+        LongSet set = new LongSet();
+        set.add(1);
+        set.add(2);
+        set.remove(2);
+        set.get(1);
+    }
+
+    @Test
+    public void staysCorrectGoingBetweenSmallAndHashed() {
+        // real snowflakes share their high bits and differ in the counter at the bottom
+        long base = 413_000_000_000_000_000L;
+        LongSet set = new LongSet();
+        LinkedHashSet<Long> expected = new LinkedHashSet<>();
+        for (int round = 0; round < 3; round++) {
+            for (long i = 0; i < 100; i++) {
+                assertEquals(expected.add(base + i), set.add(base + i));
+                assertSameAs(expected, set);
+            }
+            for (long i = 0; i < 100; i += 2) {
+                assertEquals(expected.remove(base + i), set.remove(base + i));
+            }
+            assertSameAs(expected, set);
+            for (long i = 1; i < 100; i += 2) {
+                assertEquals(expected.remove(base + i), set.remove(base + i));
+                assertSameAs(expected, set);
+            }
+            assertTrue(set.isEmpty());
+        }
+    }
+
+    @Test
+    public void matchesLinkedHashSetUnderRandomChanges() {
+        Random random = new Random(23);
+        for (int trial = 0; trial < 20; trial++) {
+            LongSet set = new LongSet();
+            LinkedHashSet<Long> expected = new LinkedHashSet<>();
+            // a small range, so adds and removes hit IDs already in the set often
+            int range = 1 + random.nextInt(200);
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < range; i++) {
+                ids.add(random.nextLong());
+            }
+            for (int step = 0; step < 2000; step++) {
+                long id = ids.get(random.nextInt(range));
+                switch (random.nextInt(3)) {
+                    case 0:
+                    case 1:
+                        assertEquals(expected.add(id), set.add(id));
+                        break;
+                    default:
+                        assertEquals(expected.remove(id), set.remove(id));
+                        break;
+                }
+                assertEquals(expected.contains(id), set.contains(id));
+                assertEquals(expected.size(), set.size());
+            }
+            assertSameAs(expected, set);
+        }
+    }
+}
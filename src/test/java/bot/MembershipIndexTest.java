@@ -0,0 +1,141 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MembershipIndexTest {
+    private static final long MOD = FakeDiscord.FIRST_MEMBER;
+    private static final long PLAYER = FakeDiscord.FIRST_MEMBER + 1;
+    private static final long WATCHER = FakeDiscord.FIRST_MEMBER + 2;
+
+    private FakeDiscord discord;
+    private ScheduledExecutorService roleUpdates;
+    private MembershipIndex memberships;
+    private PUGServices services;
+
+    @Before
+    public void createServices() {
+        discord = new FakeDiscord(5);
+        roleUpdates = Executors.newSingleThreadScheduledExecutor();
+        RoleSync roles = new RoleSync(() -> discord.guild, roleUpdates, 500);
+        memberships = new MembershipIndex();
+        services = new PUGServices(new MessageDispatcher(1000, 45, 1, 1000, 10, 50),
+                new ReminderWheel(10, 64, TimeUnit.HOURS.toMillis(1)), roles, memberships,
+                new SubscriptionIndex(new ZoneMap()), pug -> {});
+    }
+
+    @After
+    public void stopRoleUpdates() {
+        roleUpdates.shutdownNow();
+    }
+
+    // a PUG with just its mod playing
+    private PUG pug(String name) {
+        LongSet players = new LongSet();
+        players.add(MOD);
+        return new PUG(players, new LongSet(), ZonedDateTime.now().plusDays(1), "", MOD, discord.guild, name,
+                5_000_000, new ReminderPlan(new int[0], ReminderPlan.NO_WARNING), 0, services);
+    }
+
+    private void assertIn(long user, PUG... pugs) {
+        assertEquals(new HashSet<>(Arrays.asList(pugs)), new HashSet<>(memberships.of(user)));
+        assertEquals(pugs.length, memberships.of(user).size());
+    }
+
+    @Test
+    public void addsAndRemovesByIdentity() {
+        MembershipIndex index = new MembershipIndex();
+        PUG first = this.pug("scrim");
+        // same name, different PUG - like one that lost a race for the name
+        PUG second = this.pug("scrim");
+        index.add(PLAYER, first);
+        index.add(PLAYER, first);
+        index.add(PLAYER, second);
+        assertEquals(2, index.of(PLAYER).size());
+
+        index.remove(PLAYER, second);
+        assertEquals(Collections.singletonList(first), index.of(PLAYER));
+        // not in it, so nothing changes
+        index.remove(PLAYER, second);
+        index.remove(WATCHER, first);
+        assertEquals(Collections.singletonList(first), index.of(PLAYER));
+
+        index.remove(PLAYER, first);
+        assertTrue(index.of(PLAYER).isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void pugKeepsItUpToDate() {
+        PUG scrim = this.pug("scrim");
+        PUG ranked = this.pug("ranked");
+        assertIn(MOD, scrim, ranked);
+
+        scrim.registerPlayer(discord.user(PLAYER));
+        ranked.registerWatcher(discord.user(PLAYER));
+        scrim.registerWatcher(discord.user(WATCHER));
+        assertIn(PLAYER, scrim, ranked);
+        assertIn(WATCHER, scrim);
+
+        // switching from playing to watching doesn't list the PUG twice
+        scrim.registerWatcher(discord.user(PLAYER));
+        assertIn(PLAYER, scrim, ranked);
+
+        scrim.removePlayer(discord.user(PLAYER));
+        assertIn(PLAYER, ranked);
+
+        scrim.changeMod(discord.user(WATCHER));
+        assertIn(MOD, ranked);
+        assertIn(WATCHER, scrim);
+
+        scrim.unload();
+        assertIn(WATCHER);
+        ranked.unload();
+        assertIn(MOD);
+        assertIn(PLAYER);
+        assertEquals(0, memberships.size());
+    }
+
+    @Test
+    public void readersSeeWholeListsWhileItChanges() throws InterruptedException {
+        PUG[] pugs = new PUG[8];
+        for (int i = 0; i < pugs.length; i++) {
+            pugs[i] = this.pug("pug" + i);
+        }
+        MembershipIndex index = new MembershipIndex();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 2000; round++) {
+                for (PUG pug : pugs) {
+                    index.add(PLAYER, pug);
+                }
+                for (PUG pug : pugs) {
+                    index.remove(PLAYER, pug);
+                }
+            }
+            done.countDown();
+        });
+        writer.start();
+        while (done.getCount() > 0) {
+            List<PUG> seen = index.of(PLAYER);
+            // never a half-copied array with holes in it
+            assertFalse(seen.contains(null));
+            assertEquals(seen.size(), new HashSet<>(seen).size());
+        }
+        writer.join();
+        assertTrue(index.of(PLAYER).isEmpty());
+    }
+}
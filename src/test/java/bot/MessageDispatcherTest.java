@@ -0,0 +1,91 @@
+package bot;
+
+import net.dv8tion.jda.core.entities.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// a dispatcher that can only have one message out at a time, stuck behind a round trip that never comes back, so
+// whatever's sent after it stays queued
+public class MessageDispatcherTest {
+    private static final int CAPACITY = 3;
+
+    private FakeDiscord discord;
+    private MessageDispatcher dispatcher;
+
+    @Before
+    public void createDispatcher() throws InterruptedException {
+        discord = new FakeDiscord(20, new SimulatedRest(60_000, 0, 0, 0));
+        dispatcher = new MessageDispatcher(CAPACITY, 1000, 1, 1000, 10, 1);
+        dispatcher.send(MessageDispatcher.Priority.REPLY, discord.channel, "stuck");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.queued() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, dispatcher.inFlight());
+        assertEquals(0, dispatcher.queued());
+    }
+
+    private User member(int i) {
+        return discord.user(FakeDiscord.FIRST_MEMBER + i);
+    }
+
+    @Test
+    public void fullQueueMakesRoomForMoreUrgentMessages() {
+        MessageDispatcher.Batch announcement = dispatcher.batch("announcement");
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(dispatcher.sendDM(MessageDispatcher.Priority.BROADCAST, this.member(i), "new PUG",
+                    announcement));
+        }
+        assertFalse(dispatcher.sendDM(MessageDispatcher.Priority.BROADCAST, this.member(3), "new PUG",
+                announcement));
+        assertEquals(1, announcement.getFailed());
+
+        // each of these pushes out a broadcast
+        assertTrue(dispatcher.send(MessageDispatcher.Priority.REPLY, discord.channel, "reply"));
+        assertTrue(dispatcher.sendDM(MessageDispatcher.Priority.REMINDER, this.member(4), "reminder"));
+        assertEquals(3, announcement.getFailed());
+        assertEquals(CAPACITY, dispatcher.queued());
+
+        // a reply pushes out the last broadcast, then the reminder
+        assertTrue(dispatcher.send(MessageDispatcher.Priority.REPLY, discord.channel, "reply"));
+        assertEquals(4, announcement.getFailed());
+        assertTrue(dispatcher.send(MessageDispatcher.Priority.REPLY, discord.channel, "reply"));
+
+        // nothing queued ranks below these, so they're the ones dropped
+        assertFalse(dispatcher.send(MessageDispatcher.Priority.REPLY, discord.channel, "reply"));
+        assertFalse(dispatcher.sendDM(MessageDispatcher.Priority.REMINDER, this.member(5), "reminder"));
+        assertEquals(CAPACITY, dispatcher.queued());
+    }
+
+    @Test
+    public void equalPriorityDoesNotPushOut() {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(dispatcher.sendDM(MessageDispatcher.Priority.UPDATE, this.member(i), "update"));
+        }
+        assertFalse(dispatcher.sendDM(MessageDispatcher.Priority.UPDATE, this.member(3), "update"));
+        assertFalse(dispatcher.sendDM(MessageDispatcher.Priority.BROADCAST, this.member(3), "new PUG"));
+        assertEquals(CAPACITY, dispatcher.queued());
+    }
+
+    @Test
+    public void splitsLongTextBetweenLines() {
+        char[] line = new char[1500];
+        Arrays.fill(line, 'x');
+        String text = new String(line) + "\n" + new String(line) + "\n" + "end";
+        List<String> pages = MessageDispatcher.pages(text);
+        assertEquals(2, pages.size());
+        assertEquals(new String(line), pages.get(0));
+        assertEquals(new String(line) + "\nend", pages.get(1));
+
+        char[] unbroken = new char[MessageDispatcher.MESSAGE_LIMIT + 10];
+        Arrays.fill(unbroken, 'y');
+        pages = MessageDispatcher.pages(new String(unbroken));
+        assertEquals(MessageDispatcher.MESSAGE_LIMIT, pages.get(0).length());
+        assertEquals(10, pages.get(1).length());
+    }
+}
@@ -0,0 +1,127 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PUGIndexTest {
+    private static final ZonedDateTime NOON = ZonedDateTime.of(2030, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final long MOD = FakeDiscord.FIRST_MEMBER;
+    private static final long OTHER_MOD = FakeDiscord.FIRST_MEMBER + 1;
+
+    private FakeDiscord discord;
+    private ScheduledExecutorService roleUpdates;
+    private PUGServices services;
+    private PUGIndex index;
+
+    @Before
+    public void createServices() {
+        discord = new FakeDiscord(5);
+        roleUpdates = Executors.newSingleThreadScheduledExecutor();
+        RoleSync roles = new RoleSync(() -> discord.guild, roleUpdates, 500);
+        services = new PUGServices(new MessageDispatcher(1000, 45, 1, 1000, 10, 50),
+                new ReminderWheel(10, 64, TimeUnit.HOURS.toMillis(1)), roles, new MembershipIndex(),
+                new SubscriptionIndex(new ZoneMap()), pug -> {});
+        index = new PUGIndex();
+    }
+
+    @After
+    public void stopRoleUpdates() {
+        roleUpdates.shutdownNow();
+    }
+
+    private PUG pug(String name, int hoursAfterNoon, long mod) {
+        return new PUG(new LongSet(), new LongSet(), NOON.plusHours(hoursAfterNoon), "", mod, discord.guild, name,
+                5_000_000, new ReminderPlan(new int[0], ReminderPlan.NO_WARNING), 0, services);
+    }
+
+    private static long at(int hoursAfterNoon) {
+        return NOON.plusHours(hoursAfterNoon).toInstant().toEpochMilli();
+    }
+
+    private static List<String> names(Collection<PUG> pugs) {
+        List<String> names = new ArrayList<>();
+        for (PUG pug : pugs) {
+            names.add(pug.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void ordersByStartThenName() {
+        index.put(this.pug("late", 5, MOD));
+        index.put(this.pug("b-tie", 1, MOD));
+        index.put(this.pug("early", -3, OTHER_MOD));
+        index.put(this.pug("a-tie", 1, OTHER_MOD));
+        assertEquals(Arrays.asList("early", "a-tie", "b-tie", "late"), names(index.inOrder()));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void betweenIncludesTheStartAndExcludesTheEnd() {
+        index.put(this.pug("one", 1, MOD));
+        index.put(this.pug("two", 2, MOD));
+        index.put(this.pug("three", 3, MOD));
+        assertEquals(Arrays.asList("one", "two"), names(index.between(at(1), at(3))));
+        assertEquals(Arrays.asList("two", "three"), names(index.between(at(1) + 1, at(4))));
+        assertTrue(index.between(at(4), at(10)).isEmpty());
+        assertTrue(index.between(at(2), at(2)).isEmpty());
+    }
+
+    @Test
+    public void listsEachModsPUGsInOrder() {
+        index.put(this.pug("later", 4, MOD));
+        index.put(this.pug("theirs", 2, OTHER_MOD));
+        index.put(this.pug("sooner", 1, MOD));
+        assertEquals(Arrays.asList("sooner", "later"), names(index.moddedBy(MOD)));
+        assertEquals(Arrays.asList("theirs"), names(index.moddedBy(OTHER_MOD)));
+        assertTrue(index.moddedBy(OTHER_MOD + 1).isEmpty());
+    }
+
+    @Test
+    public void putAgainFollowsRescheduleAndTransfer() {
+        PUG moving = this.pug("moving", 1, MOD);
+        index.put(moving);
+        index.put(this.pug("fixed", 2, MOD));
+        // unchanged, so nothing moves
+        index.put(moving);
+        assertEquals(Arrays.asList("moving", "fixed"), names(index.inOrder()));
+
+        moving.reschedule(NOON.plusHours(3));
+        index.put(moving);
+        assertEquals(Arrays.asList("fixed", "moving"), names(index.inOrder()));
+        assertEquals(Arrays.asList("moving"), names(index.between(at(3), at(4))));
+        assertTrue(index.between(at(1), at(2)).isEmpty());
+
+        moving.changeMod(discord.user(OTHER_MOD));
+        index.put(moving);
+        assertEquals(Arrays.asList("fixed"), names(index.moddedBy(MOD)));
+        assertEquals(Arrays.asList("moving"), names(index.moddedBy(OTHER_MOD)));
+        assertEquals(2, index.size());
+        assertEquals(2, index.inOrder().size());
+    }
+
+    @Test
+    public void removeTakesItOutEverywhere() {
+        PUG gone = this.pug("gone", 1, MOD);
+        index.put(gone);
+        index.put(this.pug("kept", 1, MOD));
+        index.remove(gone);
+        index.remove(gone);
+        assertEquals(Arrays.asList("kept"), names(index.inOrder()));
+        assertEquals(Arrays.asList("kept"), names(index.moddedBy(MOD)));
+        assertEquals(1, index.size());
+    }
+}
@@ -0,0 +1,81 @@
+package bot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// a PUG's reminders against a fast wheel, including one firing while the PUG is being changed
+public class PUGReminderTest {
+    private static final long TICK_MILLIS = 10;
+
+    private FakeDiscord discord;
+    private ReminderWheel reminders;
+    private MessageDispatcher dispatcher;
+    private AtomicInteger reminded;
+    private PUGServices services;
+
+    @Before
+    public void createServices() {
+        discord = new FakeDiscord(20);
+        reminders = new ReminderWheel(TICK_MILLIS, 64, TimeUnit.HOURS.toMillis(1));
+        dispatcher = new MessageDispatcher(1000, 45, 1, 1000, 10, 50);
+        reminded = new AtomicInteger();
+        RoleSync roles = new RoleSync(() -> discord.guild, Executors.newSingleThreadScheduledExecutor(), 500);
+        services = new PUGServices(dispatcher, reminders, roles, new MembershipIndex(),
+                new SubscriptionIndex(new ZoneMap()), pug -> reminded.incrementAndGet());
+    }
+
+    // a restored PUG whose first stage, minutes before the start, comes due in delayMillis
+    private PUG pug(int minutes, long delayMillis, ReminderPlan plan) {
+        ZonedDateTime time = ZonedDateTime.now().plusMinutes(minutes).plusNanos(delayMillis * 1_000_000);
+        return new PUG(new LongSet(), new LongSet(), time, "reminder test", FakeDiscord.FIRST_MEMBER, discord.guild,
+                "test", 5_000_000, plan, 0, services);
+    }
+
+    private void awaitReminded(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reminded.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(TICK_MILLIS);
+        }
+    }
+
+    @Test
+    public void sendsStagesInOrder() throws InterruptedException {
+        // both stages came due while the bot was down, but inside the grace window
+        PUG pug = this.pug(10, 0, new ReminderPlan(new int[] {40, 30}, ReminderPlan.NO_WARNING));
+        this.awaitReminded(2);
+        assertEquals(2, reminded.get());
+        assertEquals(2, pug.getNextReminder());
+        assertEquals(0, reminders.pending());
+    }
+
+    @Test
+    public void reminderReplacedWhileFiringDoesNothing() throws InterruptedException {
+        PUG pug = this.pug(40, 200, new ReminderPlan(new int[] {40, 5}, ReminderPlan.NO_WARNING));
+        assertEquals(1, reminders.pending());
+
+        synchronized (pug) {
+            // the wheel has taken the timeout out and is waiting for the PUG's lock to send it
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reminders.pending() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, reminders.pending());
+            Thread.sleep(5 * TICK_MILLIS);
+
+            // too late to cancel, so the stage that's firing must notice it's been replaced
+            pug.setReminderPlan(new ReminderPlan(new int[] {5}, ReminderPlan.NO_WARNING));
+        }
+        Thread.sleep(20 * TICK_MILLIS);
+
+        assertEquals(0, reminded.get());
+        assertEquals(0, pug.getNextReminder());
+        assertEquals(1, reminders.pending());
+    }
+}
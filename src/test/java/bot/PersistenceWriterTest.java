@@ -0,0 +1,132 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// group commit, and what happens to changes that arrive while it's shutting down
+public class PersistenceWriterTest {
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private File dir;
+    private String backup;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("persistence").toFile();
+        backup = new File(dir, "backup").getPath();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private Journal journal() {
+        return new Journal(backup + ".bin", backup + ".txt", backup + ".journal", 1_000_000);
+    }
+
+    private PersistenceWriter writer(Journal journal) throws Exception {
+        journal.load();
+        HistoryArchive history = new HistoryArchive(backup + ".history", backup + ".history.idx");
+        history.load();
+        return new PersistenceWriter(journal, history, 1, new Metrics());
+    }
+
+    @Test
+    public void flushWaitsForEverythingBeforeIt() throws Exception {
+        PersistenceWriter writer = this.writer(this.journal());
+        for (int user = 1; user <= 100; user++) {
+            writer.submit(JournalEntry.timeZone(Integer.toString(user), UTC));
+        }
+        writer.flush().get(10, TimeUnit.SECONDS);
+        writer.shutdown();
+        assertEquals(100, this.journal().load().timeZones.size());
+    }
+
+    @Test
+    public void flushAfterShutdownFailsRatherThanHanging() throws Exception {
+        PersistenceWriter writer = this.writer(this.journal());
+        writer.shutdown();
+        // a second time is harmless
+        writer.shutdown();
+        CompletableFuture<Void> flushed = writer.flush();
+        assertTrue(flushed.isDone());
+        try {
+            flushed.get();
+            fail("flushed after shutdown");
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void submitAfterShutdownIsRefused() throws Exception {
+        PersistenceWriter writer = this.writer(this.journal());
+        writer.shutdown();
+        writer.submit(JournalEntry.timeZone("1", UTC));
+    }
+
+    @Test
+    public void everyAcceptedChangeIsSavedWhenShutdownRacesSubmits() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            this.deleteDirectory();
+            dir.mkdirs();
+            PersistenceWriter writer = this.writer(this.journal());
+
+            int threads = 4;
+            CountDownLatch started = new CountDownLatch(threads);
+            List<List<String>> accepted = new ArrayList<>();
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<String> mine = new ArrayList<>();
+                accepted.add(mine);
+                int first = t * 1_000_000;
+                Thread submitter = new Thread(() -> {
+                    started.countDown();
+                    for (int user = first + 1; ; user++) {
+                        try {
+                            writer.submit(JournalEntry.timeZone(Integer.toString(user), UTC));
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                        mine.add(Integer.toString(user));
+                    }
+                });
+                submitters.add(submitter);
+                submitter.start();
+            }
+            started.await();
+            Thread.sleep(2);
+            writer.shutdown();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            StoredState state = this.journal().load();
+            int total = 0;
+            for (List<String> mine : accepted) {
+                total += mine.size();
+                for (String user : mine) {
+                    assertTrue("lost " + user + " in round " + round, state.timeZones.containsKey(user));
+                }
+            }
+            assertEquals(total, state.timeZones.size());
+        }
+    }
+}
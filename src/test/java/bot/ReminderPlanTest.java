@@ -0,0 +1,91 @@
+package bot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReminderPlanTest {
+    private static void assertStages(ReminderPlan plan, int[] minutes, boolean[] warnings) {
+        assertEquals(minutes.length, plan.stageCount());
+        for (int stage = 0; stage < minutes.length; stage++) {
+            assertEquals("stage " + stage, minutes[stage], plan.stageMinutes(stage));
+            assertEquals("stage " + stage, warnings[stage], plan.isWarning(stage));
+        }
+    }
+
+    private static void assertRejected(String ladder, String warning) {
+        try {
+            ReminderPlan.parse(ladder, warning);
+            fail("accepted \"" + ladder + "\" with warning \"" + warning + "\"");
+        } catch (IllegalCommandArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void parsesUnitsAndCombinations() throws IllegalCommandArgumentException {
+        ReminderPlan plan = ReminderPlan.parse("  1d 1h30m 5M start ", null);
+        assertArrayEquals(new int[] {1440, 90, 5, 0}, plan.getReminderMinutes());
+        assertEquals(ReminderPlan.NO_WARNING, plan.getWarningMinutes());
+        assertEquals(ReminderPlan.MAX_MINUTES,
+                ReminderPlan.parse("365d", "none").getReminderMinutes()[0]);
+    }
+
+    @Test
+    public void stagesRunLatestFirstWhateverTheOrderGiven() throws IllegalCommandArgumentException {
+        ReminderPlan plan = ReminderPlan.parse("5m start 24h 1h", "none");
+        assertArrayEquals(new int[] {1440, 60, 5, 0}, plan.getReminderMinutes());
+        assertStages(plan, new int[] {1440, 60, 5, 0}, new boolean[4]);
+    }
+
+    @Test
+    public void warningTakesItsPlaceInTheLadder() throws IllegalCommandArgumentException {
+        assertStages(ReminderPlan.parse("1h 5m", "30m"), new int[] {60, 30, 5}, new boolean[] {false, true, false});
+        assertStages(ReminderPlan.parse("1h 5m", "2h"), new int[] {120, 60, 5}, new boolean[] {true, false, false});
+        assertStages(ReminderPlan.parse("1h 5m", "1m"), new int[] {60, 5, 1}, new boolean[] {false, false, true});
+        // at the same time as a reminder, the mod hears first
+        assertStages(ReminderPlan.parse("1h 5m", "1h"), new int[] {60, 60, 5}, new boolean[] {true, false, false});
+    }
+
+    @Test
+    public void noneMeansNoReminders() throws IllegalCommandArgumentException {
+        ReminderPlan plan = ReminderPlan.parse("None", "NONE");
+        assertEquals(0, plan.stageCount());
+        assertEquals(0, plan.legacyMinutesWarning());
+        assertEquals("Reminders: none\nShort-handed warning to the mod: none", plan.describe());
+
+        // a warning on its own is still a stage
+        assertStages(ReminderPlan.parse("none", "15m"), new int[] {15}, new boolean[] {true});
+    }
+
+    @Test
+    public void rejectsBadLadders() {
+        assertRejected("", null);
+        assertRejected("   ", null);
+        assertRejected("1h 5", null);
+        assertRejected("h", null);
+        assertRejected("1x", null);
+        assertRejected("-5m", null);
+        assertRejected("1h 60m", null);
+        assertRejected("5m start 0m", null);
+        assertRejected("366d", null);
+        assertRejected("99999999999999m", null);
+        assertRejected("1h", "soon");
+        assertRejected("1h", "9999999d");
+    }
+
+    @Test
+    public void formatsAndDescribes() throws IllegalCommandArgumentException {
+        assertEquals("start", ReminderPlan.formatMinutes(0));
+        assertEquals("1d2h3m", ReminderPlan.formatMinutes(1440 + 120 + 3));
+        assertEquals("1h", ReminderPlan.formatMinutes(60));
+        assertEquals("Reminders: 1d, 1h30m, start\nShort-handed warning to the mod: 1h",
+                ReminderPlan.parse("start 1h30m 1d", "1h").describe());
+    }
+
+    @Test
+    public void legacyMinutesWarningIsTheLastReminderBeforeStart() throws IllegalCommandArgumentException {
+        assertEquals(5, ReminderPlan.parse("1h 5m start", null).legacyMinutesWarning());
+        assertEquals(15, ReminderPlan.single(15).legacyMinutesWarning());
+        assertArrayEquals(new int[] {15}, ReminderPlan.single(15).getReminderMinutes());
+    }
+}
@@ -0,0 +1,124 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+// a small, fast wheel, so timeouts a few hundred milliseconds out go around it several times
+public class ReminderWheelTest {
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 4;
+
+    @Test
+    public void firesAfterWaitingOutExtraRounds() throws InterruptedException {
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        long[] delays = {30, 150, 400};
+        AtomicLong[] fired = new AtomicLong[delays.length];
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < delays.length; i++) {
+            AtomicLong firedAt = fired[i] = new AtomicLong();
+            wheel.schedule(now + delays[i], timeout -> {
+                firedAt.set(System.currentTimeMillis());
+                done.countDown();
+            });
+        }
+        assertEquals(delays.length, wheel.pending());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue("fired early: " + i, fired[i].get() >= now + delays[i]);
+        }
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void lateDeadlineFiresInsideGraceWindow() throws InterruptedException {
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        CountDownLatch done = new CountDownLatch(1);
+        assertNotNull(wheel.schedule(System.currentTimeMillis() - 500, timeout -> done.countDown()));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(wheel.lastLagMillis() >= 500);
+    }
+
+    @Test
+    public void deadlineOutsideGraceWindowIsDropped() {
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        assertNull(wheel.schedule(System.currentTimeMillis() - 5000, timeout -> fail("ran a dropped timeout")));
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void cancelledTimeoutNeverRuns() throws InterruptedException {
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        AtomicInteger runs = new AtomicInteger();
+        long now = System.currentTimeMillis();
+        ReminderWheel.Timeout first = wheel.schedule(now + 50, timeout -> runs.incrementAndGet());
+        ReminderWheel.Timeout second = wheel.schedule(now + 50, timeout -> runs.incrementAndGet());
+        first.cancel();
+        first.cancel();
+        assertEquals(1, wheel.pending());
+
+        Thread.sleep(200);
+        assertEquals(1, runs.get());
+        assertEquals(0, wheel.pending());
+        // too late to do anything, but harmless
+        second.cancel();
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void taskIsHandedTheTimeoutThatFiredIt() throws InterruptedException {
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        AtomicReference<ReminderWheel.Timeout> handed = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ReminderWheel.Timeout scheduled = wheel.schedule(System.currentTimeMillis() + 20, timeout -> {
+            handed.set(timeout);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(scheduled, handed.get());
+    }
+
+    @Test
+    public void cancelWhileFiringCanBeToldApart() throws InterruptedException {
+        // the wheel has already taken the timeout out when the task runs, so cancel() can't stop it - the owner has
+        // to compare what it's handed with what it's waiting on, the way PUG.remind does
+        ReminderWheel wheel = new ReminderWheel(TICK_MILLIS, WHEEL_SIZE, 1000);
+        AtomicReference<ReminderWheel.Timeout> current = new AtomicReference<>();
+        AtomicInteger sent = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch replaced = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        current.set(wheel.schedule(System.currentTimeMillis() + 20, timeout -> {
+            running.countDown();
+            try {
+                replaced.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (current.get() == timeout) sent.incrementAndGet();
+            done.countDown();
+        }));
+
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        current.get().cancel();
+        current.set(wheel.schedule(System.currentTimeMillis() + 60_000, timeout -> sent.incrementAndGet()));
+        replaced.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, sent.get());
+        assertEquals(1, wheel.pending());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wheelSizeMustBePowerOfTwo() {
+        new ReminderWheel(TICK_MILLIS, 6, 0);
+    }
+}
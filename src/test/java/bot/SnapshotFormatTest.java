@@ -0,0 +1,158 @@
+package bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class SnapshotFormatTest {
+    private File dir;
+    private File snapshot;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        snapshot = new File(dir, "backup.bin");
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static StoredState state() {
+        ZoneId newYork = ZoneId.of("America/New_York");
+        ZoneId berlin = ZoneId.of("Europe/Berlin");
+
+        LinkedHashMap<String, SerializablePUG> pugs = new LinkedHashMap<>();
+        pugs.put("scrim", new SerializablePUG(new LinkedHashSet<>(Arrays.asList("10", "11", "12")),
+                new LinkedHashSet<>(Arrays.asList("13")), ZonedDateTime.of(2026, 10, 20, 20, 30, 0, 0, newYork),
+                "scrims, bring snacks", "10", "1000", "scrim", "5000", new ReminderPlan(new int[] {60, 10}, 30), 1));
+        pugs.put("ranked", new SerializablePUG(new LinkedHashSet<>(), new LinkedHashSet<>(),
+                ZonedDateTime.of(2026, 11, 1, 19, 0, 0, 0, berlin), "", "20", "1000", "ranked", "5001",
+                new ReminderPlan(new int[0], ReminderPlan.NO_WARNING), 0));
+
+        LinkedHashMap<String, ZoneId> zones = new LinkedHashMap<>();
+        zones.put("10", newYork);
+        zones.put("20", berlin);
+        zones.put("30", ZoneId.of("UTC+05:30"));
+
+        LinkedHashMap<String, Skill> skills = new LinkedHashMap<>();
+        skills.put("10", new Skill(2500, Skill.TANK | Skill.SUPPORT));
+        skills.put("11", new Skill(Skill.MAX_RATING, Skill.ANY));
+
+        StoredState state = new StoredState(pugs, zones, skills);
+        state.dmHours.put("12", 0xff0000);
+        return state;
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        StoredState written = state();
+        SnapshotFormat.write(snapshot, written, 42);
+
+        SnapshotFormat.Snapshot read = SnapshotFormat.read(snapshot);
+        assertEquals(42, read.sequence);
+        StoredState state = read.state;
+
+        assertEquals(Arrays.asList("scrim", "ranked"), Arrays.asList(state.pugs.keySet().toArray()));
+        for (String name : written.pugs.keySet()) {
+            SerializablePUG expected = written.pugs.get(name);
+            SerializablePUG actual = state.pugs.get(name);
+            assertEquals(expected.getPlayers(), actual.getPlayers());
+            assertEquals(expected.getWatchers(), actual.getWatchers());
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getDescription(), actual.getDescription());
+            assertEquals(expected.getMod(), actual.getMod());
+            assertEquals(expected.getGuild(), actual.getGuild());
+            assertEquals(expected.getIdentifier(), actual.getIdentifier());
+            assertArrayEquals(expected.getPlan().getReminderMinutes(), actual.getPlan().getReminderMinutes());
+            assertEquals(expected.getPlan().getWarningMinutes(), actual.getPlan().getWarningMinutes());
+            assertEquals(expected.getNextReminder(), actual.getNextReminder());
+        }
+
+        assertEquals(written.timeZones, state.timeZones);
+        assertEquals(written.skills.keySet(), state.skills.keySet());
+        for (String user : written.skills.keySet()) {
+            assertEquals(written.skills.get(user).rating, state.skills.get(user).rating);
+            assertEquals(written.skills.get(user).roles, state.skills.get(user).roles);
+        }
+        assertEquals(written.dmHours, state.dmHours);
+    }
+
+    @Test
+    public void roundTripsEmptyState() throws IOException {
+        SnapshotFormat.write(snapshot, new StoredState(), 0);
+        StoredState state = SnapshotFormat.read(snapshot).state;
+        assertTrue(state.pugs.isEmpty());
+        assertTrue(state.timeZones.isEmpty());
+        assertTrue(state.skills.isEmpty());
+        assertTrue(state.dmHours.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptSnapshot() throws IOException {
+        SnapshotFormat.write(snapshot, state(), 42);
+        RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+        file.seek(file.length() / 2);
+        int middle = file.read();
+        file.seek(file.length() / 2);
+        file.write(middle ^ 0xff);
+        file.close();
+
+        SnapshotFormat.read(snapshot);
+    }
+
+    @Test
+    public void readsJavaSerializedBackup() throws IOException, ClassNotFoundException {
+        // what backups looked like before the journal: the PUGs and time zones, with a single reminder and no plan
+        StoredState written = state();
+        File legacy = new File(dir, "backup.ser");
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(legacy));
+        out.writeObject(written.pugs);
+        out.writeObject(written.timeZones);
+        out.close();
+
+        SnapshotFormat.Snapshot read = SnapshotFormat.readLegacy(legacy);
+        assertEquals(0, read.sequence);
+        assertEquals(written.timeZones, read.state.timeZones);
+        SerializablePUG scrim = read.state.pugs.get("scrim");
+        assertEquals(written.pugs.get("scrim").getPlayers(), scrim.getPlayers());
+        assertArrayEquals(new int[] {10}, scrim.getPlan().getReminderMinutes());
+        assertEquals(ReminderPlan.NO_WARNING, scrim.getPlan().getWarningMinutes());
+        assertEquals(0, scrim.getNextReminder());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        SnapshotFormat.write(snapshot, state(), 42);
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(4, buffer.getInt(4) + 1);
+        // with a good checksum, so it's the version that gets it rejected
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        buffer.putInt(bytes.length - 4, (int) crc.getValue());
+        Files.write(snapshot.toPath(), bytes);
+
+        SnapshotFormat.read(snapshot);
+    }
+}
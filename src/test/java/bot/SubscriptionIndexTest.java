@@ -0,0 +1,128 @@
+package bot;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionIndexTest {
+    private static int hours(int from, int to) {
+        int bits = 0;
+        for (int h = from; h < to; h++) {
+            bits |= 1 << h;
+        }
+        return bits;
+    }
+
+    private static void assertRejected(String text) {
+        try {
+            SubscriptionIndex.parseHours(text);
+            fail("accepted \"" + text + "\"");
+        } catch (IllegalCommandArgumentException expected) {
+        }
+    }
+
+    private static long[] sorted(long[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void parsesTwelveAndTwentyFourHourRanges() throws IllegalCommandArgumentException {
+        assertEquals(hours(18, 23), SubscriptionIndex.parseHours("6pm-11pm"));
+        assertEquals(hours(18, 23), SubscriptionIndex.parseHours("18-23"));
+        assertEquals(hours(18, 23), SubscriptionIndex.parseHours(" 6:00 PM to 11:00pm "));
+        assertEquals(hours(9, 17), SubscriptionIndex.parseHours("9am - 5pm"));
+        // a bare number is 24-hour, even next to one with am or pm
+        assertEquals(hours(9, 17), SubscriptionIndex.parseHours("9-5pm"));
+        assertEquals(hours(5, 9), SubscriptionIndex.parseHours("5-9am"));
+    }
+
+    @Test
+    public void midnightAndNoon() throws IllegalCommandArgumentException {
+        assertEquals(hours(0, 12), SubscriptionIndex.parseHours("12am-12pm"));
+        assertEquals(hours(12, 24), SubscriptionIndex.parseHours("12pm-12am"));
+        assertEquals(hours(20, 24), SubscriptionIndex.parseHours("20-24"));
+        assertEquals(hours(0, 6), SubscriptionIndex.parseHours("24-6"));
+        assertEquals(hours(23, 24), SubscriptionIndex.parseHours("11pm-12am"));
+    }
+
+    @Test
+    public void wrapsPastMidnight() throws IllegalCommandArgumentException {
+        assertEquals(hours(22, 24) | hours(0, 2), SubscriptionIndex.parseHours("22-2"));
+        assertEquals(hours(23, 24) | hours(0, 1), SubscriptionIndex.parseHours("11pm-1am"));
+    }
+
+    @Test
+    public void sameHourBothEndsMeansAllDay() throws IllegalCommandArgumentException {
+        assertEquals(SubscriptionIndex.ALL_HOURS, SubscriptionIndex.parseHours("9-9"));
+        assertEquals(SubscriptionIndex.ALL_HOURS, SubscriptionIndex.parseHours("0-24"));
+        assertEquals(SubscriptionIndex.ALL_HOURS, SubscriptionIndex.parseHours("12am-0"));
+    }
+
+    @Test
+    public void rejectsWhatIsNotARange() {
+        assertRejected("");
+        assertRejected("6pm");
+        assertRejected("evenings");
+        assertRejected("6:30pm-11pm");
+        assertRejected("6pm-11pm-1am");
+        assertRejected("123-4");
+        assertRejected("25-3");
+        assertRejected("0am-5am");
+        assertRejected("13pm-2am");
+        assertRejected("6pm,11pm");
+    }
+
+    @Test
+    public void recipientsFollowEachUsersHoursInTheirOwnZone() {
+        ZoneMap zones = new ZoneMap();
+        SubscriptionIndex index = new SubscriptionIndex(zones);
+        for (long user = 1; user <= 5; user++) {
+            index.subscribe(user);
+        }
+        // 1 takes everything. 2 and 3 want evenings in New York and Berlin. 4 wants evenings but never set a zone.
+        // 5 unsubscribed.
+        zones.put(2, ZoneId.of("America/New_York"));
+        index.setHours(2, hours(18, 23));
+        zones.put(3, ZoneId.of("Europe/Berlin"));
+        index.setHours(3, hours(18, 23));
+        index.setHours(4, hours(18, 23));
+        index.unsubscribe(5);
+        assertFalse(index.isSubscribed(5));
+        assertEquals(4, index.size());
+
+        // 19:00 in Berlin is 13:00 in New York
+        ZonedDateTime berlinEvening = ZonedDateTime.of(2030, 6, 1, 17, 0, 0, 0, ZoneOffset.UTC);
+        assertArrayEquals(new long[] {1, 3, 4}, sorted(index.recipients(berlinEvening)));
+        // 19:00 in New York is 01:00 in Berlin
+        ZonedDateTime newYorkEvening = ZonedDateTime.of(2030, 6, 1, 23, 0, 0, 0, ZoneOffset.UTC);
+        assertArrayEquals(new long[] {1, 2, 4}, sorted(index.recipients(newYorkEvening)));
+
+        // all hours again is the same as never having narrowed it
+        index.setHours(2, SubscriptionIndex.ALL_HOURS);
+        assertEquals(SubscriptionIndex.ALL_HOURS, index.getHours(2));
+        assertArrayEquals(new long[] {1, 2, 3, 4}, sorted(index.recipients(berlinEvening)));
+    }
+
+    @Test
+    public void rebuildLeavesOutTheNoDMRole() {
+        FakeDiscord discord = new FakeDiscord(4);
+        long optedOut = FakeDiscord.FIRST_MEMBER + 2;
+        discord.guild.getMemberById(optedOut).getRoles().add(discord.guild.getRoleById(FakeDiscord.NO_DM_ID));
+
+        SubscriptionIndex index = new SubscriptionIndex(new ZoneMap());
+        // someone who's since left the server
+        index.subscribe(1);
+        index.rebuild(discord.guild, FakeDiscord.NO_DM_ID);
+        assertEquals(3, index.size());
+        assertFalse(index.isSubscribed(1));
+        assertFalse(index.isSubscribed(optedOut));
+        assertTrue(index.isSubscribed(FakeDiscord.FIRST_MEMBER));
+        assertTrue(index.isSubscribed(FakeDiscord.FIRST_MEMBER + 3));
+    }
+}
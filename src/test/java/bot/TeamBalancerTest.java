@@ -0,0 +1,145 @@
+package bot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+// small fixed rosters where which splits can field two of every role is known by hand
+public class TeamBalancerTest {
+    private static final int T = Skill.TANK;
+    private static final int D = Skill.DPS;
+    private static final int S = Skill.SUPPORT;
+
+    private static int[] repeat(int value, int times) {
+        int[] values = new int[times];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    // checks the teams are six each, everyone is placed once, and each member plays a role they signed up for,
+    // two to a role
+    private static void assertValid(TeamBalancer.Split split, int[] roles) {
+        assertEquals(TeamBalancer.TEAM_SIZE, split.teamA.length);
+        assertEquals(TeamBalancer.TEAM_SIZE, split.teamB.length);
+        assertEquals(roles.length - 2 * TeamBalancer.TEAM_SIZE, split.subs.length);
+        boolean[] placed = new boolean[roles.length];
+        for (int[] group : new int[][] {split.teamA, split.teamB, split.subs}) {
+            for (int player : group) {
+                assertFalse("placed twice: " + player, placed[player]);
+                placed[player] = true;
+            }
+        }
+        if (!split.rolesMet) return;
+        assertRoles(split.teamA, split.rolesA, roles);
+        assertRoles(split.teamB, split.rolesB, roles);
+    }
+
+    private static void assertRoles(int[] team, int[] assigned, int[] roles) {
+        int[] count = new int[Skill.SUPPORT + 1];
+        for (int i = 0; i < team.length; i++) {
+            int role = assigned[i];
+            assertTrue("player " + team[i] + " can't play " + role, (roles[team[i]] & role) != 0);
+            count[role]++;
+        }
+        assertEquals(TeamBalancer.PER_ROLE, count[T]);
+        assertEquals(TeamBalancer.PER_ROLE, count[D]);
+        assertEquals(TeamBalancer.PER_ROLE, count[S]);
+    }
+
+    @Test
+    public void evenSplitOfFlexPlayers() {
+        int[] ratings = {100, 200, 300, 400, 500, 600, 700, 800, 900, 1000, 1100, 1200};
+        int[] roles = repeat(Skill.ANY, 12);
+        TeamBalancer.Split split = TeamBalancer.balance(ratings, roles);
+        assertValid(split, roles);
+        assertTrue(split.rolesMet);
+        assertEquals(split.ratingA, split.ratingB);
+    }
+
+    @Test
+    public void noRolesOnRecordMeansFlex() {
+        int[] roles = repeat(0, 12);
+        TeamBalancer.Split split = TeamBalancer.balance(repeat(2000, 12), roles);
+        assertTrue(split.rolesMet);
+        assertValid(split, repeat(Skill.ANY, 12));
+    }
+
+    @Test
+    public void splitsEachRoleTwoAndTwo() {
+        // the tanks are far better than everyone else, so only an even pair of them per team balances - but two
+        // tanks per team is needed regardless
+        int[] ratings = {4000, 4000, 1000, 1000, 2000, 2000, 2000, 2000, 2000, 2000, 2000, 2000};
+        int[] roles = {T, T, T, T, D, D, D, D, S, S, S, S};
+        TeamBalancer.Split split = TeamBalancer.balance(ratings, roles);
+        assertTrue(split.rolesMet);
+        assertValid(split, roles);
+        assertEquals(split.ratingA, split.ratingB);
+    }
+
+    @Test
+    public void twoRolePlayerFillsTheMissingSlot() {
+        // only three players can tank, so the tank/support player has to, on the team the third tank isn't on
+        int[] roles = {T, T, T, T | S, D, D, D, D, S, S, S, S};
+        TeamBalancer.Split split = TeamBalancer.balance(repeat(2000, 12), roles);
+        assertTrue(split.rolesMet);
+        assertValid(split, roles);
+        int[] team = contains(split.teamA, 3) ? split.teamA : split.teamB;
+        int[] assigned = team == split.teamA ? split.rolesA : split.rolesB;
+        for (int i = 0; i < team.length; i++) {
+            if (team[i] == 3) assertEquals(T, assigned[i]);
+        }
+    }
+
+    @Test
+    public void infeasibleRosterStillSplits() {
+        // five players who can only tank can't all get a tank slot
+        int[] roles = {T, T, T, T, T, D, D, D, D, D, D, D};
+        TeamBalancer.Split split = TeamBalancer.balance(repeat(2000, 12), roles);
+        assertFalse(split.rolesMet);
+        assertValid(split, roles);
+    }
+
+    @Test
+    public void extraTankSitsOut() {
+        int[] roles = {T, T, T, T, T, D, D, D, D, S, S, S, S};
+        TeamBalancer.Split split = TeamBalancer.balance(repeat(2000, 13), roles);
+        assertTrue(split.rolesMet);
+        assertValid(split, roles);
+        // all else being equal, the last tank to sign up is the one benched
+        assertArrayEquals(new int[] {4}, split.subs);
+    }
+
+    @Test
+    public void latestSignupSitsOut() {
+        TeamBalancer.Split split = TeamBalancer.balance(repeat(2000, 13), repeat(Skill.ANY, 13));
+        assertArrayEquals(new int[] {12}, split.subs);
+    }
+
+    @Test
+    public void searchFindsFeasibleSplitOfLargerRoster() {
+        // too many ways to choose 12 of 20 to try them all, so this goes through the local search
+        int[] roles = new int[20];
+        int[] ratings = new int[20];
+        for (int p = 0; p < roles.length; p++) {
+            roles[p] = p < 16 ? new int[] {D, D, D, S}[p % 4] : T;
+            ratings[p] = 1500 + 100 * (p % 7);
+        }
+        TeamBalancer.Split split = TeamBalancer.balance(ratings, roles);
+        assertTrue(split.rolesMet);
+        assertValid(split, roles);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsTwelvePlayers() {
+        TeamBalancer.balance(repeat(2000, 11), repeat(Skill.ANY, 11));
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package bot;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.*;
+
+// everything is parsed as if it's Friday, October 16th 2026, 10pm in New York
+public class TimeParserTest {
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final Instant NOW = ZonedDateTime.of(2026, 10, 16, 22, 0, 0, 0, NEW_YORK).toInstant();
+
+    private static ZonedDateTime parse(String time) throws IllegalCommandArgumentException {
+        return TimeParser.parseTime(time, NEW_YORK, NOW);
+    }
+
+    private static ZonedDateTime newYork(int year, int month, int day, int hour) {
+        return ZonedDateTime.of(year, month, day, hour, 0, 0, 0, NEW_YORK);
+    }
+
+    @Test
+    public void weekdayWhoseTimeHasPassedIsNextWeek() throws Exception {
+        assertEquals(newYork(2026, 10, 23, 21), parse("friday 9pm"));
+    }
+
+    @Test
+    public void weekdayWhoseTimeIsStillToComeIsToday() throws Exception {
+        assertEquals(newYork(2026, 10, 16, 23), parse("friday 11pm"));
+        assertEquals(newYork(2026, 10, 17, 21), parse("sat 9pm"));
+    }
+
+    @Test
+    public void weekdayIsWorkedOutInTheTimesZone() throws Exception {
+        // it's only 7pm on the west coast
+        ZonedDateTime parsed = parse("friday 9pm PT");
+        assertEquals(ZonedDateTime.of(2026, 10, 16, 21, 0, 0, 0, ZoneId.of("America/Los_Angeles")).toInstant(),
+                parsed.toInstant());
+    }
+
+    @Test
+    public void dateWithoutYearThatHasGoneByIsNextYears() throws Exception {
+        assertEquals(newYork(2027, 1, 5, 20), parse("8pm 1-5"));
+        assertEquals(newYork(2027, 10, 15, 20), parse("8pm 10/15"));
+    }
+
+    @Test
+    public void todaysDateIsLeftAlone() throws Exception {
+        // already past, which !create rejects, but it's still today rather than a year from now
+        assertEquals(newYork(2026, 10, 16, 20), parse("8pm 10-16"));
+        assertEquals(newYork(2026, 12, 31, 20), parse("8pm 12-31"));
+    }
+
+    @Test
+    public void dateWithYearIsTakenAsGiven() throws Exception {
+        assertEquals(newYork(2026, 10, 15, 20), parse("8pm 10-15-2026"));
+    }
+
+    @Test
+    public void relativeDays() throws Exception {
+        assertEquals(newYork(2026, 10, 17, 20), parse("tomorrow 8pm"));
+        assertEquals(newYork(2026, 10, 16, 21), parse("today 9pm"));
+        assertEquals(NOW.plusSeconds(90 * 60), parse("in 1h30m").toInstant());
+    }
+
+    @Test
+    public void ambiguousAbbreviationsSayWhichZoneWasPicked() throws Exception {
+        assertEquals(ZoneOffset.ofHoursMinutes(5, 30), TimeParser.parseZone("IST").getRules().getOffset(NOW));
+        assertNotNull(TimeParser.ambiguity("IST"));
+        assertNotNull(TimeParser.ambiguity(" bst "));
+        assertNotNull(TimeParser.ambiguity("CST"));
+        assertNull(TimeParser.ambiguity("EST"));
+        assertNull(TimeParser.ambiguity("Europe/London"));
+    }
+
+    @Test(expected = IllegalCommandArgumentException.class)
+    public void needsAZone() throws Exception {
+        TimeParser.parseTime("friday 9pm", null, NOW);
+    }
+
+    @Test(expected = IllegalCommandArgumentException.class)
+    public void rejectsDateThatDoesNotExist() throws Exception {
+        parse("8pm 2-30");
+    }
+
+    @Test(expected = IllegalCommandArgumentException.class)
+    public void rejectsNonsense() throws Exception {
+        parse("whenever works");
+    }
+}
@@ -0,0 +1,79 @@
+package bot;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest {
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+
+    @Test
+    public void putsGetsAndReplaces() {
+        ZoneMap zones = new ZoneMap();
+        assertNull(zones.get(10));
+        zones.put(10, NEW_YORK);
+        zones.put(11, BERLIN);
+        assertEquals(NEW_YORK, zones.get(10));
+        assertEquals(BERLIN, zones.get(11));
+        assertEquals(2, zones.size());
+
+        zones.put(10, BERLIN);
+        assertEquals(BERLIN, zones.get(10));
+        assertEquals(2, zones.size());
+        assertNull(zones.get(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroIsNotAUser() {
+        new ZoneMap().put(0, NEW_YORK);
+    }
+
+    @Test
+    public void handsBackTheZoneThatWasRegistered() {
+        // equal ZoneIds aren't necessarily the same kind - an offset must come back as an offset
+        ZoneMap zones = new ZoneMap();
+        zones.put(1, ZoneOffset.ofHours(2));
+        zones.put(2, ZoneId.of("UTC+02:00"));
+        assertEquals(ZoneOffset.ofHours(2), zones.get(1));
+        assertEquals(ZoneId.of("UTC+02:00"), zones.get(2));
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomChanges() {
+        Random random = new Random(23);
+        ZoneId[] choices = new ZoneId[27];
+        for (int i = 0; i < 25; i++) {
+            choices[i] = ZoneOffset.ofHours(i - 12);
+        }
+        choices[25] = NEW_YORK;
+        choices[26] = BERLIN;
+        ZoneMap zones = new ZoneMap();
+        HashMap<Long, ZoneId> expected = new HashMap<>();
+        for (int step = 0; step < 50_000; step++) {
+            // negative IDs too, to make sure nothing assumes snowflakes are positive
+            long user = random.nextInt(20_000) - 5_000;
+            if (user == 0) continue;
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.get(user), zones.get(user));
+            } else {
+                ZoneId zone = choices[random.nextInt(choices.length)];
+                zones.put(user, zone);
+                expected.put(user, zone);
+            }
+        }
+        assertEquals(expected.size(), zones.size());
+        for (Map.Entry<Long, ZoneId> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), zones.get(entry.getKey()));
+        }
+        for (long user = 15_000; user < 16_000; user++) {
+            assertNull(zones.get(user));
+        }
+    }
+}